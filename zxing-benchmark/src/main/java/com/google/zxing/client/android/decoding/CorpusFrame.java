@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * One NV21 preview frame of the corpus, in landscape orientation as the camera delivers it. Frames
+ * are stored gzipped as {@code corpus/<name>_<width>x<height>.nv21.gz} on the class path, where
+ * the name usually tells the barcode format in the frame.
+ */
+final class CorpusFrame {
+
+    static final String DIRECTORY = "corpus";
+    static final String SUFFIX = ".nv21.gz";
+
+    private final byte[] data;
+    private final int width;
+    private final int height;
+
+    private CorpusFrame(byte[] data, int width, int height) {
+        if (data.length != width * height * 3 / 2) {
+            throw new IllegalArgumentException("Not an NV21 frame of " + width + 'x' + height);
+        }
+        this.data = data;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @param name the file name, without the suffix, such as {@code qr_code_1280x720}
+     */
+    static CorpusFrame load(String name) throws IOException {
+        int separator = name.lastIndexOf('_');
+        int x = name.indexOf('x', separator);
+        if (separator < 0 || x < 0) {
+            throw new IllegalArgumentException("No resolution in frame name " + name);
+        }
+        int width = Integer.parseInt(name.substring(separator + 1, x));
+        int height = Integer.parseInt(name.substring(x + 1));
+        InputStream in = CorpusFrame.class.getClassLoader().getResourceAsStream(DIRECTORY + '/' + name + SUFFIX);
+        if (in == null) {
+            throw new IOException("No frame " + name + " in the corpus");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(width * height * 3 / 2);
+        try {
+            in = new GZIPInputStream(in);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return new CorpusFrame(out.toByteArray(), width, height);
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the side of the framing rect, the way {@code CameraManager} sizes it for a screen of
+     * the preview's resolution: 5/8 of the shorter side, square
+     */
+    int getFramingSide() {
+        return 5 * Math.min(width, height) / 8;
+    }
+
+    /**
+     * @return left edge of the framing rect, centered in the frame as shown in portrait
+     */
+    int getFramingLeft() {
+        return (height - getFramingSide()) / 2;
+    }
+
+    /**
+     * @return top edge of the framing rect, centered in the frame as shown in portrait
+     */
+    int getFramingTop() {
+        return (width - getFramingSide()) / 2;
+    }
+
+}
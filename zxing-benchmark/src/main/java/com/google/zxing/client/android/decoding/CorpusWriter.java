@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the synthetic part of the corpus: one frame per barcode format and preview resolution,
+ * with the barcode upright in the framing rect once the frame is rotated for portrait, and two
+ * frames per resolution without a barcode, for the decoder's misses: blank paper, and paper with
+ * lines of print such as the text around a barcode on a package. The paper
+ * is lit unevenly and the edges are softened, so that the binarizer and the detectors have some
+ * work to do, but the frames are still far cleaner than real camera frames. Frames recorded on a
+ * device can be added next to them under the same naming scheme, see {@link CorpusFrame}.
+ * <p>
+ * Run with {@code gradle :zxing-benchmark:writeCorpus}.
+ */
+public final class CorpusWriter {
+
+    private static final int[][] RESOLUTIONS = {{640, 480}, {1280, 720}, {1920, 1080}};
+    private static final BarcodeFormat[] FORMATS = {
+            BarcodeFormat.QR_CODE,
+            BarcodeFormat.DATA_MATRIX,
+            BarcodeFormat.EAN_13,
+            BarcodeFormat.CODE_128
+    };
+    /**
+     * Share of the framing rect taken up by the barcode.
+     */
+    private static final float CODE_FRACTION = 0.7f;
+    private static final int INK = 0x28;
+    private static final int PAPER = 0xD0;
+    /**
+     * Names of the frames without a barcode.
+     */
+    private static final String BLANK = "blank";
+    private static final String PRINT = "print";
+
+    private CorpusWriter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: CorpusWriter <corpus directory>");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        for (int[] resolution : RESOLUTIONS) {
+            int width = resolution[0];
+            int height = resolution[1];
+            int size = (int) (framingSide(width, height) * CODE_FRACTION);
+            String suffix = String.format(Locale.US, "_%dx%d", width, height);
+            for (BarcodeFormat format : FORMATS) {
+                write(directory, format.name().toLowerCase(Locale.US) + suffix,
+                        render(encode(format, size), width, height));
+            }
+            write(directory, BLANK + suffix, render(null, width, height));
+            write(directory, PRINT + suffix, render(print(size), width, height));
+        }
+    }
+
+    private static void write(File directory, String name, byte[] frame) throws IOException {
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(directory, name + CorpusFrame.SUFFIX)));
+        try {
+            out.write(frame);
+        } finally {
+            out.close();
+        }
+        System.out.println("Wrote " + name);
+    }
+
+    private static int framingSide(int width, int height) {
+        return 5 * Math.min(width, height) / 8;
+    }
+
+    private static String contents(BarcodeFormat format) {
+        switch (format) {
+            case EAN_13:
+                return "9780201379624";
+            case CODE_128:
+                return "20170042";
+            default:
+                return "https://github.com/zxing/zxing/wiki/Getting-Started-Developing";
+        }
+    }
+
+    /**
+     * @param code what is printed in the middle of the framing rect, or null for blank paper
+     */
+    private static byte[] render(BitMatrix code, int width, int height) {
+        // In portrait, the frame is height pixels wide and width pixels tall
+        int side = framingSide(width, height);
+        int rectLeft = (height - side) / 2;
+        int rectTop = (width - side) / 2;
+        int codeWidth = code != null ? code.getWidth() : 0;
+        int codeHeight = code != null ? code.getHeight() : 0;
+        int codeLeft = rectLeft + (side - codeWidth) / 2;
+        int codeTop = rectTop + (side - codeHeight) / 2;
+
+        int[] luma = new int[width * height];
+        float centerX = (width - 1) / 2.0f;
+        float centerY = (height - 1) / 2.0f;
+        float maxDistance = centerX * centerX + centerY * centerY;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // Portrait pixel (x', y') is sensor pixel (y', height - 1 - x')
+                int portraitX = height - 1 - y;
+                int portraitY = x;
+                boolean ink = portraitX >= codeLeft && portraitX < codeLeft + codeWidth &&
+                        portraitY >= codeTop && portraitY < codeTop + codeHeight &&
+                        code.get(portraitX - codeLeft, portraitY - codeTop);
+                // Darker towards the corners, as with a phone's own shadow and lens falloff
+                float dx = x - centerX;
+                float dy = y - centerY;
+                float light = 1.0f - 0.35f * (dx * dx + dy * dy) / maxDistance;
+                luma[y * width + x] = (int) ((ink ? INK : PAPER) * light);
+            }
+        }
+
+        byte[] frame = new byte[width * height * 3 / 2];
+        // A 3x3 box blur, for the edges a lens slightly out of focus leaves
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                for (int j = Math.max(0, y - 1); j <= Math.min(height - 1, y + 1); j++) {
+                    for (int i = Math.max(0, x - 1); i <= Math.min(width - 1, x + 1); i++) {
+                        sum += luma[j * width + i];
+                    }
+                }
+                int count = (Math.min(height - 1, y + 1) - Math.max(0, y - 1) + 1) *
+                        (Math.min(width - 1, x + 1) - Math.max(0, x - 1) + 1);
+                frame[y * width + x] = (byte) (sum / count);
+            }
+        }
+        // Neutral chroma
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) 0x80;
+        }
+        return frame;
+    }
+
+    /**
+     * @param size width and height of the print
+     * @return lines of glyph-sized blocks, the same every time
+     */
+    private static BitMatrix print(int size) {
+        BitMatrix print = new BitMatrix(size);
+        Random random = new Random(42L);
+        int lineHeight = Math.max(4, size / 24);
+        for (int top = 0; top + lineHeight <= size; top += 2 * lineHeight) {
+            int left = 0;
+            while (true) {
+                int glyphWidth = lineHeight / 2 + random.nextInt(lineHeight);
+                if (left + glyphWidth > size) {
+                    break;
+                }
+                int glyphTop = top + random.nextInt(lineHeight / 4 + 1);
+                print.setRegion(left, glyphTop, glyphWidth, top + lineHeight - glyphTop);
+                // Wider gaps between words
+                left += glyphWidth + (random.nextInt(5) == 0 ? lineHeight : lineHeight / 4 + 1);
+            }
+        }
+        return print;
+    }
+
+    /**
+     * @param size the largest width or height the barcode may take, quiet zone included
+     * @return the barcode with whole pixels per module, one bit per pixel
+     */
+    private static BitMatrix encode(BarcodeFormat format, int size) {
+        boolean oneD = format == BarcodeFormat.EAN_13 || format == BarcodeFormat.CODE_128;
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, oneD ? 10 : 4);
+        BitMatrix matrix;
+        try {
+            // Written as small as it goes, then scaled here so modules are exactly as big
+            matrix = new MultiFormatWriter().encode(contents(format), format, 1, 1, hints);
+        } catch (WriterException we) {
+            throw new IllegalArgumentException(we);
+        }
+        int modulePixels = Math.max(1, size / matrix.getWidth());
+        int height = oneD ? size / 3 : matrix.getHeight() * modulePixels;
+        BitMatrix scaled = new BitMatrix(matrix.getWidth() * modulePixels, height);
+        for (int y = 0; y < height; y++) {
+            int sourceY = oneD ? 0 : y / modulePixels;
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                if (matrix.get(x / modulePixels, sourceY)) {
+                    scaled.set(x, y);
+                }
+            }
+        }
+        return scaled;
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each stage {@code DecodeHandler} puts a portrait preview frame through, over every frame of
+ * the corpus: rotating the framing rect out of the landscape frame, wrapping it in a luminance
+ * source, binarizing it, decoding it, and rendering the thumbnail shown with the result. The whole
+ * of {@link FrameDecoder#decode} is timed as well, with the default {@link DecodeOptions}: full
+ * resolution only, no interleaving or region tracking, and neither blurred frames skipped nor focus
+ * feedback wanted, so the sharpness isn't measured. It differs from {@link #decodeWithState()} by
+ * its reader, an {@link AdaptiveFormatReader} which tries first the format family that found
+ * barcodes lately, and by recording its timings and the candidate points.
+ * <p>
+ * Run with {@code gradle :zxing-benchmark:jmh}, which adds the allocation rate of each stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeHotPathBenchmark {
+
+    /**
+     * The formats the decode threads look for with the default preferences.
+     */
+    static final Set<BarcodeFormat> DEFAULT_FORMATS = EnumSet.of(BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E,
+            BarcodeFormat.EAN_13,
+            BarcodeFormat.EAN_8,
+            BarcodeFormat.RSS_14,
+            BarcodeFormat.RSS_EXPANDED,
+            BarcodeFormat.CODE_39,
+            BarcodeFormat.CODE_93,
+            BarcodeFormat.CODE_128,
+            BarcodeFormat.ITF,
+            BarcodeFormat.CODABAR,
+            BarcodeFormat.QR_CODE,
+            BarcodeFormat.DATA_MATRIX);
+
+    @Param({
+            "qr_code_640x480", "data_matrix_640x480", "ean_13_640x480", "code_128_640x480",
+            "qr_code_1280x720", "data_matrix_1280x720", "ean_13_1280x720", "code_128_1280x720",
+            "qr_code_1920x1080", "data_matrix_1920x1080", "ean_13_1920x1080", "code_128_1920x1080"
+    })
+    public String frame;
+
+    private byte[] data;
+    private int width;
+    private int height;
+    private int left;
+    private int top;
+    private int side;
+    private final FrameRotator frameRotator = new FrameRotator();
+    private FrameDecoder frameDecoder;
+    private MultiFormatReader reader;
+    private PlanarYUVLuminanceSource source;
+
+    @Setup
+    public void setUp() throws IOException {
+        CorpusFrame corpusFrame = CorpusFrame.load(frame);
+        data = corpusFrame.getData();
+        width = corpusFrame.getWidth();
+        height = corpusFrame.getHeight();
+        left = corpusFrame.getFramingLeft();
+        top = corpusFrame.getFramingTop();
+        side = corpusFrame.getFramingSide();
+
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, DEFAULT_FORMATS);
+        reader = new MultiFormatReader();
+        reader.setHints(hints);
+        frameDecoder = new FrameDecoder(hints, new DecodeOptions(), new ScanMetrics());
+        // Its own copy, the decoder's rotation buffer is overwritten by the other stages
+        source = frameDecoder.buildLuminanceSource(data, width, height, true, left, top, side, side);
+        source = new PlanarYUVLuminanceSource(source.getMatrix(), side, side, 0, 0, side, side, false);
+        if (frameDecoder.decode(source) == null) {
+            throw new IllegalStateException("Frame " + frame + " doesn't decode, so wouldn't time a hit");
+        }
+    }
+
+    @Benchmark
+    public byte[] rotate() {
+        return frameRotator.rotateCrop(data, width, height, left, top, side, side);
+    }
+
+    @Benchmark
+    public PlanarYUVLuminanceSource luminanceSource() {
+        return frameDecoder.buildLuminanceSource(data, width, height, true, left, top, side, side);
+    }
+
+    @Benchmark
+    public BitMatrix binarize() throws NotFoundException {
+        return new HybridBinarizer(source).getBlackMatrix();
+    }
+
+    /**
+     * Includes binarizing, which the 2D readers ask for as part of decoding.
+     */
+    @Benchmark
+    public Result decodeWithState() throws NotFoundException {
+        return reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+    }
+
+    @Benchmark
+    public Result frameDecoder() {
+        return frameDecoder.decode(source);
+    }
+
+    @Benchmark
+    public int[] thumbnail() {
+        return source.renderThumbnail();
+    }
+
+}
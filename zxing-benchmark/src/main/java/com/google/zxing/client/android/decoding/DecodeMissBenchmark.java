@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link FrameDecoder#decode} on the frames of the corpus without a barcode, which make up
+ * most of a scan session, with the format families interleaved across frames and without. An
+ * interleaved decoder alternates between the 1D and the 2D families, so its average is over both
+ * kinds of frame.
+ * <p>
+ * Run with {@code gradle :zxing-benchmark:jmh -PjmhArgs=DecodeMissBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeMissBenchmark {
+
+    @Param({
+            "blank_640x480", "print_640x480",
+            "blank_1280x720", "print_1280x720",
+            "blank_1920x1080", "print_1920x1080"
+    })
+    public String frame;
+
+    @Param({"false", "true"})
+    public boolean interleave;
+
+    private FrameDecoder frameDecoder;
+    private PlanarYUVLuminanceSource source;
+
+    @Setup
+    public void setUp() throws IOException {
+        CorpusFrame corpusFrame = CorpusFrame.load(frame);
+        int side = corpusFrame.getFramingSide();
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, DecodeHotPathBenchmark.DEFAULT_FORMATS);
+        frameDecoder = new FrameDecoder(hints, new DecodeOptions().setInterleaveFormats(interleave),
+                new ScanMetrics());
+        source = frameDecoder.buildLuminanceSource(corpusFrame.getData(), corpusFrame.getWidth(),
+                corpusFrame.getHeight(), true, corpusFrame.getFramingLeft(), corpusFrame.getFramingTop(), side, side);
+        for (int i = 0; i < 2; i++) {
+            if (frameDecoder.decode(source) != null) {
+                throw new IllegalStateException("Frame " + frame + " decodes, so wouldn't time a miss");
+            }
+        }
+    }
+
+    @Benchmark
+    public Result frameDecoder() {
+        return frameDecoder.decode(source);
+    }
+
+}
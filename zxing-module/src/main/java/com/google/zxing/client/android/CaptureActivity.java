@@ -19,6 +19,8 @@ package com.google.zxing.client.android;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
+import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.ActivityInfo;
@@ -32,6 +34,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.DocumentsContract;
 import android.provider.MediaStore;
@@ -53,29 +56,28 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
-import com.google.zxing.RGBLuminanceSource;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.camera.CameraManager;
 import com.google.zxing.client.android.consts.HelpActivity;
 import com.google.zxing.client.android.consts.IntentSource;
 import com.google.zxing.client.android.consts.Intents;
 import com.google.zxing.client.android.consts.PreferencesActivity;
+import com.google.zxing.client.android.decoding.DecodePool;
 import com.google.zxing.client.android.helper.AmbientLightManager;
 import com.google.zxing.client.android.helper.BeepManager;
+import com.google.zxing.client.android.helper.BulkScanManager;
 import com.google.zxing.client.android.helper.FinishListener;
 import com.google.zxing.client.android.helper.InactivityTimer;
+import com.google.zxing.client.android.metrics.ScanMetrics;
 import com.google.zxing.client.android.result.ResultHandler;
 import com.google.zxing.client.android.result.ResultHandlerFactory;
 import com.google.zxing.client.android.util.SystemBarTintManager;
+import com.google.zxing.client.android.view.ViewfinderResultPointCallback;
 import com.google.zxing.client.android.view.ViewfinderView;
-import com.google.zxing.common.HybridBinarizer;
 
 import java.io.IOException;
 import java.util.Collection;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 
@@ -94,7 +96,8 @@ import pub.devrel.easypermissions.EasyPermissions;
  *         custom changes
  */
 public final class CaptureActivity extends Activity implements SurfaceHolder.Callback,
-        EasyPermissions.PermissionCallbacks, View.OnClickListener {
+        EasyPermissions.PermissionCallbacks, View.OnClickListener, BulkScanManager.Listener,
+        CameraManager.OpenListener {
 
     private static final String TAG = CaptureActivity.class.getSimpleName();
 
@@ -105,8 +108,17 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     private static final int REQUEST_CODE_ALBUM = 2;
 
     private CameraManager cameraManager;
+    /**
+     * Kept across pauses, so that listeners and figures outlive the camera sessions
+     */
+    private final ScanMetrics scanMetrics = new ScanMetrics();
     private CaptureActivityHandler handler;
     private Result savedResultToShow;
+    /**
+     * 相册图片路径,在解码线程启动前选择的图片,等解码线程启动后再解码
+     */
+    private String savedAlbumPath;
+    private ProgressDialog albumProgressDialog;
 
     /**
      * 扫描区域
@@ -133,7 +145,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     /**
      * 【辅助解码的参数(用作MultiFormatReader的参数)】 编码类型，该参数告诉扫描器采用何种编码方式解码，即EAN-13，QR
      * Code等等 对应于DecodeHintType.POSSIBLE_FORMATS类型
-     * 参考DecodeThread构造函数中如下代码：hints.put(DecodeHintType.POSSIBLE_FORMATS,
+     * 参考DecodePool.buildHints中如下代码：hints.put(DecodeHintType.POSSIBLE_FORMATS,
      * decodeFormats);
      */
     private Collection<BarcodeFormat> decodeFormats;
@@ -146,7 +158,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     /**
      * 【辅助解码的参数(用作MultiFormatReader的参数)】 字符集，告诉扫描器该以何种字符集进行解码
      * 对应于DecodeHintType.CHARACTER_SET类型
-     * 参考DecodeThread构造器如下代码：hints.put(DecodeHintType.CHARACTER_SET,
+     * 参考DecodePool.buildHints如下代码：hints.put(DecodeHintType.CHARACTER_SET,
      * characterSet);
      */
     private String characterSet;
@@ -168,10 +180,26 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
      * 自动检测环境光线强弱,并决定是否开启闪光灯
      */
     private AmbientLightManager ambientLightManager;
+    /**
+     * 批量扫描管理器.
+     * 批量扫描模式下扫描成功后继续扫描,过滤重复的条码,并分批处理扫描结果
+     */
+    private BulkScanManager bulkScanManager;
+    private Toast bulkModeToast;
+    /**
+     * 解码线程在打开相机的同时启动,相机就绪后交给handler
+     */
+    private DecodePool decodePool;
+    /**
+     * When the intent was received, or the activity resumed; -1 once the first frame was decoded.
+     * Read by the decode threads.
+     */
+    private volatile long startupTime = -1L;
 
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
+        startupTime = SystemClock.uptimeMillis();
 
         Window window = getWindow();
         window.addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
@@ -196,6 +224,9 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     @Override
     protected void onResume() {
         super.onResume();
+        if (startupTime < 0L) {
+            startupTime = SystemClock.uptimeMillis();
+        }
 
         //        // historyManager must be initialized here to update the history preference
         //        historyManager = new HistoryManager(this);
@@ -208,7 +239,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         // 相机初始化的动作需要开启相机并测量屏幕大小，这些操作
         // 不建议放到onCreate中，因为如果在onCreate中加上首次启动展示帮助信息的代码的 话，
         // 会导致扫描窗口的尺寸计算有误的bug
-        cameraManager = new CameraManager(getApplication());
+        cameraManager = new CameraManager(getApplication(), scanMetrics);
 
         viewfinderView = (ViewfinderView) findViewById(R.id.viewfinder_view);
         viewfinderView.setCameraManager(cameraManager);
@@ -303,6 +334,19 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         //            characterSet = intent.getStringExtra(Intents.Scan.CHARACTER_SET);
         //        }
 
+        if (source == IntentSource.NONE && prefs.getBoolean(PreferencesActivity.KEY_BULK_MODE, false)) {
+            bulkScanManager = new BulkScanManager(this);
+        }
+
+        // Open the camera and set up the readers in the background, while the surface is created
+        decodePool = new DecodePool(this, decodeFormats, decodeHints, characterSet,
+                new ViewfinderResultPointCallback(viewfinderView));
+        decodePool.start();
+        cameraManager.setFrameBufferCount(decodePool.getFrameBufferCount());
+        if (EasyPermissions.hasPermissions(this, Manifest.permission.CAMERA)) {
+            cameraManager.openDriverAsync(this);
+        }
+
         SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
         SurfaceHolder surfaceHolder = surfaceView.getHolder();
         if (hasSurface) {
@@ -327,8 +371,20 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
     @Override
     protected void onPause() {
         if (handler != null) {
+            // Also quits the decode pool it was handed
             handler.quitSynchronously();
             handler = null;
+        } else if (decodePool != null) {
+            decodePool.quitSynchronously();
+        }
+        decodePool = null;
+        startupTime = -1L;
+        // Quitting the handler cancelled the album image being decoded, if any
+        dismissAlbumProgress();
+        Log.i(TAG, "Scan metrics: " + scanMetrics.toJson());
+        if (bulkScanManager != null) {
+            bulkScanManager.close();
+            bulkScanManager = null;
         }
         inactivityTimer.onPause();
         ambientLightManager.stop();
@@ -363,6 +419,14 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         return cameraManager;
     }
 
+    /**
+     * @return timings and counts of the scanning pipeline since the activity was created; add a
+     * {@link ScanMetrics.Listener} to it to follow them as they are recorded
+     */
+    public ScanMetrics getScanMetrics() {
+        return scanMetrics;
+    }
+
     private int getCurrentOrientation() {
         int rotation = getWindowManager().getDefaultDisplay().getRotation();
         if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_LANDSCAPE) {
@@ -565,15 +629,13 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
      * @param result   result
      */
     private void decodeOrStoreSavedBitmap(String filePath, Result result) {
-        // Bitmap isn't used yet -- will be used soon
+        // The album image is decoded on a decode thread, so it has to wait for them to start
         if (!TextUtils.isEmpty(filePath)) {
-            Result rawResult = this.decodeAlbum(filePath);
-            if (null == rawResult) {
-                Log.e(TAG, "rawResult is null");
-                return;
-            }
-
-            handleDecode(rawResult, null, -1);
+            savedAlbumPath = filePath;
+        }
+        if (handler != null && savedAlbumPath != null) {
+            decodeAlbumInBackground(savedAlbumPath);
+            savedAlbumPath = null;
             return;
         }
 
@@ -626,12 +688,24 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
      * @param barcode     A greyscale bitmap of the camera data which was decoded.
      */
     public void handleDecode(Result rawResult, Bitmap barcode, float scaleFactor) {
+        handleDecode(rawResult, barcode, scaleFactor, barcode != null);
+    }
+
+    /**
+     * A valid barcode has been found, so give an indication of success and show the results.
+     *
+     * @param rawResult    The contents of the barcode.
+     * @param barcode      A greyscale bitmap of the camera data which was decoded, or null if
+     *                     thumbnails are turned off or the barcode didn't come from the camera.
+     * @param scaleFactor  amount by which thumbnail was scaled
+     * @param fromLiveScan Whether the barcode was decoded from the camera preview.
+     */
+    void handleDecode(Result rawResult, Bitmap barcode, float scaleFactor, boolean fromLiveScan) {
         Log.i(TAG, "handleDecode called!");
         inactivityTimer.onActivity();
         lastResult = rawResult;
         ResultHandler resultHandler = ResultHandlerFactory.makeResultHandler(this, rawResult);
 
-        boolean fromLiveScan = barcode != null;
         if (fromLiveScan) {
             //historyManager.addHistoryItem(rawResult, resultHandler);
             // Then not from history, so beep/vibrate and we have an image to draw on
@@ -669,6 +743,106 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         handleDecodeExternally(rawResult, resultHandler, barcode);
     }
 
+    /**
+     * Several barcodes were found in multi-code mode, so give an indication of success and show them.
+     *
+     * @param results     The barcodes, in the order they were found.
+     * @param barcode     A greyscale bitmap of the last frame which added a barcode, or null if
+     *                    thumbnails are turned off.
+     * @param scaleFactor amount by which thumbnail was scaled
+     */
+    void handleDecodeMultiple(List<Result> results, Bitmap barcode, float scaleFactor) {
+        Log.i(TAG, "handleDecodeMultiple called with " + results.size() + " barcode(s)");
+        if (results.size() == 1) {
+            handleDecode(results.get(0), barcode, scaleFactor, true);
+            return;
+        }
+        inactivityTimer.onActivity();
+        lastResult = results.get(results.size() - 1);
+        beepManager.playBeepSoundAndVibrate();
+        if (barcode != null) {
+            viewfinderView.drawResultBitmap(barcode);
+        }
+        StringBuilder text = new StringBuilder(getString(R.string.msg_multi_code_scanned, results.size()));
+        for (Result result : results) {
+            text.append('\n').append(result.getText());
+        }
+        Toast.makeText(this, text, Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Decodes an image from the album on a decode thread, showing a progress dialog meanwhile.
+     *
+     * @param albumPath path of the image file
+     */
+    private void decodeAlbumInBackground(String albumPath) {
+        dismissAlbumProgress();
+        albumProgressDialog = new ProgressDialog(this);
+        albumProgressDialog.setMessage(getString(R.string.msg_album_decoding));
+        albumProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        albumProgressDialog.setMax(100);
+        albumProgressDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+            @Override
+            public void onCancel(DialogInterface dialog) {
+                albumProgressDialog = null;
+                if (handler != null) {
+                    handler.cancelAlbumDecode();
+                }
+            }
+        });
+        albumProgressDialog.show();
+        Message.obtain(handler, R.id.decode_album, albumPath).sendToTarget();
+    }
+
+    void onAlbumDecodeProgress(int percent) {
+        if (albumProgressDialog != null) {
+            albumProgressDialog.setProgress(percent);
+        }
+    }
+
+    /**
+     * @param rawResult the barcode found in the album image, or null if there was none
+     */
+    void onAlbumDecoded(Result rawResult) {
+        dismissAlbumProgress();
+        if (rawResult == null) {
+            Log.e(TAG, "rawResult is null");
+            Toast.makeText(this, R.string.msg_album_no_barcode, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        handleDecode(rawResult, null, -1, false);
+    }
+
+    private void dismissAlbumProgress() {
+        if (albumProgressDialog != null) {
+            albumProgressDialog.dismiss();
+            albumProgressDialog = null;
+        }
+    }
+
+    /**
+     * New barcodes were found in bulk scan mode; scanning is still going on.
+     *
+     * @param results The barcodes, oldest first.
+     */
+    @Override
+    public void onBarcodesScanned(List<Result> results) {
+        inactivityTimer.onActivity();
+        lastResult = results.get(results.size() - 1);
+        beepManager.playBeepSoundAndVibrate();
+        String text = getString(R.string.msg_bulk_mode_scanned) + " (" + lastResult.getText() + ')';
+        if (results.size() > 1) {
+            text += " +" + (results.size() - 1);
+        }
+        // Reuse the toast, or they would queue up when scanning quickly
+        if (bulkModeToast == null) {
+            bulkModeToast = Toast.makeText(getApplicationContext(), text, Toast.LENGTH_SHORT);
+        } else {
+            bulkModeToast.setText(text);
+        }
+        bulkModeToast.show();
+    }
+
     private void handleDecodeExternally(Result rawResult, ResultHandler resultHandler, Bitmap barcode) {
         if (barcode != null) {
             viewfinderView.drawResultBitmap(barcode);
@@ -916,16 +1090,19 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         if (surfaceHolder == null) {
             throw new IllegalStateException("No SurfaceHolder provided");
         }
-        if (cameraManager.isOpen()) {
+        if (handler != null) {
             Log.w(TAG, "initCamera() while already open -- late SurfaceView callback?");
             return;
         }
+        if (!cameraManager.isOpen()) {
+            // onCameraOpened() comes back here once the camera is ready
+            cameraManager.openDriverAsync(this);
+            return;
+        }
         try {
-            cameraManager.openDriver(surfaceHolder);
+            cameraManager.setPreviewDisplay(surfaceHolder);
             // Creating the handler starts the preview, which can also throw a RuntimeException.
-            if (handler == null) {
-                handler = new CaptureActivityHandler(this, decodeFormats, decodeHints, characterSet, cameraManager);
-            }
+            handler = new CaptureActivityHandler(this, decodePool, cameraManager, bulkScanManager);
             decodeOrStoreSavedBitmap(null, null);
         } catch (IOException ioe) {
             Log.w(TAG, ioe);
@@ -938,6 +1115,37 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         }
     }
 
+    @Override
+    public void onCameraOpened() {
+        // Otherwise surfaceCreated() gets to it
+        if (hasSurface && handler == null) {
+            SurfaceView surfaceView = (SurfaceView) findViewById(R.id.preview_view);
+            initCamera(surfaceView.getHolder());
+        }
+    }
+
+    @Override
+    public void onCameraOpenFailed(Exception e) {
+        // Barcode Scanner has seen crashes in the wild of this variety:
+        // java.?lang.?RuntimeException: Fail to connect to camera service
+        Log.w(TAG, "Unexpected error opening camera", e);
+        displayFrameworkBugMessageAndExit();
+    }
+
+    /**
+     * Called on a decode thread once the first frame since the intent was received, or the activity
+     * resumed, has been decoded.
+     */
+    public void onFirstFrameDecoded() {
+        long start = startupTime;
+        if (start >= 0L) {
+            startupTime = -1L;
+            long elapsed = SystemClock.uptimeMillis() - start;
+            scanMetrics.recordMillis(ScanMetrics.Timer.FIRST_DECODE, elapsed);
+            Log.i(TAG, "First frame decoded " + elapsed + " ms after starting");
+        }
+    }
+
     private void displayFrameworkBugMessageAndExit() {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle(getString(R.string.app_name));
@@ -1069,43 +1277,12 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
      * decode album from files
      *
      * @param albumPath albumPath
+     * @deprecated blocks the calling thread for as long as a large photo takes; pick images with the
+     * album button instead, which decodes them on a decode thread
      */
+    @Deprecated
     public Result decodeAlbum(String albumPath) {
-
-        Result rawResult = null;
-
-        Bitmap bitmap = compress(albumPath);
-
-        //得到图片的宽高
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-        //得到图片的像素
-        int[] pixels = new int[width * height];
-        //
-        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-
-
-        RGBLuminanceSource rgbLuminanceSource = new RGBLuminanceSource(width, height, pixels);
-        //解析转换类型UTF-8
-        Hashtable<DecodeHintType, String> hints = new Hashtable<DecodeHintType, String>();
-        hints.put(DecodeHintType.CHARACTER_SET, "utf-8");
-
-        MultiFormatReader multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
-
-        //把可视图片转为二进制图片
-        BinaryBitmap binaryBitmap = new BinaryBitmap(new HybridBinarizer(rgbLuminanceSource));
-        try {
-            //解析图片中的code
-            rawResult = multiFormatReader.decode(binaryBitmap);
-        } catch (Exception e) {
-            Log.e(TAG, e.getLocalizedMessage(), e);
-        } finally {
-            multiFormatReader.reset();
-        }
-
-        return rawResult;
-
+        return DecodePool.decodeAlbumFile(albumPath);
     }
 
     /**
@@ -1113,13 +1290,15 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
      *
      * @param srcPath srcPath
      * @return bitmap
+     * @deprecated album images are no longer decoded from a shrunk bitmap, but loaded straight into
+     * luminance a strip at a time
      */
+    @Deprecated
     public static Bitmap compress(String srcPath) {
         BitmapFactory.Options newOpts = new BitmapFactory.Options();
         //开始读入图片，此时把options.inJustDecodeBounds 设回true了
         newOpts.inJustDecodeBounds = true;
-        Bitmap bitmap = BitmapFactory.decodeFile(srcPath, newOpts);//此时返回bm为空
-
+        BitmapFactory.decodeFile(srcPath, newOpts);
         newOpts.inJustDecodeBounds = false;
         int w = newOpts.outWidth;
         int h = newOpts.outHeight;
@@ -1136,11 +1315,7 @@ public final class CaptureActivity extends Activity implements SurfaceHolder.Cal
         if (be <= 0)
             be = 1;
         newOpts.inSampleSize = be;//设置缩放比例
-        //重新读入图片，注意此时已经把options.inJustDecodeBounds 设回false了
-        bitmap = BitmapFactory.decodeFile(srcPath, newOpts);
-
-        return bitmap;//压缩好比例大小后再进行质量压缩
+        return BitmapFactory.decodeFile(srcPath, newOpts);
     }
 
-
 }
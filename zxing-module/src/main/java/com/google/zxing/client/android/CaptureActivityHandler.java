@@ -22,26 +22,27 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
 import android.provider.Browser;
 import android.util.Log;
 
-import com.google.zxing.BarcodeFormat;
-import com.google.zxing.DecodeHintType;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.camera.CameraManager;
+import com.google.zxing.client.android.consts.PreferencesActivity;
+import com.google.zxing.client.android.decoding.DecodePool;
 import com.google.zxing.client.android.decoding.DecodeThread;
-import com.google.zxing.client.android.view.ViewfinderResultPointCallback;
+import com.google.zxing.client.android.helper.BulkScanManager;
+import com.google.zxing.client.android.helper.MultiCodeCollector;
+import com.google.zxing.client.android.metrics.ScanMetrics;
 
-import java.util.Collection;
-import java.util.Map;
+import java.util.List;
 
-import static com.google.zxing.client.android.R.id.decode;
-import static com.google.zxing.client.android.R.id.quit;
+import static com.google.zxing.client.android.R.id.preview_frame;
 
 /**
  * This class handles all the messaging which comprises the state machine for activity_capture_test.
@@ -53,19 +54,46 @@ public final class CaptureActivityHandler extends Handler {
     private static final String TAG = CaptureActivityHandler.class.getSimpleName();
 
     private final CaptureActivity activity;
-    private final DecodeThread decodeThread;
+    private final DecodePool decodePool;
     private final CameraManager cameraManager;
+    /**
+     * Set in bulk scan mode, where scanning goes on after each barcode.
+     */
+    private final BulkScanManager bulkScanManager;
+    /**
+     * Set in multi-code mode, unless in bulk scan mode too.
+     */
+    private final MultiCodeCollector multiCodeCollector;
+    /**
+     * Thumbnail of the last frame which added barcodes to the collection, in multi-code mode.
+     */
+    private Bundle collectedThumbnail;
     private State state;
+    /**
+     * Whether the camera streams every frame to us, rather than one frame per request.
+     */
+    private boolean streaming;
 
+    /**
+     * @param decodePool the decode threads, already started, which this handler now owns
+     */
     CaptureActivityHandler(CaptureActivity activity,
-                           Collection<BarcodeFormat> decodeFormats,
-                           Map<DecodeHintType, ?> baseHints,
-                           String characterSet,
-                           CameraManager cameraManager) {
+                           DecodePool decodePool,
+                           CameraManager cameraManager,
+                           BulkScanManager bulkScanManager) {
         this.activity = activity;
-        decodeThread = new DecodeThread(activity, decodeFormats, baseHints, characterSet,
-                new ViewfinderResultPointCallback(activity.getViewfinderView()));
-        decodeThread.start();
+        this.decodePool = decodePool;
+        this.bulkScanManager = bulkScanManager;
+        boolean multiCode = PreferenceManager.getDefaultSharedPreferences(activity)
+                .getBoolean(PreferencesActivity.KEY_MULTI_CODE, false);
+        // Bulk scan mode already keeps scanning, and takes the barcodes one by one
+        multiCodeCollector = multiCode && bulkScanManager == null ? new MultiCodeCollector(
+                new MultiCodeCollector.Listener() {
+                    @Override
+                    public void onBarcodesCollected(List<Result> results) {
+                        handleCollectedResults(results);
+                    }
+                }) : null;
         state = State.SUCCESS;
 
         // Start ourselves capturing previews and decoding.
@@ -80,25 +108,64 @@ public final class CaptureActivityHandler extends Handler {
         if (message.what == R.id.restart_preview) {
             restartPreviewAndDecode();
 
+        } else if (message.what == R.id.preview_frame) {
+            byte[] data = (byte[]) message.obj;
+            if (state == State.PREVIEW) {
+                // The message was sent from the camera callback, so its time is when the frame arrived
+                decodePool.submit(data, message.arg1, message.arg2, message.getWhen());
+                if (bulkScanManager != null) {
+                    bulkScanManager.onFrameSubmitted(message.getWhen());
+                }
+                if (!streaming && decodePool.hasIdleWorker()) {
+                    // Keep the other workers busy too
+                    cameraManager.requestPreviewFrame(this, preview_frame);
+                }
+            } else {
+                cameraManager.releasePreviewFrame(data);
+            }
+
         } else if (message.what == R.id.decode_succeeded) {
+            if (bulkScanManager != null) {
+                handleBulkResults((Result) message.obj);
+                return;
+            }
+            if (state != State.PREVIEW || !decodePool.isCurrent(message.arg1)) {
+                // Another worker got there first, or the frame predates the last restart
+                Log.d(TAG, "Discarding stale result of frame " + message.arg1);
+                return;
+            }
             state = State.SUCCESS;
-            Bundle bundle = message.getData();
-            Bitmap barcode = null;
-            float scaleFactor = 1.0f;
-            if (bundle != null) {
-                byte[] compressedBitmap = bundle.getByteArray(DecodeThread.BARCODE_BITMAP);
-                if (compressedBitmap != null) {
-                    barcode = BitmapFactory.decodeByteArray(compressedBitmap, 0, compressedBitmap.length, null);
-                    // Mutable copy:
-                    barcode = barcode.copy(Bitmap.Config.ARGB_8888, true);
-                }
-                scaleFactor = bundle.getFloat(DecodeThread.BARCODE_SCALED_FACTOR);
+            stopPreviewFrames();
+            decodePool.discardPendingFrames();
+            Bundle bundle = message.peekData();
+            activity.handleDecode((Result) message.obj, buildThumbnail(bundle), getScaleFactor(bundle), true);
+            // The message was stamped when the decode thread sent it
+            activity.getScanMetrics().recordMillis(ScanMetrics.Timer.UI_DELIVERY,
+                    SystemClock.uptimeMillis() - message.getWhen());
+
+        } else if (message.what == R.id.decode_multiple_succeeded) {
+            Result[] results = (Result[]) message.obj;
+            if (bulkScanManager != null) {
+                handleBulkResults(results);
+                return;
+            }
+            if (state != State.PREVIEW || !decodePool.isCurrent(message.arg1)) {
+                Log.d(TAG, "Discarding stale results of frame " + message.arg1);
+                return;
+            }
+            if (multiCodeCollector.offer(results) > 0) {
+                collectedThumbnail = message.peekData();
+            }
+            // Other barcodes may still turn up in the next frames
+            if (!streaming) {
+                cameraManager.requestPreviewFrame(this, preview_frame);
             }
-            activity.handleDecode((Result) message.obj, barcode, scaleFactor);
 
         } else if (message.what == R.id.decode_failed) {// We're decoding as fast as possible, so when one decode fails, start another.
-            state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), decode);
+            // When streaming, the worker has already picked up the newest frame by itself
+            if (state == State.PREVIEW && !streaming) {
+                cameraManager.requestPreviewFrame(this, preview_frame);
+            }
 
         } else if (message.what == R.id.return_scan_result) {
             activity.setResult(Activity.RESULT_OK, (Intent) message.obj);
@@ -133,41 +200,136 @@ public final class CaptureActivityHandler extends Handler {
             }
 
         } else if (message.what == R.id.decode_album) {
+            // Stop scanning, the album image gets the decode thread to itself
             state = State.SUCCESS;
+            stopPreviewFrames();
+            decodePool.discardPendingFrames();
+            decodePool.decodeAlbum((String) message.obj);
 
-            Message decode_album = Message.obtain(decodeThread.getHandler(), R.id.decode_album);
-            decode_album.obj =message.obj;
+        } else if (message.what == R.id.decode_album_progress) {
+            if (!decodePool.isAlbumDecodeCancelled(message.arg1)) {
+                activity.onAlbumDecodeProgress(message.arg2);
+            }
 
-            decode_album.sendToTarget();
+        } else if (message.what == R.id.decode_album_succeeded) {
+            if (!decodePool.isAlbumDecodeCancelled(message.arg1)) {
+                activity.onAlbumDecoded((Result) message.obj);
+            }
 
+        } else if (message.what == R.id.decode_album_failed) {
+            if (!decodePool.isAlbumDecodeCancelled(message.arg1)) {
+                activity.onAlbumDecoded(null);
+                restartPreviewAndDecode();
+            }
         }
     }
 
+    /**
+     * Keeps scanning after a barcode; the manager drops duplicates and passes the rest on in batches.
+     */
+    private void handleBulkResults(Result... results) {
+        if (state != State.PREVIEW) {
+            return;
+        }
+        for (Result result : results) {
+            bulkScanManager.offer(result);
+        }
+        if (!streaming) {
+            // Same as after a failed decode, scanning must not wait for the result to be handled
+            cameraManager.requestPreviewFrame(this, preview_frame);
+        }
+    }
+
+    /**
+     * No new barcode turned up for a while in multi-code mode, so stop and show them all.
+     */
+    private void handleCollectedResults(List<Result> results) {
+        if (state != State.PREVIEW) {
+            return;
+        }
+        state = State.SUCCESS;
+        stopPreviewFrames();
+        decodePool.discardPendingFrames();
+        Bundle bundle = collectedThumbnail;
+        collectedThumbnail = null;
+        activity.handleDecodeMultiple(results, buildThumbnail(bundle), getScaleFactor(bundle));
+    }
+
+    /**
+     * @param bundle data of a decode_succeeded message, or null
+     * @return the thumbnail of the decoded frame, or null if there is none
+     */
+    private static Bitmap buildThumbnail(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        int[] pixels = bundle.getIntArray(DecodeThread.BARCODE_BITMAP);
+        if (pixels == null) {
+            return null;
+        }
+        int width = bundle.getInt(DecodeThread.BARCODE_BITMAP_WIDTH);
+        int height = bundle.getInt(DecodeThread.BARCODE_BITMAP_HEIGHT);
+        // Mutable, so that result points can be drawn on it
+        Bitmap barcode = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        barcode.setPixels(pixels, 0, width, 0, 0, width, height);
+        return barcode;
+    }
+
+    private static float getScaleFactor(Bundle bundle) {
+        return bundle != null ? bundle.getFloat(DecodeThread.BARCODE_SCALED_FACTOR, 1.0f) : 1.0f;
+    }
+
+    /**
+     * Gives up on the album image being decoded, if any, and goes back to scanning.
+     */
+    void cancelAlbumDecode() {
+        decodePool.cancelAlbumDecode();
+        restartPreviewAndDecode();
+    }
+
     public void quitSynchronously() {
         state = State.DONE;
+        stopPreviewFrames();
         cameraManager.stopPreview();
-        Message quit = Message.obtain(decodeThread.getHandler(), R.id.quit);
-        quit.sendToTarget();
-        try {
-            // Wait at most half a second; should be enough time, and onPause() will timeout quickly
-            decodeThread.join(500L);
-        } catch (InterruptedException e) {
-            // continue
+        decodePool.quitSynchronously();
+        if (multiCodeCollector != null) {
+            multiCodeCollector.close();
         }
+        collectedThumbnail = null;
 
         // Be absolutely sure we don't send any queued up messages
+        removeMessages(R.id.preview_frame);
         removeMessages(R.id.decode_succeeded);
+        removeMessages(R.id.decode_multiple_succeeded);
         removeMessages(R.id.decode_failed);
+        removeMessages(R.id.decode_album);
+        removeMessages(R.id.decode_album_progress);
+        removeMessages(R.id.decode_album_succeeded);
+        removeMessages(R.id.decode_album_failed);
     }
 
     private void restartPreviewAndDecode() {
         if (state == State.SUCCESS) {
             state = State.PREVIEW;
-            cameraManager.requestPreviewFrame(decodeThread.getHandler(), decode);
+            decodePool.discardPendingFrames();
+            if (multiCodeCollector != null) {
+                multiCodeCollector.start();
+            }
+            streaming = cameraManager.startPreviewFrames(this, preview_frame);
+            if (!streaming) {
+                cameraManager.requestPreviewFrame(this, preview_frame);
+            }
             activity.drawViewfinder();
         }
     }
 
+    private void stopPreviewFrames() {
+        if (streaming) {
+            cameraManager.stopPreviewFrames();
+            streaming = false;
+        }
+    }
+
     private enum State {
         PREVIEW,
         SUCCESS,
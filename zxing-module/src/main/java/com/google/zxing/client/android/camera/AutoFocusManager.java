@@ -19,21 +19,42 @@ package com.google.zxing.client.android.camera;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.hardware.Camera;
-import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.google.zxing.client.android.consts.PreferencesActivity;
+import com.google.zxing.client.android.metrics.ScanMetrics;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.concurrent.RejectedExecutionException;
-
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the focus cycles of the focus modes which need them, on a single scheduled thread. Focus is
+ * driven by what the decoder sees, through {@link #onFeedback(FocusFeedback)}: a frame much blurrier
+ * than the recent ones, or finder patterns which don't decode, trigger a cycle right away, while the
+ * interval between cycles doubles for as long as the frames stay sharp.
+ * <p>
+ * Times how long the camera takes to focus, and logs how many cycles each decode took.
+ */
 final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private static final String TAG = AutoFocusManager.class.getSimpleName();
 
     private static final long AUTO_FOCUS_INTERVAL_MS = 2000L;
+    /**
+     * Longest interval between cycles, reached while the frames stay sharp.
+     */
+    private static final long MAX_AUTO_FOCUS_INTERVAL_MS = 8000L;
+    /**
+     * Shortest time between the end of a cycle and a new one triggered by feedback, so that the lens
+     * doesn't hunt while the phone is being moved.
+     */
+    private static final long MIN_REFOCUS_DELAY_MS = 600L;
     private static final Collection<String> FOCUS_MODES_CALLING_AF;
 
     static {
@@ -44,69 +65,179 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
 
     private final boolean useAutoFocus;
     private final Camera camera;
+    private final ScanMetrics metrics;
+    private final ScheduledExecutorService executor;
+    private final Runnable focusRunnable = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
     private boolean stopped;
+    /**
+     * While camera parameters such as the torch are changed, see {@link #pause()}.
+     */
+    private boolean paused;
     private boolean focusing;
-    private AsyncTask<?, ?, ?> outstandingTask;
-
-    AutoFocusManager(Context context, Camera camera) {
+    private ScheduledFuture<?> scheduledFocus;
+    private long intervalMs = AUTO_FOCUS_INTERVAL_MS;
+    private long focusStartNanos;
+    private long lastFocusEnd;
+    /**
+     * What the frames since the last cycle looked like.
+     */
+    private boolean sawBlurred;
+    private boolean sawSharp;
+    private int cycles;
+    private int cyclesSinceDecode;
+    private int decodes;
+
+    /**
+     * @param executor the camera control thread, which the focus cycles are scheduled on
+     */
+    AutoFocusManager(Context context, Camera camera, ScheduledExecutorService executor, ScanMetrics metrics) {
         this.camera = camera;
+        this.metrics = metrics;
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         String currentFocusMode = camera.getParameters().getFocusMode();
         useAutoFocus =
                 sharedPrefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true) &&
                         FOCUS_MODES_CALLING_AF.contains(currentFocusMode);
         Log.i(TAG, "Current focus mode '" + currentFocusMode + "'; use auto focus? " + useAutoFocus);
+        this.executor = executor;
         start();
     }
 
     @Override
     public synchronized void onAutoFocus(boolean success, Camera theCamera) {
+        if (!focusing) {
+            return;
+        }
         focusing = false;
-        autoFocusAgainLater();
+        metrics.record(ScanMetrics.Timer.FOCUS, System.nanoTime() - focusStartNanos);
+        metrics.increment(ScanMetrics.Counter.FOCUS_CYCLES);
+        cycles++;
+        cyclesSinceDecode++;
+        lastFocusEnd = SystemClock.uptimeMillis();
+        // Back off while nothing suggests the focus is off
+        if (sawSharp && !sawBlurred) {
+            intervalMs = Math.min(intervalMs * 2, MAX_AUTO_FOCUS_INTERVAL_MS);
+        } else {
+            intervalMs = AUTO_FOCUS_INTERVAL_MS;
+        }
+        sawSharp = false;
+        sawBlurred = false;
+        autoFocusAgainLater(intervalMs);
     }
 
-    private synchronized void autoFocusAgainLater() {
-        if (!stopped && outstandingTask == null) {
-            AutoFocusTask newTask = new AutoFocusTask();
-            try {
-                newTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-                outstandingTask = newTask;
-            } catch (RejectedExecutionException ree) {
-                Log.w(TAG, "Could not request auto focus", ree);
+    /**
+     * Called for decoded frames, on the decode threads.
+     */
+    synchronized void onFeedback(FocusFeedback feedback) {
+        if (!useAutoFocus || stopped || paused) {
+            return;
+        }
+        if (feedback == FocusFeedback.DECODED) {
+            decodes++;
+            Log.d(TAG, "Decoded after " + cyclesSinceDecode + " focus cycle(s)");
+            cyclesSinceDecode = 0;
+            intervalMs = AUTO_FOCUS_INTERVAL_MS;
+        } else if (feedback == FocusFeedback.SHARP) {
+            sawSharp = true;
+        } else {
+            if (feedback == FocusFeedback.BLURRED) {
+                sawBlurred = true;
+            }
+            if (!focusing) {
+                long sinceLastFocus = SystemClock.uptimeMillis() - lastFocusEnd;
+                autoFocusAgainLater(Math.max(0L, MIN_REFOCUS_DELAY_MS - sinceLastFocus));
             }
         }
     }
 
+    /**
+     * Schedules the next cycle, unless one is already due sooner.
+     */
+    private synchronized void autoFocusAgainLater(long delayMs) {
+        if (stopped || paused) {
+            return;
+        }
+        if (scheduledFocus != null) {
+            if (!scheduledFocus.isDone() && scheduledFocus.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+            scheduledFocus.cancel(false);
+        }
+        try {
+            scheduledFocus = executor.schedule(focusRunnable, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            Log.w(TAG, "Could not request auto focus", ree);
+        }
+    }
+
     synchronized void start() {
         if (useAutoFocus) {
-            outstandingTask = null;
-            if (!stopped && !focusing) {
+            if (scheduledFocus != null) {
+                scheduledFocus.cancel(false);
+                scheduledFocus = null;
+            }
+            if (!stopped && !paused && !focusing) {
                 try {
+                    focusStartNanos = System.nanoTime();
                     camera.autoFocus(this);
                     focusing = true;
                 } catch (RuntimeException re) {
                     // Have heard RuntimeException reported in Android 4.0.x+; continue?
                     Log.w(TAG, "Unexpected exception while focusing", re);
                     // Try again later to keep cycle going
-                    autoFocusAgainLater();
+                    autoFocusAgainLater(intervalMs);
                 }
             }
         }
     }
 
-    private synchronized void cancelOutstandingTask() {
-        if (outstandingTask != null) {
-            if (outstandingTask.getStatus() != AsyncTask.Status.FINISHED) {
-                outstandingTask.cancel(true);
+    /**
+     * @return whether the camera is focused by this manager, so {@link #onFeedback} is listened to
+     */
+    boolean isUsingAutoFocus() {
+        return useAutoFocus;
+    }
+
+    /**
+     * Cancels the cycle in progress, and schedules no more, until {@link #resume()}.
+     */
+    synchronized void pause() {
+        paused = true;
+        if (useAutoFocus && !stopped) {
+            if (scheduledFocus != null) {
+                scheduledFocus.cancel(false);
+                scheduledFocus = null;
             }
-            outstandingTask = null;
+            try {
+                camera.cancelAutoFocus();
+            } catch (RuntimeException re) {
+                // Have heard RuntimeException reported in Android 4.0.x+; continue?
+                Log.w(TAG, "Unexpected exception while cancelling focusing", re);
+            }
+            focusing = false;
         }
     }
 
+    /**
+     * Starts a new cycle after {@link #pause()}; does nothing once stopped.
+     */
+    synchronized void resume() {
+        paused = false;
+        start();
+    }
+
     synchronized void stop() {
         stopped = true;
         if (useAutoFocus) {
-            cancelOutstandingTask();
+            if (scheduledFocus != null) {
+                scheduledFocus.cancel(false);
+                scheduledFocus = null;
+            }
             // Doesn't hurt to call this even if not focusing
             try {
                 camera.cancelAutoFocus();
@@ -114,19 +245,8 @@ final class AutoFocusManager implements Camera.AutoFocusCallback {
                 // Have heard RuntimeException reported in Android 4.0.x+; continue?
                 Log.w(TAG, "Unexpected exception while cancelling focusing", re);
             }
-        }
-    }
-
-    private final class AutoFocusTask extends AsyncTask<Object, Object, Object> {
-        @Override
-        protected Object doInBackground(Object... voids) {
-            try {
-                Thread.sleep(AUTO_FOCUS_INTERVAL_MS);
-            } catch (InterruptedException e) {
-                // continue
-            }
-            start();
-            return null;
+            focusing = false;
+            Log.i(TAG, cycles + " focus cycle(s) for " + decodes + " decode(s)");
         }
     }
 
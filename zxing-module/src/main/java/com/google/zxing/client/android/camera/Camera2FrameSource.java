@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.ConditionVariable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import com.google.zxing.client.android.camera.open.CameraFacing;
+import com.google.zxing.client.android.consts.PreferencesActivity;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Frames from a camera opened through the {@code android.hardware.camera2} API, streamed into an
+ * {@link ImageReader} in {@link ImageFormat#YUV_420_888} at the capture rate set in the
+ * preferences, rather than the rate the legacy API settles on.
+ * <p>
+ * Only the luminance plane is taken from each image, in one bulk copy with the row stride of the
+ * plane, so rows are never repacked; the image goes straight back to the reader afterwards, so the
+ * camera never waits for the decoder. Frames are dropped while every buffer is being decoded.
+ * <p>
+ * The camera runs continuous autofocus and auto exposure by itself, so the autofocus, area, exposure
+ * and zoom controllers of the legacy API are not used with it.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2FrameSource implements FrameSource {
+
+    private static final String TAG = Camera2FrameSource.class.getSimpleName();
+
+    /**
+     * Longest to wait for the camera to open before giving up.
+     */
+    private static final long OPEN_TIMEOUT_MS = 3000L;
+    /**
+     * Capture rate used unless set in the preferences, in frames per second.
+     */
+    private static final int DEFAULT_CAPTURE_RATE = 30;
+    /**
+     * One image being copied, and the newest one waiting; older ones are skipped.
+     */
+    private static final int MAX_IMAGES = 2;
+
+    private final CameraDevice device;
+    private final HandlerThread cameraThread;
+    private final Handler cameraHandler;
+    private final ImageReader imageReader;
+    private final FrameDispatcher dispatcher;
+    /**
+     * Autofocus mode to set, or null to leave the camera's own.
+     */
+    private final Integer afMode;
+    private final Range<Integer> fpsRange;
+    private final boolean hasFlash;
+    private Surface previewSurface;
+    private CameraCaptureSession session;
+    /**
+     * Bumped whenever a session is asked for or stopped, so that a session configured too late is
+     * closed again.
+     */
+    private int sessionGeneration;
+    private boolean previewing;
+    private boolean torch;
+
+    private Camera2FrameSource(CameraDevice device,
+                               HandlerThread cameraThread,
+                               Handler cameraHandler,
+                               Point resolution,
+                               ScanMetrics metrics,
+                               Integer afMode,
+                               Range<Integer> fpsRange,
+                               boolean hasFlash,
+                               boolean torch) {
+        this.device = device;
+        this.cameraThread = cameraThread;
+        this.cameraHandler = cameraHandler;
+        this.afMode = afMode;
+        this.fpsRange = fpsRange;
+        this.hasFlash = hasFlash;
+        this.torch = torch && hasFlash;
+        dispatcher = new FrameDispatcher(metrics);
+        imageReader = ImageReader.newInstance(resolution.x, resolution.y, ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                Image image = reader.acquireLatestImage();
+                if (image != null) {
+                    try {
+                        onImage(image);
+                    } finally {
+                        image.close();
+                    }
+                }
+            }
+        }, cameraHandler);
+    }
+
+    /**
+     * @return whether the platform has the camera2 API at all
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Opens a camera, waiting for it to be ready.
+     *
+     * @param cameraId      index of the camera to use, or a negative value for a rear-facing one if
+     *                      there is one
+     * @param configManager initialized from the camera if {@code initialize}, and giving the size to
+     *                      stream in
+     * @throws IOException Indicates the camera failed to open.
+     */
+    @SuppressLint("MissingPermission")
+    static Camera2FrameSource open(Context context,
+                                   int cameraId,
+                                   CameraConfigurationManager configManager,
+                                   boolean initialize,
+                                   ScanMetrics metrics) throws IOException {
+        android.hardware.camera2.CameraManager manager =
+                (android.hardware.camera2.CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        HandlerThread cameraThread = null;
+        try {
+            String[] ids = manager.getCameraIdList();
+            if (ids.length == 0) {
+                throw new IOException("No cameras!");
+            }
+            String id = selectCamera(manager, ids, cameraId);
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+            if (initialize) {
+                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+                Size[] sizes = map == null ? null : map.getOutputSizes(ImageFormat.YUV_420_888);
+                if (sizes == null || sizes.length == 0) {
+                    throw new IOException("Camera " + id + " streams no YUV_420_888");
+                }
+                List<Point> outputSizes = new ArrayList<>(sizes.length);
+                for (Size size : sizes) {
+                    outputSizes.add(new Point(size.getWidth(), size.getHeight()));
+                }
+                Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                configManager.initFromOutputSizes(orientation == null ? 0 : orientation,
+                        lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT ?
+                                CameraFacing.FRONT : CameraFacing.BACK,
+                        outputSizes);
+            }
+
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            int captureRate = DEFAULT_CAPTURE_RATE;
+            try {
+                captureRate = Integer.parseInt(prefs.getString(PreferencesActivity.KEY_CAPTURE_RATE,
+                        String.valueOf(DEFAULT_CAPTURE_RATE)));
+            } catch (NumberFormatException nfe) {
+                Log.w(TAG, "Bad capture rate, using " + captureRate);
+            }
+            Range<Integer> fpsRange = findFpsRange(
+                    characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES), captureRate);
+            Log.i(TAG, "Capturing at " + fpsRange + " fps");
+            Integer afMode = null;
+            if (prefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true) &&
+                    contains(characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES),
+                            CameraCharacteristics.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
+                afMode = CameraCharacteristics.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+            }
+            Boolean flashAvailable = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+
+            cameraThread = new HandlerThread("Camera2");
+            cameraThread.start();
+            Handler cameraHandler = new Handler(cameraThread.getLooper());
+            DeviceOpener opener = new DeviceOpener();
+            Log.i(TAG, "Opening camera " + id);
+            manager.openCamera(id, opener, cameraHandler);
+            CameraDevice device = opener.await();
+            if (device == null) {
+                throw new IOException("Camera " + id + " failed to open");
+            }
+            Camera2FrameSource source = new Camera2FrameSource(device, cameraThread, cameraHandler,
+                    configManager.getCameraResolution(), metrics, afMode, fpsRange,
+                    Boolean.TRUE.equals(flashAvailable), FrontLightMode.readPref(prefs) == FrontLightMode.ON);
+            cameraThread = null;
+            return source;
+        } catch (CameraAccessException | SecurityException e) {
+            throw new IOException(e);
+        } finally {
+            if (cameraThread != null) {
+                cameraThread.quitSafely();
+            }
+        }
+    }
+
+    /**
+     * Picks the camera the same way {@link com.google.zxing.client.android.camera.open.OpenCameraInterface}
+     * does: the one requested, or else the first facing back, or else the first.
+     */
+    private static String selectCamera(android.hardware.camera2.CameraManager manager,
+                                       String[] ids,
+                                       int cameraId) throws CameraAccessException, IOException {
+        if (cameraId >= 0) {
+            if (cameraId >= ids.length) {
+                throw new IOException("Requested camera does not exist: " + cameraId);
+            }
+            return ids[cameraId];
+        }
+        for (String id : ids) {
+            Integer lensFacing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+        }
+        Log.i(TAG, "No camera facing " + CameraFacing.BACK + "; returning camera " + ids[0]);
+        return ids[0];
+    }
+
+    /**
+     * @return the range whose upper end is closest to the capture rate, the narrowest of those for
+     * the steadiest rate, or null if the camera lists none
+     */
+    private static Range<Integer> findFpsRange(Range<Integer>[] ranges, int captureRate) {
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> best = null;
+        for (Range<Integer> range : ranges) {
+            if (best == null) {
+                best = range;
+                continue;
+            }
+            int distance = Math.abs(range.getUpper() - captureRate);
+            int bestDistance = Math.abs(best.getUpper() - captureRate);
+            if (distance < bestDistance || (distance == bestDistance && range.getLower() > best.getLower())) {
+                best = range;
+            }
+        }
+        return best;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values != null) {
+            for (int candidate : values) {
+                if (candidate == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        // The surface has to be one of the sizes the camera streams in, the view scales it
+        holder.setFixedSize(imageReader.getWidth(), imageReader.getHeight());
+        previewSurface = holder.getSurface();
+    }
+
+    @Override
+    public synchronized void startPreview() {
+        if (previewing) {
+            return;
+        }
+        List<Surface> outputs = new ArrayList<>(2);
+        outputs.add(imageReader.getSurface());
+        if (previewSurface != null && previewSurface.isValid()) {
+            outputs.add(previewSurface);
+        }
+        final int generation = ++sessionGeneration;
+        try {
+            device.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession configured) {
+                    synchronized (Camera2FrameSource.this) {
+                        if (generation != sessionGeneration) {
+                            // Stopped meanwhile
+                            configured.close();
+                            return;
+                        }
+                        session = configured;
+                        submitRequest();
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession failed) {
+                    Log.w(TAG, "Camera rejected the capture session");
+                }
+            }, cameraHandler);
+            previewing = true;
+        } catch (CameraAccessException | IllegalStateException e) {
+            // Thrown for a camera which was disconnected or closed meanwhile
+            Log.w(TAG, "Could not start the preview", e);
+        }
+    }
+
+    /**
+     * Streams into the outputs of the session with the current settings. Called with the lock held.
+     */
+    private void submitRequest() {
+        if (session == null) {
+            return;
+        }
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            builder.addTarget(imageReader.getSurface());
+            if (previewSurface != null && previewSurface.isValid()) {
+                builder.addTarget(previewSurface);
+            }
+            builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+            if (afMode != null) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, afMode);
+            }
+            if (fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+            }
+            builder.set(CaptureRequest.FLASH_MODE,
+                    torch ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+            session.setRepeatingRequest(builder.build(), null, cameraHandler);
+        } catch (CameraAccessException | IllegalStateException e) {
+            Log.w(TAG, "Could not submit the capture request", e);
+        }
+    }
+
+    @Override
+    public synchronized void stopPreview() {
+        sessionGeneration++;
+        previewing = false;
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        dispatcher.reset();
+    }
+
+    private void onImage(Image image) {
+        Image.Plane luma = image.getPlanes()[0];
+        int pixelStride = luma.getPixelStride();
+        int rowStride = luma.getRowStride();
+        int width = image.getWidth();
+        int height = image.getHeight();
+        // YUV_420_888 promises a packed luminance plane, but a sparse one can be packed here as well
+        int stride = pixelStride == 1 ? rowStride : width;
+        Message message = dispatcher.obtainFrameMessage(stride, height);
+        if (message == null) {
+            return;
+        }
+        byte[] data = (byte[]) message.obj;
+        ByteBuffer plane = luma.getBuffer();
+        if (pixelStride == 1) {
+            // The last row may lack its padding
+            plane.get(data, 0, Math.min(plane.remaining(), data.length));
+        } else {
+            for (int y = 0; y < height; y++) {
+                int rowOffset = y * rowStride;
+                int outputOffset = y * width;
+                for (int x = 0; x < width; x++) {
+                    data[outputOffset + x] = plane.get(rowOffset + x * pixelStride);
+                }
+            }
+        }
+        message.sendToTarget();
+    }
+
+    @Override
+    public void setHandler(Handler handler, int message, boolean continuous) {
+        dispatcher.setHandler(handler, message, continuous);
+    }
+
+    @Override
+    public boolean canStream() {
+        return true;
+    }
+
+    @Override
+    public void setBufferCount(int count) {
+        dispatcher.setBufferCount(count);
+    }
+
+    @Override
+    public void releaseFrame(byte[] data) {
+        dispatcher.releaseBuffer(data);
+    }
+
+    @Override
+    public synchronized boolean getTorchState() {
+        return torch;
+    }
+
+    @Override
+    public synchronized void setTorch(boolean on) {
+        if (hasFlash && on != torch) {
+            torch = on;
+            submitRequest();
+        }
+    }
+
+    @Override
+    public synchronized void release() {
+        stopPreview();
+        // On the camera thread, so that no image is being copied out of the reader as it closes
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                device.close();
+                imageReader.close();
+            }
+        });
+        cameraThread.quitSafely();
+    }
+
+    /**
+     * Waits for {@link android.hardware.camera2.CameraManager#openCamera} to open the camera, and
+     * closes a camera which opens only after it gave up waiting.
+     */
+    private static final class DeviceOpener extends CameraDevice.StateCallback {
+
+        private final ConditionVariable done = new ConditionVariable();
+        private CameraDevice device;
+        private boolean abandoned;
+
+        CameraDevice await() {
+            done.block(OPEN_TIMEOUT_MS);
+            synchronized (this) {
+                abandoned = true;
+                return device;
+            }
+        }
+
+        @Override
+        public synchronized void onOpened(CameraDevice camera) {
+            if (abandoned) {
+                camera.close();
+            } else {
+                device = camera;
+            }
+            done.open();
+        }
+
+        @Override
+        public synchronized void onDisconnected(CameraDevice camera) {
+            Log.w(TAG, "Camera disconnected");
+            camera.close();
+            if (camera == device) {
+                device = null;
+            }
+            done.open();
+        }
+
+        @Override
+        public synchronized void onError(CameraDevice camera, int error) {
+            Log.w(TAG, "Camera error " + error);
+            camera.close();
+            if (camera == device) {
+                device = null;
+            }
+            done.open();
+        }
+
+    }
+
+}
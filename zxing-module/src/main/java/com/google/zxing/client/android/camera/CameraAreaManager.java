@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Points the focus and metering areas of the camera at the framing rect, rather than a fixed
+ * area in the middle, and at the barcode itself while the decoder sees one, so that an off-center
+ * barcode is exposed and focused for. After {@link #CODE_AREA_TIMEOUT_MS} without one, the areas go
+ * back to the framing rect.
+ * <p>
+ * Setting the camera parameters stalls the preview for a moment, so the areas are set on the
+ * camera control thread, at most once per {@link #MIN_UPDATE_INTERVAL_MS}, and not at all for small
+ * changes.
+ * Areas are given in the coordinates of the preview frames as decoded, turned to the orientation
+ * of the screen if the frames are rotated.
+ */
+final class CameraAreaManager {
+
+    private static final String TAG = CameraAreaManager.class.getSimpleName();
+
+    private static final long MIN_UPDATE_INTERVAL_MS = 1000L;
+    private static final long CODE_AREA_TIMEOUT_MS = 3000L;
+    /**
+     * Margin added around a barcode on each side, relative to its larger side, so that its quiet
+     * zone and surroundings count as well.
+     */
+    private static final float CODE_MARGIN = 0.5f;
+    /**
+     * Smallest side of an area, in the units of {@link Camera.Area}; a tiny spot meters badly.
+     */
+    private static final int MIN_AREA_SIDE = 300;
+    /**
+     * Areas whose edges all moved less than this, in the units of {@link Camera.Area}, are left as
+     * they are.
+     */
+    private static final int MIN_EDGE_CHANGE = 100;
+
+    private final Camera camera;
+    private final int previewWidth;
+    private final int previewHeight;
+    private final boolean rotated;
+    private final ScheduledExecutorService executor;
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+    private boolean stopped;
+    private Rect framingArea;
+    private Rect codeArea;
+    private long codeAreaTime;
+    private Rect appliedArea;
+    private long lastUpdate;
+    private ScheduledFuture<?> scheduledUpdate;
+
+    /**
+     * @param executor             the camera control thread, which all parameter changes are made on
+     * @param cameraResolution     size of the preview frames, as delivered by the camera
+     * @param rotated              whether the frames are rotated 90 degrees clockwise into portrait
+     *                             before being decoded
+     * @param framingRectInPreview the framing rect, in the coordinates of the frames as decoded
+     */
+    CameraAreaManager(Camera camera, ScheduledExecutorService executor, Point cameraResolution,
+                      boolean rotated, Rect framingRectInPreview) {
+        this.camera = camera;
+        this.executor = executor;
+        this.rotated = rotated;
+        previewWidth = rotated ? cameraResolution.y : cameraResolution.x;
+        previewHeight = rotated ? cameraResolution.x : cameraResolution.y;
+        setFramingRect(framingRectInPreview);
+    }
+
+    /**
+     * @param framingRectInPreview the framing rect, in the coordinates of the frames as decoded
+     */
+    synchronized void setFramingRect(Rect framingRectInPreview) {
+        framingArea = toCameraArea(framingRectInPreview);
+        scheduleUpdate(0L);
+    }
+
+    /**
+     * Called on the decode threads, when a frame showed where a barcode is.
+     *
+     * @param areaInPreview bounds of the barcode, in the coordinates of the frames as decoded
+     */
+    synchronized void onCodeArea(Rect areaInPreview) {
+        int margin = (int) (Math.max(areaInPreview.width(), areaInPreview.height()) * CODE_MARGIN);
+        Rect expanded = new Rect(areaInPreview);
+        expanded.inset(-margin, -margin);
+        codeArea = toCameraArea(expanded);
+        codeAreaTime = SystemClock.uptimeMillis();
+        if (!isClose(codeArea, appliedArea)) {
+            scheduleUpdate(Math.max(0L, lastUpdate + MIN_UPDATE_INTERVAL_MS - codeAreaTime));
+        }
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (scheduledUpdate != null) {
+            scheduledUpdate.cancel(false);
+            scheduledUpdate = null;
+        }
+    }
+
+    /**
+     * Schedules an update of the areas, unless one is already due sooner.
+     */
+    private synchronized void scheduleUpdate(long delayMs) {
+        if (stopped) {
+            return;
+        }
+        if (scheduledUpdate != null) {
+            if (!scheduledUpdate.isDone() && scheduledUpdate.getDelay(TimeUnit.MILLISECONDS) <= delayMs) {
+                return;
+            }
+            scheduledUpdate.cancel(false);
+        }
+        try {
+            scheduledUpdate = executor.schedule(updateRunnable, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            Log.w(TAG, "Could not update camera areas", ree);
+        }
+    }
+
+    private void update() {
+        Rect area;
+        synchronized (this) {
+            scheduledUpdate = null;
+            if (stopped) {
+                return;
+            }
+            long now = SystemClock.uptimeMillis();
+            boolean followCode = codeArea != null && now - codeAreaTime < CODE_AREA_TIMEOUT_MS;
+            area = followCode ? codeArea : framingArea;
+            if (followCode) {
+                // Fall back to the framing rect once the barcode is gone
+                scheduleUpdate(codeAreaTime + CODE_AREA_TIMEOUT_MS - now);
+            }
+            if (area == null || isClose(area, appliedArea)) {
+                return;
+            }
+        }
+        try {
+            Camera.Parameters parameters = camera.getParameters();
+            CameraConfigurationUtils.setFocusArea(parameters, area);
+            CameraConfigurationUtils.setMetering(parameters, area);
+            camera.setParameters(parameters);
+        } catch (RuntimeException re) {
+            // Released meanwhile, or the driver doesn't like the area; leave it
+            Log.w(TAG, "Could not set camera areas", re);
+            return;
+        }
+        synchronized (this) {
+            appliedArea = area;
+            lastUpdate = SystemClock.uptimeMillis();
+        }
+    }
+
+    /**
+     * @param rect in the coordinates of the frames as decoded
+     * @return the same rect in the coordinates of {@link Camera.Area}, at least
+     * {@link #MIN_AREA_SIDE} on each side and within the field of view
+     */
+    private Rect toCameraArea(Rect rect) {
+        int left = rect.left * 2000 / previewWidth - 1000;
+        int top = rect.top * 2000 / previewHeight - 1000;
+        int right = rect.right * 2000 / previewWidth - 1000;
+        int bottom = rect.bottom * 2000 / previewHeight - 1000;
+        Rect area;
+        if (rotated) {
+            // Rotated pixel (x', y') comes from sensor pixel (y', height - 1 - x')
+            area = new Rect(top, -right, bottom, -left);
+        } else {
+            area = new Rect(left, top, right, bottom);
+        }
+        if (area.width() < MIN_AREA_SIDE) {
+            int grow = (MIN_AREA_SIDE - area.width() + 1) / 2;
+            area.left -= grow;
+            area.right += grow;
+        }
+        if (area.height() < MIN_AREA_SIDE) {
+            int grow = (MIN_AREA_SIDE - area.height() + 1) / 2;
+            area.top -= grow;
+            area.bottom += grow;
+        }
+        // Shift back into the field of view rather than clip, to keep the size
+        area.offset(Math.max(0, -1000 - area.left) - Math.max(0, area.right - 1000),
+                Math.max(0, -1000 - area.top) - Math.max(0, area.bottom - 1000));
+        area.intersect(-1000, -1000, 1000, 1000);
+        return area;
+    }
+
+    private static boolean isClose(Rect a, Rect b) {
+        return b != null &&
+                Math.abs(a.left - b.left) < MIN_EDGE_CHANGE &&
+                Math.abs(a.top - b.top) < MIN_EDGE_CHANGE &&
+                Math.abs(a.right - b.right) < MIN_EDGE_CHANGE &&
+                Math.abs(a.bottom - b.bottom) < MIN_EDGE_CHANGE;
+    }
+
+}
@@ -30,6 +30,8 @@ import com.google.zxing.client.android.camera.open.CameraFacing;
 import com.google.zxing.client.android.camera.open.OpenCamera;
 import com.google.zxing.client.android.consts.PreferencesActivity;
 
+import java.util.List;
+
 /**
  * A class which deals with reading, parsing, and setting the camera parameters which are used to
  * configure the camera hardware.
@@ -38,23 +40,155 @@ final class CameraConfigurationManager {
 
     private static final String TAG = "CameraConfiguration";
 
+    /**
+     * Modules across a barcode filling the framing rect which the preview should resolve: a QR code
+     * of version 15 or an EAN-13, with their quiet zones.
+     */
+    private static final int FRAMING_MODULES = 100;
+    /**
+     * Pixels per module below which decoding gets unreliable, and the number the preview is given
+     * if the device decodes that many quickly enough.
+     */
+    private static final int MIN_PIXELS_PER_MODULE = 3;
+    private static final int PREFERRED_PIXELS_PER_MODULE = 4;
+    /**
+     * Longest a decode thread may spend on a frame without a barcode, for the larger preview size.
+     */
+    private static final long DECODE_BUDGET_NANOS = 40L * 1000000L;
+    /**
+     * Furthest the exposure compensation is moved either way by the adaptive exposure, in EV.
+     */
+    private static final float MAX_ADAPTIVE_EXPOSURE_COMPENSATION = 2.0f;
+
     private final Context context;
+    private final CameraParametersCache parametersCache;
     private int cwNeededRotation;
     private int cwRotationFromDisplayToCamera;
     private Point screenResolution;
+    private Point screenResolutionForCamera;
     private Point cameraResolution;
     private Point bestPreviewSize;
     private Point previewSizeOnScreen;
+    private String cacheKey;
+    /**
+     * The configuration negotiated on an earlier launch, or null if it has to be negotiated.
+     */
+    private CameraParametersCache.Entry cachedParameters;
 
     CameraConfigurationManager(Context context) {
         this.context = context;
+        parametersCache = new CameraParametersCache(context);
     }
 
     /**
      * Reads, one time, values from the camera that are needed by the app.
      */
     void initFromCameraParameters(OpenCamera camera) {
+        screenResolutionForCamera = initFromDisplay(camera.getOrientation(), camera.getFacing());
         Camera.Parameters parameters = camera.getCamera().getParameters();
+
+        cacheKey = CameraParametersCache.buildKey(camera.getIndex(), screenResolution);
+        cachedParameters = parametersCache.get(cacheKey, buildCacheSignature());
+        if (cachedParameters != null && !isSupportedPreviewSize(parameters, cachedParameters.previewSize)) {
+            Log.i(TAG, "Cached preview size " + cachedParameters.previewSize + " is no longer supported");
+            parametersCache.remove(cacheKey);
+            cachedParameters = null;
+        }
+        if (cachedParameters != null) {
+            cameraResolution = new Point(cachedParameters.previewSize);
+            Log.i(TAG, "Camera resolution, as negotiated before: " + cameraResolution);
+            initPreviewSize();
+        } else {
+            negotiatePreviewSize(parameters);
+        }
+    }
+
+    /**
+     * Searches the supported preview sizes for the one to use, without the cache.
+     */
+    private void negotiatePreviewSize(Camera.Parameters parameters) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_PREVIEW_SIZE, true)) {
+            int framingSide = CameraManager.findFramingRectSide(screenResolution);
+            cameraResolution = findDecodablePreviewSize(
+                    CameraConfigurationUtils.findDecodablePreviewSizeValue(parameters,
+                            screenResolutionForCamera, framingSide, FRAMING_MODULES * MIN_PIXELS_PER_MODULE),
+                    CameraConfigurationUtils.findDecodablePreviewSizeValue(parameters,
+                            screenResolutionForCamera, framingSide, FRAMING_MODULES * PREFERRED_PIXELS_PER_MODULE));
+        } else {
+            cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolutionForCamera);
+        }
+        Log.i(TAG, "Camera resolution: " + cameraResolution);
+        initPreviewSize();
+    }
+
+    private static boolean isSupportedPreviewSize(Camera.Parameters parameters, Point size) {
+        List<Camera.Size> supportedSizes = parameters.getSupportedPreviewSizes();
+        if (supportedSizes == null) {
+            return false;
+        }
+        for (Camera.Size supportedSize : supportedSizes) {
+            if (supportedSize.width == size.x && supportedSize.height == size.y) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Like {@link #initFromCameraParameters(OpenCamera)}, for a camera which isn't driven through
+     * the legacy API. There are no parameters to negotiate, just one of the sizes it streams in to
+     * pick, which is always the one the decoder needs.
+     *
+     * @param orientation clockwise rotation of the camera image to the natural orientation of the
+     *                    device, as with {@link OpenCamera#getOrientation()}
+     * @param facing      which way the camera faces
+     * @param outputSizes the sizes the camera can stream frames in
+     */
+    void initFromOutputSizes(int orientation, CameraFacing facing, List<Point> outputSizes) {
+        screenResolutionForCamera = initFromDisplay(orientation, facing);
+        int framingSide = CameraManager.findFramingRectSide(screenResolution);
+        Point smallest = CameraConfigurationUtils.findDecodableSizeValue(outputSizes,
+                screenResolutionForCamera, framingSide, FRAMING_MODULES * MIN_PIXELS_PER_MODULE);
+        if (smallest != null) {
+            cameraResolution = findDecodablePreviewSize(smallest,
+                    CameraConfigurationUtils.findDecodableSizeValue(outputSizes,
+                            screenResolutionForCamera, framingSide, FRAMING_MODULES * PREFERRED_PIXELS_PER_MODULE));
+        } else {
+            // None has the aspect ratio of the screen, so the preview is stretched anyway
+            cameraResolution = findLargestSizeWithin(outputSizes, screenResolutionForCamera);
+        }
+        Log.i(TAG, "Camera resolution: " + cameraResolution);
+        initPreviewSize();
+    }
+
+    /**
+     * @return the largest of the sizes which fits the screen, or the smallest if none does
+     */
+    private static Point findLargestSizeWithin(List<Point> sizes, Point screenResolutionForCamera) {
+        Point largest = null;
+        Point smallest = null;
+        for (Point size : sizes) {
+            if (size.x <= screenResolutionForCamera.x && size.y <= screenResolutionForCamera.y &&
+                    (largest == null || size.x * size.y > largest.x * largest.y)) {
+                largest = size;
+            }
+            if (smallest == null || size.x * size.y < smallest.x * smallest.y) {
+                smallest = size;
+            }
+        }
+        if (smallest == null) {
+            throw new IllegalStateException("Camera streams in no size at all!");
+        }
+        return new Point(largest != null ? largest : smallest);
+    }
+
+    /**
+     * Works out the rotation between the display and a camera, and the size of the screen.
+     *
+     * @return the size of the screen, turned to the orientation of the camera
+     */
+    private Point initFromDisplay(int cwRotationFromNaturalToCamera, CameraFacing facing) {
         WindowManager manager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
         Display display = manager.getDefaultDisplay();
 
@@ -83,11 +217,10 @@ final class CameraConfigurationManager {
         }
         Log.i(TAG, "Display at: " + cwRotationFromNaturalToDisplay);
 
-        int cwRotationFromNaturalToCamera = camera.getOrientation();
         Log.i(TAG, "Camera at: " + cwRotationFromNaturalToCamera);
 
         // Still not 100% sure about this. But acts like we need to flip this:
-        if (camera.getFacing() == CameraFacing.FRONT) {
+        if (facing == CameraFacing.FRONT) {
             cwRotationFromNaturalToCamera = (360 - cwRotationFromNaturalToCamera) % 360;
             Log.i(TAG, "Front camera overriden to: " + cwRotationFromNaturalToCamera);
         }
@@ -109,7 +242,7 @@ final class CameraConfigurationManager {
         cwRotationFromDisplayToCamera =
                 (360 + cwRotationFromNaturalToCamera - cwRotationFromNaturalToDisplay) % 360;
         Log.i(TAG, "Final display orientation: " + cwRotationFromDisplayToCamera);
-        if (camera.getFacing() == CameraFacing.FRONT) {
+        if (facing == CameraFacing.FRONT) {
             Log.i(TAG, "Compensating rotation for front camera");
             cwNeededRotation = (360 - cwRotationFromDisplayToCamera) % 360;
         } else {
@@ -133,11 +266,15 @@ final class CameraConfigurationManager {
             //noinspection SuspiciousNameCombination
             screenResolutionForCamera.y = screenResolution.x;
         }
+        return screenResolutionForCamera;
+    }
 
-        cameraResolution = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolutionForCamera);
-        Log.i(TAG, "Camera resolution: " + cameraResolution);
-
-        bestPreviewSize = CameraConfigurationUtils.findBestPreviewSizeValue(parameters, screenResolutionForCamera);
+    /**
+     * Derives the sizes of the preview from {@link #cameraResolution}, once it is picked.
+     */
+    private void initPreviewSize() {
+        // The same size; a copy, as it is corrected below if the camera doesn't take it
+        bestPreviewSize = new Point(cameraResolution);
         Log.i(TAG, "Best available preview size: " + bestPreviewSize);
 
         boolean isScreenPortrait = screenResolution.x < screenResolution.y;
@@ -151,6 +288,35 @@ final class CameraConfigurationManager {
         Log.i(TAG, "Preview size on screen: " + previewSizeOnScreen);
     }
 
+    /**
+     * Picks the smallest preview size resolving {@link #MIN_PIXELS_PER_MODULE}, or a larger one
+     * resolving {@link #PREFERRED_PIXELS_PER_MODULE} if this device decodes it within
+     * {@link #DECODE_BUDGET_NANOS}.
+     *
+     * @param smallest  the smallest size resolving the minimum
+     * @param preferred the smallest size resolving the preferred number
+     */
+    private Point findDecodablePreviewSize(Point smallest, Point preferred) {
+        if (preferred.equals(smallest)) {
+            return smallest;
+        }
+        int framingSide = CameraManager.findFramingRectSide(screenResolution);
+        int screenShort = Math.min(screenResolution.x, screenResolution.y);
+        int framingPixels = framingSide * Math.min(preferred.x, preferred.y) / screenShort;
+        long decodeNanos = PreviewSizeBenchmark.measureDecodeNanos(framingPixels);
+        Log.i(TAG, "Decoding " + framingPixels + "x" + framingPixels + " takes " + decodeNanos / 1000 + " us");
+        return chooseBySpeed(smallest, preferred, decodeNanos);
+    }
+
+    /**
+     * @param decodeNanos how long this device takes to decode the framing rect of the preferred size
+     * @return the preferred size if the device decodes it within {@link #DECODE_BUDGET_NANOS}, else
+     * the smallest
+     */
+    static Point chooseBySpeed(Point smallest, Point preferred, long decodeNanos) {
+        return decodeNanos <= DECODE_BUDGET_NANOS ? preferred : smallest;
+    }
+
     void setDesiredCameraParameters(OpenCamera camera, boolean safeMode) {
 
         Camera theCamera = camera.getCamera();
@@ -161,7 +327,18 @@ final class CameraConfigurationManager {
             return;
         }
 
-        Log.i(TAG, "Initial camera parameters: " + parameters.flatten());
+        CameraParametersCache.Entry cached = cachedParameters;
+        boolean requestedSafeMode = safeMode;
+        // Kept to take back the cached parameters if the camera rejects them
+        String parametersFlattened = cached != null ? parameters.flatten() : null;
+        if (cached != null && cached.safeMode && !safeMode) {
+            // The full configuration was rejected before, don't bother the camera with it again
+            Log.i(TAG, "Camera only took safe-mode parameters before");
+            safeMode = true;
+        }
+        if (cached == null) {
+            Log.i(TAG, "Initial camera parameters: " + parameters.flatten());
+        }
 
         if (safeMode) {
             Log.w(TAG, "In camera config safe mode -- most settings will not be honored");
@@ -171,18 +348,28 @@ final class CameraConfigurationManager {
 
         initializeTorch(parameters, prefs, safeMode);
 
-        CameraConfigurationUtils.setFocus(
-                parameters,
-                prefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true),
-                prefs.getBoolean(PreferencesActivity.KEY_DISABLE_CONTINUOUS_FOCUS, true),
-                safeMode);
+        if (cached != null) {
+            if (cached.focusMode != null) {
+                parameters.setFocusMode(cached.focusMode);
+            }
+        } else {
+            CameraConfigurationUtils.setFocus(
+                    parameters,
+                    prefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true),
+                    prefs.getBoolean(PreferencesActivity.KEY_DISABLE_CONTINUOUS_FOCUS, true),
+                    safeMode);
+        }
 
         if (!safeMode) {
             if (prefs.getBoolean(PreferencesActivity.KEY_INVERT_SCAN, false)) {
                 CameraConfigurationUtils.setInvertColor(parameters);
             }
 
-            if (!prefs.getBoolean(PreferencesActivity.KEY_DISABLE_BARCODE_SCENE_MODE, true)) {
+            if (cached != null) {
+                if (cached.sceneMode != null) {
+                    parameters.setSceneMode(cached.sceneMode);
+                }
+            } else if (!prefs.getBoolean(PreferencesActivity.KEY_DISABLE_BARCODE_SCENE_MODE, true)) {
                 CameraConfigurationUtils.setBarcodeSceneMode(parameters);
             }
 
@@ -196,7 +383,23 @@ final class CameraConfigurationManager {
 
         parameters.setPreviewSize(bestPreviewSize.x, bestPreviewSize.y);
 
-        theCamera.setParameters(parameters);
+        try {
+            theCamera.setParameters(parameters);
+        } catch (RuntimeException re) {
+            if (cached == null) {
+                throw re;
+            }
+            // The camera changed its mind, most likely about the preview size: negotiate from scratch
+            Log.w(TAG, "Camera rejected the cached parameters", re);
+            parametersCache.remove(cacheKey);
+            cachedParameters = null;
+            Camera.Parameters resetParameters = theCamera.getParameters();
+            resetParameters.unflatten(parametersFlattened);
+            theCamera.setParameters(resetParameters);
+            negotiatePreviewSize(resetParameters);
+            setDesiredCameraParameters(camera, requestedSafeMode);
+            return;
+        }
 
         theCamera.setDisplayOrientation(cwRotationFromDisplayToCamera);
 
@@ -208,6 +411,24 @@ final class CameraConfigurationManager {
             bestPreviewSize.x = afterSize.width;
             bestPreviewSize.y = afterSize.height;
         }
+
+        if (cached == null || cached.safeMode != safeMode) {
+            // Negotiated from scratch, remember the outcome for the next launch
+            cachedParameters = new CameraParametersCache.Entry(new Point(bestPreviewSize),
+                    afterParameters.getFocusMode(), safeMode ? null : afterParameters.getSceneMode(), safeMode);
+            parametersCache.put(cacheKey, buildCacheSignature(), cachedParameters);
+        }
+    }
+
+    /**
+     * @return the settings which the negotiated configuration depends on
+     */
+    private String buildCacheSignature() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return "focus=" + prefs.getBoolean(PreferencesActivity.KEY_AUTO_FOCUS, true) +
+                ",continuous=" + !prefs.getBoolean(PreferencesActivity.KEY_DISABLE_CONTINUOUS_FOCUS, true) +
+                ",scene=" + !prefs.getBoolean(PreferencesActivity.KEY_DISABLE_BARCODE_SCENE_MODE, true) +
+                ",decodeSize=" + prefs.getBoolean(PreferencesActivity.KEY_DECODE_PREVIEW_SIZE, true);
     }
 
     Point getBestPreviewSize() {
@@ -249,6 +470,19 @@ final class CameraConfigurationManager {
         camera.setParameters(parameters);
     }
 
+    /**
+     * @param steps number of exposure compensation steps to move by, up if positive
+     * @return whether the exposure compensation changed
+     */
+    boolean adjustExposure(Camera camera, int steps) {
+        Camera.Parameters parameters = camera.getParameters();
+        if (!CameraConfigurationUtils.stepExposure(parameters, steps, MAX_ADAPTIVE_EXPOSURE_COMPENSATION)) {
+            return false;
+        }
+        camera.setParameters(parameters);
+        return true;
+    }
+
     private void initializeTorch(Camera.Parameters parameters, SharedPreferences prefs, boolean safeMode) {
         boolean currentSetting = FrontLightMode.readPref(prefs) == FrontLightMode.ON;
         doSetTorch(parameters, currentSetting, safeMode);
@@ -135,6 +135,31 @@ public final class CameraConfigurationUtils {
         }
     }
 
+    /**
+     * Moves the exposure compensation by some steps, staying within a range around none.
+     *
+     * @param steps           number of steps to move it by, up if positive
+     * @param maxCompensation largest compensation either way, in EV
+     * @return whether the compensation changed; not if it already is at the end of the range
+     */
+    public static boolean stepExposure(Camera.Parameters parameters, int steps, float maxCompensation) {
+        int minExposure = parameters.getMinExposureCompensation();
+        int maxExposure = parameters.getMaxExposureCompensation();
+        float step = parameters.getExposureCompensationStep();
+        if ((minExposure == 0 && maxExposure == 0) || step <= 0.0f) {
+            return false;
+        }
+        int limit = Math.round(maxCompensation / step);
+        int current = parameters.getExposureCompensation();
+        int target = Math.max(Math.max(minExposure, -limit), Math.min(Math.min(maxExposure, limit), current + steps));
+        if (target == current) {
+            return false;
+        }
+        Log.i(TAG, "Setting exposure compensation to " + target + " / " + (step * target));
+        parameters.setExposureCompensation(target);
+        return true;
+    }
+
     public static void setBestPreviewFPS(Camera.Parameters parameters) {
         setBestPreviewFPS(parameters, MIN_FPS, MAX_FPS);
     }
@@ -169,30 +194,45 @@ public final class CameraConfigurationUtils {
     }
 
     public static void setFocusArea(Camera.Parameters parameters) {
+        setFocusArea(parameters, buildMiddleRect(AREA_PER_1000));
+    }
+
+    /**
+     * @param area in the coordinates of {@link Camera.Area}, from -1000 to 1000 across the field of
+     *             view of the sensor
+     */
+    public static void setFocusArea(Camera.Parameters parameters, Rect area) {
         if (parameters.getMaxNumFocusAreas() > 0) {
             Log.i(TAG, "Old focus areas: " + toString(parameters.getFocusAreas()));
-            List<Camera.Area> middleArea = buildMiddleArea(AREA_PER_1000);
-            Log.i(TAG, "Setting focus area to : " + toString(middleArea));
-            parameters.setFocusAreas(middleArea);
+            List<Camera.Area> areas = Collections.singletonList(new Camera.Area(area, 1));
+            Log.i(TAG, "Setting focus area to : " + toString(areas));
+            parameters.setFocusAreas(areas);
         } else {
             Log.i(TAG, "Device does not support focus areas");
         }
     }
 
     public static void setMetering(Camera.Parameters parameters) {
+        setMetering(parameters, buildMiddleRect(AREA_PER_1000));
+    }
+
+    /**
+     * @param area in the coordinates of {@link Camera.Area}, from -1000 to 1000 across the field of
+     *             view of the sensor
+     */
+    public static void setMetering(Camera.Parameters parameters, Rect area) {
         if (parameters.getMaxNumMeteringAreas() > 0) {
             Log.i(TAG, "Old metering areas: " + parameters.getMeteringAreas());
-            List<Camera.Area> middleArea = buildMiddleArea(AREA_PER_1000);
-            Log.i(TAG, "Setting metering area to : " + toString(middleArea));
-            parameters.setMeteringAreas(middleArea);
+            List<Camera.Area> areas = Collections.singletonList(new Camera.Area(area, 1));
+            Log.i(TAG, "Setting metering area to : " + toString(areas));
+            parameters.setMeteringAreas(areas);
         } else {
             Log.i(TAG, "Device does not support metering areas");
         }
     }
 
-    private static List<Camera.Area> buildMiddleArea(int areaPer1000) {
-        return Collections.singletonList(
-                new Camera.Area(new Rect(-areaPer1000, -areaPer1000, areaPer1000, areaPer1000), 1));
+    private static Rect buildMiddleRect(int areaPer1000) {
+        return new Rect(-areaPer1000, -areaPer1000, areaPer1000, areaPer1000);
     }
 
     public static void setVideoStabilization(Camera.Parameters parameters) {
@@ -379,6 +419,100 @@ public final class CameraConfigurationUtils {
         return defaultSize;
     }
 
+    /**
+     * Finds the smallest preview size in which the framing rect spans enough pixels, rather than
+     * the one matching the screen. Decoding time grows with the number of pixels binarized, while
+     * beyond a few pixels per module, more don't make decoding any more reliable.
+     *
+     * @param screenResolution     size of the screen, turned to the orientation of the camera
+     * @param framingSide          side of the framing rect on screen
+     * @param minFramingPixels     number of preview pixels the framing rect should span at least
+     * @return the smallest suitable preview size spanning that many, or the largest suitable one if
+     * none does
+     */
+    public static Point findDecodablePreviewSizeValue(Camera.Parameters parameters,
+                                                      Point screenResolution,
+                                                      int framingSide,
+                                                      int minFramingPixels) {
+        List<Camera.Size> rawSupportedSizes = parameters.getSupportedPreviewSizes();
+        if (rawSupportedSizes == null) {
+            return findBestPreviewSizeValue(parameters, screenResolution);
+        }
+        List<Point> supportedPreviewSizes = new ArrayList<>(rawSupportedSizes.size());
+        for (Camera.Size supportedPreviewSize : rawSupportedSizes) {
+            supportedPreviewSizes.add(new Point(supportedPreviewSize.width, supportedPreviewSize.height));
+        }
+        Point size = findDecodableSizeValue(supportedPreviewSizes, screenResolution, framingSide, minFramingPixels);
+        return size != null ? size : findBestPreviewSizeValue(parameters, screenResolution);
+    }
+
+    /**
+     * Same as {@link #findDecodablePreviewSizeValue(Camera.Parameters, Point, int, int)}, for sizes
+     * which don't come from the legacy camera API.
+     *
+     * @param supportedSizes the sizes the camera can stream in
+     * @return the smallest suitable size spanning that many, the largest suitable one if none does,
+     * or null if none is suitable at all
+     */
+    public static Point findDecodableSizeValue(Collection<Point> supportedSizes,
+                                               Point screenResolution,
+                                               int framingSide,
+                                               int minFramingPixels) {
+        Point size = selectDecodableSize(supportedSizes, screenResolution, framingSide, minFramingPixels);
+        if (size != null) {
+            Log.i(TAG, "Preview size for " + minFramingPixels + " pixels across the framing rect: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * The policy behind {@link #findDecodableSizeValue(Collection, Point, int, int)}, without the
+     * logging.
+     */
+    static Point selectDecodableSize(Collection<Point> supportedSizes,
+                                     Point screenResolution,
+                                     int framingSide,
+                                     int minFramingPixels) {
+        // Sort by size, ascending
+        List<Point> sortedSizes = new ArrayList<>(supportedSizes);
+        Collections.sort(sortedSizes, new Comparator<Point>() {
+            @Override
+            public int compare(Point a, Point b) {
+                int aPixels = a.x * a.y;
+                int bPixels = b.x * b.y;
+                if (aPixels < bPixels) {
+                    return -1;
+                }
+                if (aPixels > bPixels) {
+                    return 1;
+                }
+                return 0;
+            }
+        });
+
+        int screenLong = Math.max(screenResolution.x, screenResolution.y);
+        int screenShort = Math.min(screenResolution.x, screenResolution.y);
+        double screenAspectRatio = screenLong / (double) screenShort;
+
+        Point largest = null;
+        for (Point supportedSize : sortedSizes) {
+            int previewLong = Math.max(supportedSize.x, supportedSize.y);
+            int previewShort = Math.min(supportedSize.x, supportedSize.y);
+            if (previewLong * previewShort < MIN_PREVIEW_PIXELS ||
+                    Math.abs(previewLong / (double) previewShort - screenAspectRatio) > MAX_ASPECT_DISTORTION) {
+                continue;
+            }
+            // The preview is scaled to the screen, so the framing rect covers the same share of both
+            int framingPixels = framingSide * previewShort / screenShort;
+            if (framingPixels >= minFramingPixels) {
+                return new Point(supportedSize);
+            }
+            largest = supportedSize;
+        }
+
+        return largest != null ? new Point(largest) : null;
+    }
+
     private static String findSettableValue(String name,
                                             Collection<String> supportedValues,
                                             String... desiredValues) {
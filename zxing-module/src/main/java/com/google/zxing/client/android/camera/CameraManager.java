@@ -17,23 +17,41 @@
 package com.google.zxing.client.android.camera;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.hardware.Camera;
 import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
 import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.client.android.camera.open.CameraFacing;
 import com.google.zxing.client.android.camera.open.OpenCamera;
 import com.google.zxing.client.android.camera.open.OpenCameraInterface;
+import com.google.zxing.client.android.consts.PreferencesActivity;
+import com.google.zxing.client.android.metrics.ScanMetrics;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This object wraps the Camera service object and expects to be the only one talking to it. The
  * implementation encapsulates the steps needed to take preview-sized images, which are used for
  * both preview and decoding.
+ * <p>
+ * Frames come from a {@link FrameSource}: the legacy {@link Camera} API by default, the camera2 API
+ * if enabled in the preferences and available, or a {@link FakeFrameSource} if one was set. The
+ * autofocus, area, exposure and zoom controllers drive the legacy API only. They share one thread
+ * per preview, which all changes of the camera parameters are made on, so that none of them is
+ * lost to another.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
@@ -45,16 +63,62 @@ public final class CameraManager {
     private static final int MIN_FRAME_HEIGHT = 320;
     private static final int MAX_FRAME_WIDTH = 1200; // = 5/8 * 1920
     private static final int MAX_FRAME_HEIGHT = 675; // = 5/8 * 1080
+    /**
+     * How long stopping the preview waits for the parameter changes still queued.
+     */
+    private static final long CONTROL_SHUTDOWN_TIMEOUT_MS = 500L;
+
+    /**
+     * Receives the outcome of {@link #openDriverAsync(OpenListener)}, on the main thread.
+     */
+    public interface OpenListener {
+
+        void onCameraOpened();
+
+        /**
+         * @param e why the camera couldn't be opened
+         */
+        void onCameraOpenFailed(Exception e);
+
+    }
 
     private final Context context;
     private final CameraConfigurationManager configManager;
     /**
-     * Preview frames are delivered here, which we pass on to the registered handler. Make sure to
-     * clear the handler so it will only receive one message.
+     * Preview frames of the legacy API are delivered here, which we pass on to the registered
+     * handler. Make sure to clear the handler so it will only receive one message. Frames from the
+     * buffer ring must be returned with {@link #releasePreviewFrame(byte[])}.
      */
     private final PreviewCallback previewCallback;
+    private final ScanMetrics metrics;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Where frames come from while open; read without the lock when frames are released.
+     */
+    private volatile FrameSource frameSource;
+    /**
+     * The camera behind the frame source if it is driven through the legacy API, else null.
+     */
     private OpenCamera camera;
+    private FakeFrameSource manualFrameSource;
+    /**
+     * How many frames the source may have out at once, see {@link #setFrameBufferCount(int)}.
+     */
+    private int frameBufferCount = FrameDispatcher.DEFAULT_BUFFER_COUNT;
+    private ScheduledExecutorService controlExecutor;
     private AutoFocusManager autoFocusManager;
+    private CameraAreaManager areaManager;
+    private ExposureController exposureController;
+    private ZoomController zoomController;
+    /**
+     * Whether {@link #reportLuma(float, float)} is listened to, read without the lock on every frame.
+     */
+    private volatile boolean exposureControlled;
+    /**
+     * Whether {@link #reportFocusFeedback(FocusFeedback)} is listened to, read without the lock on
+     * every frame.
+     */
+    private volatile boolean focusFeedbackWanted;
     private Rect framingRect;
     private Rect framingRectInPreview;
     private boolean initialized;
@@ -62,11 +126,21 @@ public final class CameraManager {
     private int requestedCameraId = OpenCameraInterface.NO_REQUESTED_CAMERA;
     private int requestedFramingRectWidth;
     private int requestedFramingRectHeight;
+    private Thread openThread;
 
-    public CameraManager(Context context) {
+    /**
+     * @param context context of the app
+     * @param metrics where the pipeline records its timings, from the frames arriving on
+     */
+    public CameraManager(Context context, ScanMetrics metrics) {
         this.context = context;
+        this.metrics = metrics;
         this.configManager = new CameraConfigurationManager(context);
-        previewCallback = new PreviewCallback(configManager);
+        previewCallback = new PreviewCallback(configManager, metrics);
+    }
+
+    public ScanMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -76,25 +150,152 @@ public final class CameraManager {
      * @throws IOException Indicates the camera driver failed to open.
      */
     public synchronized void openDriver(SurfaceHolder holder) throws IOException {
-        OpenCamera theCamera = camera;
+        openDriver();
+        setPreviewDisplay(holder);
+    }
+
+    /**
+     * Opens the camera driver and initializes the hardware parameters, without a surface to draw
+     * into yet. The lock is only held briefly, so this may run on a background thread while the UI
+     * thread goes on using this object; {@link #isOpen()} turns true once it is done.
+     *
+     * @throws IOException Indicates the camera driver failed to open.
+     */
+    public void openDriver() throws IOException {
+        long start = System.nanoTime();
+        FrameSource theSource;
+        OpenCamera theCamera;
+        FakeFrameSource fakeSource;
+        int cameraId;
+        boolean initialize;
+        synchronized (this) {
+            theSource = frameSource;
+            theCamera = camera;
+            fakeSource = manualFrameSource;
+            cameraId = requestedCameraId;
+            initialize = !initialized;
+        }
+        if (theSource == null && fakeSource != null) {
+            if (initialize) {
+                configManager.initFromOutputSizes(0, CameraFacing.BACK,
+                        Collections.singletonList(fakeSource.getFrameSize()));
+            }
+            theSource = fakeSource;
+        } else if (theSource == null && isCamera2Enabled()) {
+            theSource = Camera2FrameSource.open(context, cameraId, configManager, initialize, metrics);
+        } else if (theSource == null || theCamera != null) {
+            theCamera = openLegacyCamera(theCamera, cameraId, initialize);
+            if (theSource == null) {
+                SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+                theSource = new LegacyFrameSource(theCamera, configManager, previewCallback,
+                        !prefs.getBoolean(PreferencesActivity.KEY_DISABLE_PREVIEW_BUFFERS, false));
+            }
+        }
+
+        synchronized (this) {
+            frameSource = theSource;
+            camera = theCamera;
+            if (initialize) {
+                initialized = true;
+                if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
+                    setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
+                    requestedFramingRectWidth = 0;
+                    requestedFramingRectHeight = 0;
+                }
+            }
+        }
+        metrics.record(ScanMetrics.Timer.CAMERA_OPEN, System.nanoTime() - start);
+    }
+
+    private boolean isCamera2Enabled() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(PreferencesActivity.KEY_CAMERA2, false) && Camera2FrameSource.isSupported();
+    }
+
+    /**
+     * Opens the camera through the legacy API unless already open, and sets its parameters.
+     *
+     * @param theCamera the camera if already open, else null
+     * @return the camera
+     */
+    private OpenCamera openLegacyCamera(OpenCamera theCamera, int cameraId, boolean initialize) throws IOException {
+        boolean opened = false;
         if (theCamera == null) {
-            theCamera = OpenCameraInterface.open(requestedCameraId);
+            theCamera = OpenCameraInterface.open(cameraId);
             if (theCamera == null) {
                 throw new IOException("Camera.open() failed to return object from driver");
             }
-            camera = theCamera;
+            opened = true;
         }
+        try {
+            if (initialize) {
+                configManager.initFromCameraParameters(theCamera);
+            }
+            setDesiredCameraParameters(theCamera);
+        } catch (RuntimeException re) {
+            if (opened) {
+                theCamera.getCamera().release();
+            }
+            throw re;
+        }
+        return theCamera;
+    }
 
-        if (!initialized) {
-            initialized = true;
-            configManager.initFromCameraParameters(theCamera);
-            if (requestedFramingRectWidth > 0 && requestedFramingRectHeight > 0) {
-                setManualFramingRect(requestedFramingRectWidth, requestedFramingRectHeight);
-                requestedFramingRectWidth = 0;
-                requestedFramingRectHeight = 0;
+    /**
+     * Like {@link #openDriver()}, on a background thread, so that opening the camera overlaps with
+     * the surface being created and the decode threads setting up their readers. The thread has no
+     * looper, so a camera opened through the legacy API delivers its callbacks on the main thread, as
+     * if it had been opened there.
+     * Does nothing if the camera is already open or being opened.
+     *
+     * @param listener told on the main thread once the camera is open, unless
+     *                 {@link #closeDriver()} was called meanwhile
+     */
+    public synchronized void openDriverAsync(final OpenListener listener) {
+        if (frameSource != null || openThread != null) {
+            return;
+        }
+        openThread = new Thread("CameraOpener") {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    openDriver();
+                } catch (IOException | RuntimeException e) {
+                    error = e;
+                }
+                final Exception theError = error;
+                // Posted under the same lock as the thread is forgotten, so that closeDriver() either
+                // waits for this thread or finds the outcome posted, and removes it either way
+                synchronized (CameraManager.this) {
+                    openThread = null;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (theError == null) {
+                                listener.onCameraOpened();
+                            } else {
+                                listener.onCameraOpenFailed(theError);
+                            }
+                        }
+                    });
+                }
             }
+        };
+        openThread.start();
+    }
+
+    /**
+     * @param holder The surface object which the camera will draw preview frames into.
+     * @throws IOException Indicates the surface couldn't be attached.
+     */
+    public synchronized void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        if (frameSource != null) {
+            frameSource.setPreviewDisplay(holder);
         }
+    }
 
+    private void setDesiredCameraParameters(OpenCamera theCamera) {
         Camera cameraObject = theCamera.getCamera();
         Camera.Parameters parameters = cameraObject.getParameters();
         String parametersFlattened = parameters == null ? null : parameters.flatten(); // Save these, temporarily
@@ -117,53 +318,282 @@ public final class CameraManager {
                 }
             }
         }
-        cameraObject.setPreviewDisplay(holder);
-
     }
 
     public synchronized boolean isOpen() {
-        return camera != null;
+        return frameSource != null;
     }
 
     /**
-     * Closes the camera driver if still in use.
+     * @return whether {@link #openDriverAsync(OpenListener)} is still opening the camera
      */
-    public synchronized void closeDriver() {
-        if (camera != null) {
-            camera.getCamera().release();
-            camera = null;
-            // Make sure to clear these each time we close the camera, so that any scanning rect
-            // requested by intent is forgotten.
-            framingRect = null;
-            framingRectInPreview = null;
+    public synchronized boolean isOpening() {
+        return openThread != null;
+    }
+
+    /**
+     * Closes the camera driver if still in use, waiting for it to be opened first if it is being
+     * opened in the background.
+     */
+    public void closeDriver() {
+        Thread theOpenThread;
+        synchronized (this) {
+            theOpenThread = openThread;
+        }
+        if (theOpenThread != null) {
+            try {
+                theOpenThread.join();
+            } catch (InterruptedException ie) {
+                // continue
+            }
+        }
+        // Nobody is waiting for the outcome of opening any more
+        mainHandler.removeCallbacksAndMessages(null);
+        synchronized (this) {
+            if (frameSource != null) {
+                frameSource.release();
+                frameSource = null;
+                camera = null;
+                // Make sure to clear these each time we close the camera, so that any scanning rect
+                // requested by intent is forgotten.
+                framingRect = null;
+                framingRectInPreview = null;
+            }
         }
     }
 
+    /**
+     * Sizes the frame buffers to the decoders, so that every decode thread can be busy with a frame
+     * while another is held back and the camera fills one more.
+     *
+     * @param count how many frames may be out at once; applies from the next preview
+     */
+    public synchronized void setFrameBufferCount(int count) {
+        frameBufferCount = Math.max(FrameDispatcher.DEFAULT_BUFFER_COUNT, count);
+    }
+
     /**
      * Asks the camera hardware to begin drawing preview frames to the screen.
      */
     public synchronized void startPreview() {
-        OpenCamera theCamera = camera;
-        if (theCamera != null && !previewing) {
-            theCamera.getCamera().startPreview();
+        FrameSource theSource = frameSource;
+        if (theSource != null && !previewing) {
+            theSource.setBufferCount(frameBufferCount);
+            theSource.startPreview();
             previewing = true;
-            autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
+            OpenCamera theCamera = camera;
+            if (theCamera == null) {
+                // Nothing for the controllers to drive
+                return;
+            }
+            controlExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, "CameraControl");
+                }
+            });
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            autoFocusManager = new AutoFocusManager(context, theCamera.getCamera(), controlExecutor, metrics);
+            focusFeedbackWanted = autoFocusManager.isUsingAutoFocus();
+            if (prefs.getBoolean(PreferencesActivity.KEY_ADAPTIVE_EXPOSURE, true)) {
+                boolean controlExposure = !prefs.getBoolean(PreferencesActivity.KEY_DISABLE_EXPOSURE, true);
+                boolean controlTorch = FrontLightMode.readPref(prefs) == FrontLightMode.AUTO;
+                if (controlExposure || controlTorch) {
+                    exposureController = new ExposureController(this, controlExecutor, metrics,
+                            controlExposure, controlTorch, configManager.getTorchState(theCamera.getCamera()));
+                    exposureControlled = true;
+                }
+            }
+            Rect rectInPreview = getFramingRectInPreview();
+            if (rectInPreview != null) {
+                // Areas are a device bug workaround like the rest of metering, so off unless enabled
+                if (!prefs.getBoolean(PreferencesActivity.KEY_DISABLE_METERING, true)) {
+                    areaManager = new CameraAreaManager(theCamera.getCamera(), controlExecutor,
+                            configManager.getCameraResolution(), isPreviewRotated(), rectInPreview);
+                }
+                if (prefs.getBoolean(PreferencesActivity.KEY_AUTO_ZOOM, true) &&
+                        theCamera.getCamera().getParameters().isZoomSupported()) {
+                    zoomController = new ZoomController(theCamera.getCamera(), controlExecutor, metrics,
+                            configManager.getCameraResolution(), isPreviewRotated(), rectInPreview);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the preview frames are rotated into portrait before being decoded, so that
+     * {@link #getFramingRectInPreview()} is in rotated coordinates
+     */
+    private boolean isPreviewRotated() {
+        Point screenResolution = configManager.getScreenResolution();
+        Point cameraResolution = configManager.getCameraResolution();
+        return screenResolution.x < screenResolution.y && cameraResolution.y < cameraResolution.x;
+    }
+
+    /**
+     * @return whether {@link #reportLuma(float, float)} is listened to, so is worth calling
+     */
+    public boolean isExposureControlled() {
+        return exposureControlled;
+    }
+
+    /**
+     * @return whether {@link #reportFocusFeedback(FocusFeedback)} is listened to, so the decoder
+     * has to measure how sharp frames are
+     */
+    public boolean isFocusFeedbackWanted() {
+        return focusFeedbackWanted;
+    }
+
+    /**
+     * Tells the adaptive exposure how bright the framing rect is. May be called from any thread, for
+     * some of the frames.
+     *
+     * @param mean            mean luminance of the framing rect, from 0 to 255
+     * @param clippedFraction share of its pixels which are clipped white
+     */
+    public synchronized void reportLuma(float mean, float clippedFraction) {
+        if (exposureController != null) {
+            exposureController.onLuma(mean, clippedFraction);
+        }
+    }
+
+    /**
+     * Called by the adaptive exposure on the camera control thread. This manager, which the decode
+     * threads report to, isn't locked while the parameters change.
+     *
+     * @return whether the exposure compensation changed
+     */
+    boolean adjustExposure(ExposureController controller, int steps) {
+        OpenCamera theCamera;
+        synchronized (this) {
+            if (controller != exposureController || camera == null) {
+                // Stopped meanwhile
+                return false;
+            }
+            theCamera = camera;
+        }
+        try {
+            return configManager.adjustExposure(theCamera.getCamera(), steps);
+        } catch (RuntimeException re) {
+            // Released meanwhile
+            Log.w(TAG, "Could not adjust exposure", re);
+            return false;
+        }
+    }
+
+    /**
+     * Called by the adaptive exposure on the camera control thread, like {@link #adjustExposure}.
+     *
+     * @return whether the torch is in the requested state now
+     */
+    boolean applyTorch(ExposureController controller, boolean on) {
+        FrameSource theSource;
+        AutoFocusManager theAutoFocusManager;
+        synchronized (this) {
+            if (controller != exposureController || camera == null) {
+                return false;
+            }
+            theSource = frameSource;
+            theAutoFocusManager = autoFocusManager;
+        }
+        return switchTorch(theSource, theAutoFocusManager, on);
+    }
+
+    /**
+     * Tells the camera where the decoder sees a barcode, so that it focuses and meters on it. May be
+     * called from any thread; updates of the camera parameters are rate limited.
+     *
+     * @param areaInPreview bounds of the barcode, in the coordinates of
+     *                      {@link #getFramingRectInPreview()}; only read during the call
+     */
+    public synchronized void reportCodeArea(Rect areaInPreview) {
+        if (areaManager != null) {
+            areaManager.onCodeArea(areaInPreview);
+        }
+    }
+
+    /**
+     * Tells the autofocus what a decoded frame looked like, so that it refocuses when the frames
+     * blur and backs off while they are sharp. May be called from any thread.
+     *
+     * @param feedback what the frame tells about the focus
+     */
+    public synchronized void reportFocusFeedback(FocusFeedback feedback) {
+        if (autoFocusManager != null) {
+            autoFocusManager.onFeedback(feedback);
+        }
+        // Decoded, so no need to stay zoomed in
+        if (feedback == FocusFeedback.DECODED && zoomController != null) {
+            zoomController.onDecoded();
+        }
+    }
+
+    /**
+     * Tells the auto zoom how large the modules of a code seen but not decoded are, so that it zooms
+     * in on a code too far away. May be called from any thread.
+     *
+     * @param areaInPreview bounds of the code, in the coordinates of
+     *                      {@link #getFramingRectInPreview()}; only read during the call
+     * @param modulePixels  estimated size of a module, in pixels of the preview, or 0 if unknown
+     */
+    public synchronized void reportCodeSize(Rect areaInPreview, float modulePixels) {
+        if (zoomController != null) {
+            zoomController.onCodeSize(areaInPreview, modulePixels);
         }
     }
 
     /**
      * Tells the camera to stop drawing preview frames.
      */
-    public synchronized void stopPreview() {
+    public void stopPreview() {
+        ScheduledExecutorService theExecutor;
+        synchronized (this) {
+            theExecutor = stopControllers();
+            if (frameSource != null && previewing) {
+                frameSource.stopPreview();
+                previewing = false;
+            }
+        }
+        if (theExecutor != null) {
+            // Outside the lock: the adaptive exposure takes it from the camera control thread
+            theExecutor.shutdown();
+            try {
+                if (!theExecutor.awaitTermination(CONTROL_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Camera parameters still changing after stopping the preview");
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the camera control thread, to be shut down once the controllers' last changes are
+     * queued, or {@code null} if there is none
+     */
+    private ScheduledExecutorService stopControllers() {
         if (autoFocusManager != null) {
             autoFocusManager.stop();
             autoFocusManager = null;
+            focusFeedbackWanted = false;
         }
-        if (camera != null && previewing) {
-            camera.getCamera().stopPreview();
-            previewCallback.setHandler(null, 0);
-            previewing = false;
+        if (areaManager != null) {
+            areaManager.stop();
+            areaManager = null;
         }
+        if (exposureController != null) {
+            exposureController.stop();
+            exposureController = null;
+            exposureControlled = false;
+        }
+        if (zoomController != null) {
+            zoomController.stop();
+            zoomController = null;
+        }
+        ScheduledExecutorService theExecutor = controlExecutor;
+        controlExecutor = null;
+        return theExecutor;
     }
 
     /**
@@ -171,21 +601,65 @@ public final class CameraManager {
      *
      * @param newSetting if {@code true}, light should be turned on if currently off. And vice versa.
      */
-    public synchronized void setTorch(boolean newSetting) {
-        OpenCamera theCamera = camera;
-        if (theCamera != null) {
-            if (newSetting != configManager.getTorchState(theCamera.getCamera())) {
-                boolean wasAutoFocusManager = autoFocusManager != null;
-                if (wasAutoFocusManager) {
-                    autoFocusManager.stop();
-                    autoFocusManager = null;
+    public void setTorch(final boolean newSetting) {
+        final FrameSource theSource;
+        final AutoFocusManager theAutoFocusManager;
+        ScheduledExecutorService theExecutor;
+        synchronized (this) {
+            if (exposureController != null) {
+                exposureController.onManualTorch();
+            }
+            theSource = frameSource;
+            theAutoFocusManager = autoFocusManager;
+            theExecutor = controlExecutor;
+        }
+        if (theExecutor != null) {
+            // Behind the controllers' changes rather than in between
+            try {
+                theExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        switchTorch(theSource, theAutoFocusManager, newSetting);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException ree) {
+                // Preview stopped meanwhile, so nothing else changes the parameters
+            }
+        }
+        switchTorch(theSource, theAutoFocusManager, newSetting);
+    }
+
+    /**
+     * Switches the torch without holding this manager's lock, on the camera control thread while
+     * there is one.
+     *
+     * @return whether the torch is in the requested state now
+     */
+    private static boolean switchTorch(FrameSource source, AutoFocusManager autoFocusManager,
+                                       boolean newSetting) {
+        if (source == null) {
+            return false;
+        }
+        try {
+            if (newSetting != source.getTorchState()) {
+                // Only there for a camera driven through the legacy API
+                if (autoFocusManager != null) {
+                    autoFocusManager.pause();
                 }
-                configManager.setTorch(theCamera.getCamera(), newSetting);
-                if (wasAutoFocusManager) {
-                    autoFocusManager = new AutoFocusManager(context, theCamera.getCamera());
-                    autoFocusManager.start();
+                try {
+                    source.setTorch(newSetting);
+                } finally {
+                    if (autoFocusManager != null) {
+                        autoFocusManager.resume();
+                    }
                 }
             }
+            return true;
+        } catch (RuntimeException re) {
+            // Released meanwhile
+            Log.w(TAG, "Could not switch the torch", re);
+            return false;
         }
     }
 
@@ -198,10 +672,48 @@ public final class CameraManager {
      * @param message The what field of the message to be sent.
      */
     public synchronized void requestPreviewFrame(Handler handler, int message) {
-        OpenCamera theCamera = camera;
-        if (theCamera != null && previewing) {
-            previewCallback.setHandler(handler, message);
-            theCamera.getCamera().setOneShotPreviewCallback(previewCallback);
+        if (frameSource != null && previewing) {
+            frameSource.setHandler(handler, message, false);
+        }
+    }
+
+    /**
+     * Like {@link #requestPreviewFrame(Handler, int)}, but keeps sending every frame the camera
+     * produces until {@link #stopPreviewFrames()} is called, so that the receiver always has the
+     * newest frame at hand. Not possible with one-shot callbacks of the legacy API, which need to be
+     * re-armed after every frame.
+     *
+     * @param handler The handler to send the messages to.
+     * @param message The what field of the messages to be sent.
+     * @return {@code false} if frames can't be streamed and have to be requested one by one
+     */
+    public synchronized boolean startPreviewFrames(Handler handler, int message) {
+        if (frameSource != null && previewing && frameSource.canStream()) {
+            frameSource.setHandler(handler, message, true);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stops sending frames to the handler registered with {@link #startPreviewFrames(Handler, int)}.
+     */
+    public synchronized void stopPreviewFrames() {
+        if (frameSource != null) {
+            frameSource.setHandler(null, 0, false);
+        }
+    }
+
+    /**
+     * Gives a frame delivered by {@link #requestPreviewFrame(Handler, int)} back to the camera once
+     * it has been decoded. Must not be touched afterwards, as the camera will overwrite it.
+     *
+     * @param data The preview frame from message.obj.
+     */
+    public void releasePreviewFrame(byte[] data) {
+        FrameSource theSource = frameSource;
+        if (theSource != null) {
+            theSource.releaseFrame(data);
         }
     }
 
@@ -214,7 +726,7 @@ public final class CameraManager {
      */
     public synchronized Rect getFramingRect() {
         if (framingRect == null) {
-            if (camera == null) {
+            if (frameSource == null) {
                 return null;
             }
             Point screenResolution = configManager.getScreenResolution();
@@ -223,12 +735,8 @@ public final class CameraManager {
                 return null;
             }
 
-            int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
-            int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
-
-            // fix a bug ,QRCode scanner should be a rectangle
-            height = (height > width) ? width : height;
-            width = (width > height) ? height : width;
+            int width = findFramingRectSide(screenResolution);
+            int height = width;
 
             int leftOffset = (screenResolution.x - width) / 2;
             int topOffset = (screenResolution.y - height) / 2;
@@ -245,6 +753,17 @@ public final class CameraManager {
         return framingRect;
     }
 
+    /**
+     * @param screenResolution size of the screen in its current orientation
+     * @return the side of the square framing rect on that screen, unless set manually
+     */
+    static int findFramingRectSide(Point screenResolution) {
+        int width = findDesiredDimensionInRange(screenResolution.x, MIN_FRAME_WIDTH, MAX_FRAME_WIDTH);
+        int height = findDesiredDimensionInRange(screenResolution.y, MIN_FRAME_HEIGHT, MAX_FRAME_HEIGHT);
+        // fix a bug ,QRCode scanner should be a rectangle
+        return Math.min(width, height);
+    }
+
     private static int findDesiredDimensionInRange(int resolution, int hardMin, int hardMax) {
         int dim = 5 * resolution / 8; // Target 5/8 of each dimension
         //    if (dim < hardMin) {
@@ -307,6 +826,16 @@ public final class CameraManager {
         requestedCameraId = cameraId;
     }
 
+    /**
+     * Allows frames to be played from a stand-in rather than taken from a camera, e.g. to run the
+     * pipeline without camera hardware. Takes effect the next time the driver is opened.
+     *
+     * @param source where frames come from, or null for the camera
+     */
+    public synchronized void setManualFrameSource(FakeFrameSource source) {
+        manualFrameSource = source;
+    }
+
     /**
      * Allows third party apps to specify the scanning rectangle dimensions, rather than determine
      * them automatically based on screen resolution.
@@ -328,6 +857,15 @@ public final class CameraManager {
             framingRect = new Rect(leftOffset, topOffset, leftOffset + width, topOffset + height);
             Log.d(TAG, "Calculated manual framing rect: " + framingRect);
             framingRectInPreview = null;
+            Rect rectInPreview = getFramingRectInPreview();
+            if (rectInPreview != null) {
+                if (areaManager != null) {
+                    areaManager.setFramingRect(rectInPreview);
+                }
+                if (zoomController != null) {
+                    zoomController.setFramingRect(rectInPreview);
+                }
+            }
         } else {
             requestedFramingRectWidth = width;
             requestedFramingRectHeight = height;
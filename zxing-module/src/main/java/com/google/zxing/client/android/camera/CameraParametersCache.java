@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Point;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Remembers the camera configuration negotiated on an earlier launch, so that the next one can
+ * apply it straight away instead of searching the supported preview sizes, focus modes and scene
+ * modes again. Configurations are stored per device model, camera and screen size, along with the
+ * build fingerprint and the settings they were negotiated with; an entry which doesn't match those
+ * any more is dropped.
+ */
+final class CameraParametersCache {
+
+    private static final String TAG = CameraParametersCache.class.getSimpleName();
+
+    private static final String PREFS_NAME = "camera_parameters";
+    /**
+     * Bumped whenever the negotiation changes, so that older entries are renegotiated.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * A configuration as negotiated with the camera.
+     */
+    static final class Entry {
+
+        final Point previewSize;
+        /**
+         * The focus and scene modes picked, or null to leave the camera's own.
+         */
+        final String focusMode;
+        final String sceneMode;
+        /**
+         * Whether the camera rejected the full configuration, so only the safe-mode one works.
+         */
+        final boolean safeMode;
+
+        Entry(Point previewSize, String focusMode, String sceneMode, boolean safeMode) {
+            this.previewSize = previewSize;
+            this.focusMode = focusMode;
+            this.sceneMode = sceneMode;
+            this.safeMode = safeMode;
+        }
+
+    }
+
+    private final SharedPreferences prefs;
+
+    CameraParametersCache(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @param cameraIndex      index of the camera
+     * @param screenResolution size of the screen in its current orientation
+     * @return the key of the configuration for that camera and screen on this device
+     */
+    static String buildKey(int cameraIndex, Point screenResolution) {
+        return Build.MODEL + '/' + cameraIndex + '/' + screenResolution.x + 'x' + screenResolution.y;
+    }
+
+    /**
+     * @param key       from {@link #buildKey(int, Point)}
+     * @param signature the settings which the configuration depends on
+     * @return the configuration stored for the key, or null if there is none, or it no longer
+     * applies
+     */
+    Entry get(String key, String signature) {
+        String stored = prefs.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(stored);
+            if (json.getInt("version") == VERSION &&
+                    Build.FINGERPRINT.equals(json.getString("fingerprint")) &&
+                    signature.equals(json.getString("signature"))) {
+                return new Entry(new Point(json.getInt("width"), json.getInt("height")),
+                        json.optString("focusMode", null), json.optString("sceneMode", null),
+                        json.getBoolean("safeMode"));
+            }
+            Log.i(TAG, "Cached camera parameters for " + key + " are out of date");
+        } catch (JSONException je) {
+            Log.w(TAG, "Bad cached camera parameters for " + key, je);
+        }
+        remove(key);
+        return null;
+    }
+
+    void put(String key, String signature, Entry entry) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("version", VERSION);
+            json.put("fingerprint", Build.FINGERPRINT);
+            json.put("signature", signature);
+            json.put("width", entry.previewSize.x);
+            json.put("height", entry.previewSize.y);
+            // Null values are left out, and read back as null
+            json.put("focusMode", entry.focusMode);
+            json.put("sceneMode", entry.sceneMode);
+            json.put("safeMode", entry.safeMode);
+            prefs.edit().putString(key, json.toString()).apply();
+        } catch (JSONException je) {
+            Log.w(TAG, "Can't cache camera parameters for " + key, je);
+        }
+    }
+
+    void remove(String key) {
+        prefs.edit().remove(key).apply();
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the framing rect exposed well enough to decode, from the luminance of the frames the
+ * decoder sees rather than a light sensor, which many devices lack. Too dark, the exposure
+ * compensation is raised, and once it is at its highest, the torch switched on; too bright, or
+ * with highlights clipped by glare, the exposure is lowered, or the torch switched off again.
+ * <p>
+ * The luminance is averaged over {@link #EVALUATE_INTERVAL_MS} and acted on at most once per
+ * interval, one step at a time, on the camera control thread. Both ends have a band in which
+ * nothing changes, and the torch must stay in a state for a while before it is switched again, so
+ * the loop doesn't oscillate. Every decision is counted in {@link ScanMetrics}.
+ */
+final class ExposureController {
+
+    private static final String TAG = ExposureController.class.getSimpleName();
+
+    private static final long EVALUATE_INTERVAL_MS = 500L;
+    /**
+     * Mean luminance below which the framing rect is too dark, and above which too bright.
+     */
+    private static final float DARK_LUMA = 70.0f;
+    private static final float BRIGHT_LUMA = 180.0f;
+    /**
+     * Mean luminance, at the highest exposure, below which the torch is needed, for
+     * {@link #TORCH_ON_EVALUATIONS} intervals in a row.
+     */
+    private static final float TORCH_ON_LUMA = 50.0f;
+    private static final int TORCH_ON_EVALUATIONS = 3;
+    /**
+     * Share of clipped pixels from which there is glare, for {@link #GLARE_EVALUATIONS} intervals
+     * in a row.
+     */
+    private static final float GLARE_FRACTION = 0.05f;
+    private static final int GLARE_EVALUATIONS = 2;
+    private static final long TORCH_MIN_DWELL_MS = 3000L;
+    /**
+     * How long the torch stays off after causing glare, however dark it gets.
+     */
+    private static final long TORCH_GLARE_BLOCK_MS = 10000L;
+
+    private final CameraManager cameraManager;
+    private final ScanMetrics metrics;
+    private final boolean controlExposure;
+    private final ScheduledExecutorService executor;
+    private final Runnable evaluateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            evaluate();
+        }
+    };
+    private boolean controlTorch;
+    private boolean stopped;
+    private ScheduledFuture<?> scheduledEvaluation;
+    private float lumaSum;
+    private float clippedSum;
+    private int frames;
+    private boolean torchOn;
+    private long lastTorchChange;
+    private long torchBlockedUntil;
+    private int darkEvaluations;
+    private int glareEvaluations;
+
+    /**
+     * @param executor        the camera control thread, which all parameter changes are made on
+     * @param controlExposure whether to adjust the exposure compensation
+     * @param controlTorch    whether to switch the torch
+     * @param torchOn         whether the torch is on now
+     */
+    ExposureController(CameraManager cameraManager, ScheduledExecutorService executor, ScanMetrics metrics,
+                       boolean controlExposure, boolean controlTorch, boolean torchOn) {
+        this.cameraManager = cameraManager;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.controlExposure = controlExposure;
+        this.controlTorch = controlTorch;
+        this.torchOn = torchOn;
+        lastTorchChange = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Called on the decode threads, for some of the frames.
+     *
+     * @param mean            mean luminance of the framing rect, from 0 to 255
+     * @param clippedFraction share of its pixels which are clipped white
+     */
+    synchronized void onLuma(float mean, float clippedFraction) {
+        if (stopped) {
+            return;
+        }
+        lumaSum += mean;
+        clippedSum += clippedFraction;
+        frames++;
+        if (scheduledEvaluation == null) {
+            try {
+                scheduledEvaluation = executor.schedule(evaluateRunnable, EVALUATE_INTERVAL_MS,
+                        TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ree) {
+                Log.w(TAG, "Could not evaluate exposure", ree);
+            }
+        }
+    }
+
+    /**
+     * The user switched the torch, which then is theirs to switch from now on.
+     */
+    synchronized void onManualTorch() {
+        controlTorch = false;
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (scheduledEvaluation != null) {
+            scheduledEvaluation.cancel(false);
+            scheduledEvaluation = null;
+        }
+    }
+
+    private void evaluate() {
+        float mean;
+        float clipped;
+        boolean glare;
+        boolean torchOffForGlare;
+        boolean torchOnIfNeeded;
+        synchronized (this) {
+            scheduledEvaluation = null;
+            if (stopped || frames == 0) {
+                return;
+            }
+            mean = lumaSum / frames;
+            clipped = clippedSum / frames;
+            lumaSum = 0.0f;
+            clippedSum = 0.0f;
+            frames = 0;
+            glare = clipped > GLARE_FRACTION;
+            glareEvaluations = glare ? glareEvaluations + 1 : 0;
+            darkEvaluations = mean < TORCH_ON_LUMA && !glare ? darkEvaluations + 1 : 0;
+            long now = SystemClock.uptimeMillis();
+            boolean torchMayChange = controlTorch && now - lastTorchChange >= TORCH_MIN_DWELL_MS;
+            // Most likely the torch reflecting off the label itself
+            torchOffForGlare = torchOn && torchMayChange && glareEvaluations >= GLARE_EVALUATIONS;
+            torchOnIfNeeded = !torchOn && torchMayChange && now >= torchBlockedUntil &&
+                    darkEvaluations >= TORCH_ON_EVALUATIONS;
+        }
+
+        if (torchOffForGlare) {
+            switchTorch(false, mean, clipped);
+        } else if (mean < DARK_LUMA && !glare) {
+            // The torch only once the exposure can't go up any more
+            if (controlExposure && cameraManager.adjustExposure(this, 1)) {
+                metrics.increment(ScanMetrics.Counter.EXPOSURE_RAISED);
+                log("Raised exposure", mean, clipped);
+            } else if (torchOnIfNeeded) {
+                switchTorch(true, mean, clipped);
+            }
+        } else if (mean > BRIGHT_LUMA || glare) {
+            if (controlExposure && cameraManager.adjustExposure(this, -1)) {
+                metrics.increment(ScanMetrics.Counter.EXPOSURE_LOWERED);
+                log("Lowered exposure", mean, clipped);
+            }
+        }
+    }
+
+    private void switchTorch(boolean on, float mean, float clipped) {
+        if (!cameraManager.applyTorch(this, on)) {
+            return;
+        }
+        synchronized (this) {
+            torchOn = on;
+            long now = SystemClock.uptimeMillis();
+            lastTorchChange = now;
+            if (!on) {
+                torchBlockedUntil = now + TORCH_GLARE_BLOCK_MS;
+            }
+            darkEvaluations = 0;
+            glareEvaluations = 0;
+        }
+        metrics.increment(on ? ScanMetrics.Counter.TORCH_SWITCHED_ON : ScanMetrics.Counter.TORCH_SWITCHED_OFF);
+        log(on ? "Switched torch on" : "Switched torch off for glare", mean, clipped);
+    }
+
+    private static void log(String decision, float mean, float clipped) {
+        Log.d(TAG, String.format(Locale.US, "%s, mean luma %.0f, %.1f%% clipped", decision, mean, clipped * 100.0f));
+    }
+
+}
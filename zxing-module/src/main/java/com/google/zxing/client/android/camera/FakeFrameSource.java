@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Point;
+import android.os.Handler;
+import android.os.Message;
+import android.view.SurfaceHolder;
+
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+/**
+ * A stand-in for the camera, which plays the same frames over and over at a fixed rate. Given to
+ * {@link CameraManager#setManualFrameSource(FakeFrameSource)}, it drives the whole pipeline, from
+ * the decode threads to the UI, with recorded or synthetic frames, on devices and emulators without
+ * a camera or on a JVM. Nothing is drawn on the preview surface.
+ */
+public final class FakeFrameSource implements FrameSource {
+
+    /**
+     * Takes the frames instead of a handler, on the thread which plays them, where there is no
+     * looper to send them to, as on a JVM.
+     */
+    public interface FrameReceiver {
+
+        /**
+         * @param data   the frame, to be given back with {@link FakeFrameSource#releaseFrame(byte[])}
+         * @param stride row stride of the luminance plane
+         * @param height number of rows of the luminance plane
+         */
+        void onFrame(byte[] data, int stride, int height);
+
+    }
+
+    private final int width;
+    private final int height;
+    private final long intervalMillis;
+    private final byte[][] frames;
+    private final FrameDispatcher dispatcher;
+    private FrameReceiver receiver;
+    private Thread playThread;
+    private boolean torch;
+    private int framesPlayed;
+
+    /**
+     * @param metrics         where arriving frames are counted, usually
+     *                        {@link CameraManager#getMetrics()}
+     * @param width           width of the frames
+     * @param height          height of the frames
+     * @param framesPerSecond how many frames are played every second
+     * @param frames          planar YUV frames, such as NV21, of which only the luminance plane of
+     *                        {@code width * height} bytes is used; played in turn
+     */
+    public FakeFrameSource(ScanMetrics metrics, int width, int height, int framesPerSecond, byte[]... frames) {
+        if (frames.length == 0) {
+            throw new IllegalArgumentException("No frames to play");
+        }
+        for (byte[] frame : frames) {
+            if (frame.length < width * height) {
+                throw new IllegalArgumentException("Frame smaller than " + width + 'x' + height);
+            }
+        }
+        this.width = width;
+        this.height = height;
+        this.intervalMillis = 1000L / Math.max(1, framesPerSecond);
+        this.frames = frames;
+        dispatcher = new FrameDispatcher(metrics);
+    }
+
+    public Point getFrameSize() {
+        return new Point(width, height);
+    }
+
+    /**
+     * @return how many frames were played since the source was created, whether anybody took them
+     * or not
+     */
+    public synchronized int getFramesPlayed() {
+        return framesPlayed;
+    }
+
+    @Override
+    public void setPreviewDisplay(SurfaceHolder holder) {
+        // Nothing to draw
+    }
+
+    @Override
+    public synchronized void startPreview() {
+        if (playThread != null) {
+            return;
+        }
+        playThread = new Thread("FakeFrameSource") {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        playFrame();
+                        Thread.sleep(intervalMillis);
+                    }
+                } catch (InterruptedException ie) {
+                    // Stopped
+                }
+            }
+        };
+        playThread.start();
+    }
+
+    /**
+     * Plays the next frame at once, on the calling thread, as the play thread does at the frame
+     * rate. A receiver has taken it by the time this returns.
+     */
+    public void playFrame() {
+        byte[] frame;
+        FrameReceiver theReceiver;
+        synchronized (this) {
+            frame = frames[framesPlayed % frames.length];
+            framesPlayed++;
+            theReceiver = receiver;
+        }
+        if (theReceiver != null) {
+            byte[] buffer = dispatcher.obtainFrameBuffer(width, height);
+            if (buffer != null) {
+                System.arraycopy(frame, 0, buffer, 0, width * height);
+                theReceiver.onFrame(buffer, width, height);
+            }
+            return;
+        }
+        Message message = dispatcher.obtainFrameMessage(width, height);
+        if (message != null) {
+            System.arraycopy(frame, 0, message.obj, 0, width * height);
+            message.sendToTarget();
+        }
+    }
+
+    /**
+     * Sends every frame to the receiver, until it is replaced, rather than to the handler; frames are
+     * dropped the same way while all buffers are taken.
+     *
+     * @param receiver where frames go, or null to send them to the handler again
+     */
+    public synchronized void setReceiver(FrameReceiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void stopPreview() {
+        Thread thePlayThread;
+        synchronized (this) {
+            thePlayThread = playThread;
+            playThread = null;
+        }
+        if (thePlayThread != null) {
+            thePlayThread.interrupt();
+            try {
+                thePlayThread.join();
+            } catch (InterruptedException ie) {
+                // continue
+            }
+        }
+        dispatcher.reset();
+    }
+
+    @Override
+    public void setHandler(Handler handler, int message, boolean continuous) {
+        dispatcher.setHandler(handler, message, continuous);
+    }
+
+    @Override
+    public boolean canStream() {
+        return true;
+    }
+
+    @Override
+    public void setBufferCount(int count) {
+        dispatcher.setBufferCount(count);
+    }
+
+    @Override
+    public void releaseFrame(byte[] data) {
+        dispatcher.releaseBuffer(data);
+    }
+
+    @Override
+    public synchronized boolean getTorchState() {
+        return torch;
+    }
+
+    @Override
+    public synchronized void setTorch(boolean on) {
+        torch = on;
+    }
+
+    @Override
+    public void release() {
+        stopPreview();
+    }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+/**
+ * What a decoded frame tells about the focus, fed back to the autofocus with
+ * {@link CameraManager#reportFocusFeedback(FocusFeedback)}.
+ */
+public enum FocusFeedback {
+
+    /**
+     * A barcode was decoded.
+     */
+    DECODED,
+    /**
+     * The frame was much blurrier than the recent ones.
+     */
+    BLURRED,
+    /**
+     * Finder patterns or guards were seen, but no barcode decoded, as when it is slightly out of
+     * focus.
+     */
+    PATTERNS_NOT_DECODED,
+    /**
+     * The frame was at least as sharp as the recent ones, though nothing was decoded.
+     */
+    SHARP
+
+}
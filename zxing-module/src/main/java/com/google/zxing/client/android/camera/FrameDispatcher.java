@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.os.Handler;
+import android.os.Message;
+
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+/**
+ * Hands frames of a {@link FrameSource} which copies them out of memory of its own to the
+ * registered handler, through a ring of buffers, sized by {@link #setBufferCount(int)}, which are given back with
+ * {@link #releaseBuffer(byte[])} once the decoder is done with them. A frame arriving while no
+ * handler wants one, or while every buffer is still being decoded, is dropped. Thread safe.
+ */
+final class FrameDispatcher {
+
+    /**
+     * For a single decode thread: one frame being decoded, one held back and one being filled.
+     */
+    static final int DEFAULT_BUFFER_COUNT = 3;
+
+    private final ScanMetrics metrics;
+    private byte[][] buffers = new byte[DEFAULT_BUFFER_COUNT][];
+    private boolean[] inUse = new boolean[DEFAULT_BUFFER_COUNT];
+    private Handler handler;
+    private int message;
+    private boolean continuous;
+    private long lastFrameNanos = -1L;
+
+    FrameDispatcher(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    synchronized void setHandler(Handler handler, int message, boolean continuous) {
+        this.handler = handler;
+        this.message = message;
+        this.continuous = continuous;
+    }
+
+    /**
+     * Resizes the ring. Buffers still being decoded are kept if they fit in it, and are simply
+     * forgotten otherwise.
+     */
+    synchronized void setBufferCount(int count) {
+        if (count == buffers.length) {
+            return;
+        }
+        byte[][] newBuffers = new byte[count][];
+        boolean[] newInUse = new boolean[count];
+        int kept = Math.min(count, buffers.length);
+        System.arraycopy(buffers, 0, newBuffers, 0, kept);
+        System.arraycopy(inUse, 0, newInUse, 0, kept);
+        buffers = newBuffers;
+        inUse = newInUse;
+    }
+
+    /**
+     * Forgets the handler; the next frame starts a new interval.
+     */
+    synchronized void reset() {
+        handler = null;
+        lastFrameNanos = -1L;
+    }
+
+    /**
+     * Counts a frame arriving, and finds it a buffer if anybody wants it.
+     *
+     * @param stride row stride the frame is copied with
+     * @param height number of rows of the frame
+     * @return the message to fill {@code obj} of, a buffer of at least {@code stride * height}
+     * bytes, and send; or null to drop the frame
+     */
+    synchronized Message obtainFrameMessage(int stride, int height) {
+        countFrame();
+        if (handler == null) {
+            return null;
+        }
+        byte[] buffer = acquireBuffer(stride * height);
+        if (buffer == null) {
+            return null;
+        }
+        Message frameMessage = handler.obtainMessage(message, stride, height, buffer);
+        if (!continuous) {
+            handler = null;
+        }
+        return frameMessage;
+    }
+
+    /**
+     * Like {@link #obtainFrameMessage}, for a source which delivers its frames other than through
+     * the handler.
+     *
+     * @return the buffer of at least {@code stride * height} bytes to fill, or null to drop the
+     * frame
+     */
+    synchronized byte[] obtainFrameBuffer(int stride, int height) {
+        countFrame();
+        return acquireBuffer(stride * height);
+    }
+
+    private void countFrame() {
+        long now = System.nanoTime();
+        metrics.increment(ScanMetrics.Counter.FRAMES_ARRIVED);
+        if (lastFrameNanos >= 0L) {
+            metrics.record(ScanMetrics.Timer.FRAME_INTERVAL, now - lastFrameNanos);
+        }
+        lastFrameNanos = now;
+    }
+
+    private byte[] acquireBuffer(int size) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (!inUse[i]) {
+                if (buffers[i] == null || buffers[i].length != size) {
+                    // The first frame, or one of another size; buffers in use are replaced once back
+                    buffers[i] = new byte[size];
+                }
+                inUse[i] = true;
+                return buffers[i];
+            }
+        }
+        return null;
+    }
+
+    synchronized void releaseBuffer(byte[] data) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == data && data != null) {
+                inUse[i] = false;
+                return;
+            }
+        }
+    }
+
+}
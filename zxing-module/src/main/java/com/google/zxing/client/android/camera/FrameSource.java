@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+
+/**
+ * Where the preview frames which are decoded come from, once opened: a camera, through whichever
+ * API drives it, or a stand-in for one. Frames are planar YUV with the luminance plane first, sent
+ * to a handler with the frame in {@code message.obj}, the row stride of the luminance plane in
+ * {@code message.arg1} and its height in {@code message.arg2}. The stride may be wider than the
+ * preview, with padding at the end of every row which the framing rect never reaches.
+ * <p>
+ * {@link CameraManager} drives its source from one thread at a time; frames are delivered, and come
+ * back through {@link #releaseFrame(byte[])}, on any thread.
+ */
+public interface FrameSource {
+
+    /**
+     * @param holder The surface object which the preview is drawn into.
+     * @throws IOException Indicates the surface couldn't be attached.
+     */
+    void setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+    void startPreview();
+
+    /**
+     * Stops the preview, and forgets the handler.
+     */
+    void stopPreview();
+
+    /**
+     * @param handler    The handler to send frames to, or null to send none.
+     * @param message    The what field of the messages to be sent.
+     * @param continuous if {@code true}, every frame is sent until the handler is replaced, which
+     *                   only works if {@link #canStream()}; otherwise only the next one
+     */
+    void setHandler(Handler handler, int message, boolean continuous);
+
+    /**
+     * @return whether frames can be sent continuously, rather than requested one by one
+     */
+    boolean canStream();
+
+    /**
+     * @param count how many frames may be out at once: being decoded, held back for a decoder or
+     *              being filled. Applies from the next {@link #startPreview()}.
+     */
+    void setBufferCount(int count);
+
+    /**
+     * Gives a frame back once it has been decoded, so that it can be filled again. Frames which
+     * didn't come from this source are ignored.
+     *
+     * @param data A frame previously sent to the handler.
+     */
+    void releaseFrame(byte[] data);
+
+    boolean getTorchState();
+
+    void setTorch(boolean on);
+
+    /**
+     * Closes the camera behind the source, which can't be used any more afterwards.
+     */
+    void release();
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.view.SurfaceHolder;
+
+import com.google.zxing.client.android.camera.open.OpenCamera;
+
+import java.io.IOException;
+
+/**
+ * Frames from a camera opened through the legacy {@link Camera} API, as NV21 preview frames, either
+ * from a ring of preview buffers or from one-shot callbacks.
+ */
+final class LegacyFrameSource implements FrameSource {
+
+    private final OpenCamera camera;
+    private final CameraConfigurationManager configManager;
+    private final PreviewCallback previewCallback;
+    private final boolean buffered;
+    private int bufferCount = PreviewCallback.DEFAULT_BUFFER_COUNT;
+
+    /**
+     * @param previewCallback kept across cameras, so that its buffers are reused
+     * @param buffered        whether frames go through preview buffers, rather than one-shot callbacks
+     */
+    LegacyFrameSource(OpenCamera camera,
+                      CameraConfigurationManager configManager,
+                      PreviewCallback previewCallback,
+                      boolean buffered) {
+        this.camera = camera;
+        this.configManager = configManager;
+        this.previewCallback = previewCallback;
+        this.buffered = buffered;
+    }
+
+    OpenCamera getCamera() {
+        return camera;
+    }
+
+    @Override
+    public void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        camera.getCamera().setPreviewDisplay(holder);
+    }
+
+    @Override
+    public void startPreview() {
+        if (buffered) {
+            previewCallback.startBuffering(camera.getCamera(), bufferCount);
+        }
+        camera.getCamera().startPreview();
+    }
+
+    @Override
+    public void stopPreview() {
+        camera.getCamera().stopPreview();
+        previewCallback.stopBuffering();
+        previewCallback.setHandler(null, 0);
+    }
+
+    @Override
+    public void setHandler(Handler handler, int message, boolean continuous) {
+        previewCallback.setHandler(handler, message, continuous);
+        if (handler != null && !previewCallback.isBuffering()) {
+            // Buffered callbacks stay armed; one-shot callbacks have to be re-armed every time
+            camera.getCamera().setOneShotPreviewCallback(previewCallback);
+        }
+    }
+
+    @Override
+    public boolean canStream() {
+        return previewCallback.isBuffering();
+    }
+
+    @Override
+    public void setBufferCount(int count) {
+        bufferCount = count;
+    }
+
+    @Override
+    public void releaseFrame(byte[] data) {
+        previewCallback.releaseBuffer(data);
+    }
+
+    @Override
+    public boolean getTorchState() {
+        return configManager.getTorchState(camera.getCamera());
+    }
+
+    @Override
+    public void setTorch(boolean on) {
+        configManager.setTorch(camera.getCamera(), on);
+    }
+
+    @Override
+    public void release() {
+        camera.getCamera().release();
+    }
+
+}
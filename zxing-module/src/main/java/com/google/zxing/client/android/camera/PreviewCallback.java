@@ -16,40 +16,148 @@
 
 package com.google.zxing.client.android.camera;
 
+import android.graphics.ImageFormat;
 import android.graphics.Point;
 import android.hardware.Camera;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
 
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+/**
+ * Hands preview frames to the registered handler. Frames can either come from one-shot callbacks,
+ * which the camera allocates a new buffer for every time, or from a fixed ring of buffers which are
+ * handed back to the camera with {@link #releaseBuffer(byte[])} once the decoder is done with them.
+ */
 final class PreviewCallback implements Camera.PreviewCallback {
 
     private static final String TAG = PreviewCallback.class.getSimpleName();
 
+    /**
+     * For a single decode thread: one frame being decoded, one held back and one being filled by the
+     * camera.
+     */
+    static final int DEFAULT_BUFFER_COUNT = 3;
+
     private final CameraConfigurationManager configManager;
+    private final ScanMetrics metrics;
     private Handler previewHandler;
     private int previewMessage;
+    private boolean continuous;
+    private Camera bufferedCamera;
+    private byte[][] previewBuffers;
+    private long lastFrameNanos = -1L;
 
-    PreviewCallback(CameraConfigurationManager configManager) {
+    PreviewCallback(CameraConfigurationManager configManager, ScanMetrics metrics) {
         this.configManager = configManager;
+        this.metrics = metrics;
     }
 
+    /**
+     * Sends the next frame, and only that one, to the given handler.
+     */
     void setHandler(Handler previewHandler, int previewMessage) {
-        this.previewHandler = previewHandler;
+        setHandler(previewHandler, previewMessage, false);
+    }
+
+    /**
+     * @param continuous if {@code true}, every frame is sent until the handler is replaced; only
+     *                   makes sense while {@link #isBuffering() buffering}
+     */
+    void setHandler(Handler previewHandler, int previewMessage, boolean continuous) {
         this.previewMessage = previewMessage;
+        this.continuous = continuous;
+        this.previewHandler = previewHandler;
+    }
+
+    /**
+     * Allocates the buffer ring, if needed, and switches the camera to buffered callbacks. Must be
+     * called before the preview starts.
+     *
+     * @param bufferCount how many buffers the ring has
+     */
+    synchronized void startBuffering(Camera camera, int bufferCount) {
+        Point cameraResolution = configManager.getCameraResolution();
+        Camera.Parameters parameters = camera.getParameters();
+        int bitsPerPixel = ImageFormat.getBitsPerPixel(parameters.getPreviewFormat());
+        if (cameraResolution == null || bitsPerPixel <= 0) {
+            Log.w(TAG, "Can't size preview buffers; falling back to one-shot callbacks");
+            return;
+        }
+        int bufferSize = cameraResolution.x * cameraResolution.y * bitsPerPixel / 8;
+        if (previewBuffers == null || previewBuffers.length != bufferCount ||
+                previewBuffers[0].length != bufferSize) {
+            previewBuffers = new byte[bufferCount][bufferSize];
+        }
+        for (byte[] buffer : previewBuffers) {
+            camera.addCallbackBuffer(buffer);
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+        bufferedCamera = camera;
+    }
+
+    /**
+     * Detaches from the camera. The buffers are kept for the next preview of the same size.
+     */
+    synchronized void stopBuffering() {
+        // The next preview starts a new interval
+        lastFrameNanos = -1L;
+        if (bufferedCamera != null) {
+            // Also drops the buffers the camera still holds
+            bufferedCamera.setPreviewCallbackWithBuffer(null);
+            bufferedCamera = null;
+        }
+    }
+
+    synchronized boolean isBuffering() {
+        return bufferedCamera != null;
+    }
+
+    /**
+     * Returns a frame delivered by this callback to the buffer ring, so that the camera can fill it
+     * again. Frames from one-shot callbacks are simply ignored.
+     *
+     * @param data A preview frame previously sent to the handler.
+     */
+    synchronized void releaseBuffer(byte[] data) {
+        if (bufferedCamera != null && data != null && isPreviewBuffer(data)) {
+            bufferedCamera.addCallbackBuffer(data);
+        }
+    }
+
+    private boolean isPreviewBuffer(byte[] data) {
+        for (byte[] buffer : previewBuffers) {
+            if (buffer == data) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
+        long now = System.nanoTime();
+        metrics.increment(ScanMetrics.Counter.FRAMES_ARRIVED);
+        if (lastFrameNanos >= 0L) {
+            metrics.record(ScanMetrics.Timer.FRAME_INTERVAL, now - lastFrameNanos);
+        }
+        lastFrameNanos = now;
         Point cameraResolution = configManager.getCameraResolution();
         Handler thePreviewHandler = previewHandler;
         if (cameraResolution != null && thePreviewHandler != null) {
             Message message = thePreviewHandler.obtainMessage(previewMessage, cameraResolution.x,
                     cameraResolution.y, data);
             message.sendToTarget();
-            previewHandler = null;
+            if (!continuous) {
+                previewHandler = null;
+            }
         } else {
-            Log.d(TAG, "Got preview callback, but no handler or resolution available");
+            if (!isBuffering()) {
+                Log.d(TAG, "Got preview callback, but no handler or resolution available");
+            }
+            // Nobody wants this frame, let the camera fill it again
+            releaseBuffer(data);
         }
     }
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures how long this device takes to decode a framing rect of a given size, so that the preview
+ * size can be chosen for what the device can keep up with. The frame is synthetic: random modules
+ * which look enough like a barcode to keep the detectors busy, but never decode, much like most
+ * real frames.
+ */
+final class PreviewSizeBenchmark {
+
+    private static final int MODULE_PIXELS = 4;
+    /**
+     * Decodes timed, after one to warm up; the median is reported.
+     */
+    private static final int RUNS = 3;
+
+    private PreviewSizeBenchmark() {
+    }
+
+    /**
+     * Takes a few decodes' worth of time, so must not be called on the UI thread.
+     *
+     * @param framingPixels side of the framing rect in the preview, in pixels
+     * @return how long decoding a miss takes, in nanoseconds
+     */
+    static long measureDecodeNanos(int framingPixels) {
+        byte[] luminance = buildFrame(framingPixels);
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(
+                luminance, framingPixels, framingPixels, 0, 0, framingPixels, framingPixels, false);
+        MultiFormatReader reader = new MultiFormatReader();
+        reader.setHints(null);
+        long[] nanos = new long[RUNS];
+        for (int i = -1; i < RUNS; i++) {
+            long start = System.nanoTime();
+            try {
+                reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+            } catch (ReaderException re) {
+                // continue
+            } finally {
+                reader.reset();
+            }
+            if (i >= 0) {
+                nanos[i] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(nanos);
+        return nanos[RUNS / 2];
+    }
+
+    private static byte[] buildFrame(int side) {
+        // Seeded, so every run of every device times the same frame
+        Random random = new Random(side);
+        int modules = (side + MODULE_PIXELS - 1) / MODULE_PIXELS;
+        boolean[] dark = new boolean[modules * modules];
+        for (int i = 0; i < dark.length; i++) {
+            dark[i] = random.nextBoolean();
+        }
+        byte[] luminance = new byte[side * side];
+        for (int y = 0; y < side; y++) {
+            int rowOffset = (y / MODULE_PIXELS) * modules;
+            for (int x = 0; x < side; x++) {
+                int value = dark[rowOffset + x / MODULE_PIXELS] ? 40 : 200;
+                // Some sensor noise
+                luminance[y * side + x] = (byte) (value + random.nextInt(32) - 16);
+            }
+        }
+        return luminance;
+    }
+
+}
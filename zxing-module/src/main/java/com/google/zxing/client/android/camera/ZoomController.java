@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Zooms in on a QR code too far away to decode, as told by the module size the decoder estimates
+ * from its finder patterns, so that each module gets enough pixels; and back out once it decodes,
+ * or after {@link #ZOOM_TIMEOUT_MS} without. The zoom is limited so that the code stays within the
+ * framing rect, given that the camera zooms in on the middle of the frame.
+ * <p>
+ * Zoom changes are applied on the camera control thread, at most once per
+ * {@link #MIN_ZOOM_INTERVAL_MS}. How often zooming in led to a decode, and how long it took, is
+ * recorded in {@link ScanMetrics}.
+ */
+final class ZoomController {
+
+    private static final String TAG = ZoomController.class.getSimpleName();
+
+    /**
+     * Pixels per module below which a code is zoomed in on, and the number aimed at.
+     */
+    private static final float MIN_MODULE_PIXELS = 3.0f;
+    private static final float TARGET_MODULE_PIXELS = 4.5f;
+    private static final double MAX_ZOOM_RATIO = 3.0;
+    /**
+     * Zooming in by less than this isn't worth losing the frames over.
+     */
+    private static final double MIN_ZOOM_STEP = 1.25;
+    /**
+     * Share of the framing rect the code may take up at most once zoomed in on.
+     */
+    private static final float MAX_CODE_FILL = 0.8f;
+    private static final long MIN_ZOOM_INTERVAL_MS = 1000L;
+    private static final long ZOOM_TIMEOUT_MS = 4000L;
+
+    private final Camera camera;
+    private final ScanMetrics metrics;
+    private final int centerX;
+    private final int centerY;
+    private final ScheduledExecutorService executor;
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onTimeout();
+        }
+    };
+    private final Runnable resetRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (appliedRatio != 1.0) {
+                // Not left zoomed in for the next scan
+                applyZoom(1.0);
+            }
+        }
+    };
+    private Rect framingRect;
+    private boolean stopped;
+    /**
+     * Ratio zoomed to as soon as it is decided on, so ahead of the camera.
+     */
+    private double zoomRatio = 1.0;
+    /**
+     * Ratio the camera was last set to; only used on the camera control thread.
+     */
+    private double appliedRatio = 1.0;
+    private ScheduledFuture<?> scheduledTimeout;
+    private long lastZoomChange;
+    private long zoomedInNanos;
+
+    /**
+     * @param executor             the camera control thread, which all parameter changes are made on
+     * @param cameraResolution     size of the preview frames, as delivered by the camera
+     * @param rotated              whether the frames are rotated 90 degrees clockwise into portrait
+     *                             before being decoded
+     * @param framingRectInPreview the framing rect, in the coordinates of the frames as decoded
+     */
+    ZoomController(Camera camera, ScheduledExecutorService executor, ScanMetrics metrics,
+                   Point cameraResolution, boolean rotated, Rect framingRectInPreview) {
+        this.camera = camera;
+        this.executor = executor;
+        this.metrics = metrics;
+        centerX = (rotated ? cameraResolution.y : cameraResolution.x) / 2;
+        centerY = (rotated ? cameraResolution.x : cameraResolution.y) / 2;
+        framingRect = framingRectInPreview;
+    }
+
+    synchronized void setFramingRect(Rect framingRectInPreview) {
+        framingRect = framingRectInPreview;
+    }
+
+    /**
+     * Called on the decode threads, when a frame showed finder patterns without decoding.
+     *
+     * @param codeInPreview bounds of the finder patterns, in the coordinates of the frames as decoded
+     * @param modulePixels  estimated size of a module, in pixels of the frame
+     */
+    synchronized void onCodeSize(Rect codeInPreview, float modulePixels) {
+        if (stopped || modulePixels <= 0.0f || modulePixels >= MIN_MODULE_PIXELS ||
+                SystemClock.uptimeMillis() - lastZoomChange < MIN_ZOOM_INTERVAL_MS) {
+            return;
+        }
+        double step = Math.min(TARGET_MODULE_PIXELS / modulePixels, MAX_ZOOM_RATIO / zoomRatio);
+        // Zooming moves everything away from the middle; keep the code inside the framing rect
+        step = Math.min(step, maxStep(codeInPreview.left, framingRect.left, centerX));
+        step = Math.min(step, maxStep(codeInPreview.right, framingRect.right, centerX));
+        step = Math.min(step, maxStep(codeInPreview.top, framingRect.top, centerY));
+        step = Math.min(step, maxStep(codeInPreview.bottom, framingRect.bottom, centerY));
+        step = Math.min(step, MAX_CODE_FILL * Math.min(framingRect.width(), framingRect.height()) /
+                Math.max(1, Math.max(codeInPreview.width(), codeInPreview.height())));
+        if (step < MIN_ZOOM_STEP) {
+            return;
+        }
+        final double target = zoomRatio * step;
+        lastZoomChange = SystemClock.uptimeMillis();
+        if (zoomRatio == 1.0) {
+            zoomedInNanos = System.nanoTime();
+        }
+        // Meanwhile, as if applied, so that frames still in flight don't zoom in twice
+        zoomRatio = target;
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                applyZoom(target);
+            }
+        });
+        metrics.increment(ScanMetrics.Counter.ZOOMED_IN);
+        if (scheduledTimeout != null) {
+            scheduledTimeout.cancel(false);
+        }
+        try {
+            scheduledTimeout = executor.schedule(timeoutRunnable, ZOOM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ree) {
+            // Stopped meanwhile
+        }
+    }
+
+    /**
+     * Called on the decode threads, when a barcode was decoded.
+     */
+    synchronized void onDecoded() {
+        if (stopped || zoomRatio == 1.0) {
+            return;
+        }
+        metrics.increment(ScanMetrics.Counter.ZOOMED_DECODES);
+        metrics.record(ScanMetrics.Timer.ZOOM_TO_DECODE, System.nanoTime() - zoomedInNanos);
+        zoomOut();
+    }
+
+    /**
+     * Zooms back out once the zoom changes still queued are applied, so that none of them is
+     * applied after, which would leave the camera zoomed in. The executor is shut down by its
+     * owner, after this.
+     */
+    synchronized void stop() {
+        stopped = true;
+        if (scheduledTimeout != null) {
+            scheduledTimeout.cancel(false);
+            scheduledTimeout = null;
+        }
+        execute(resetRunnable);
+        zoomRatio = 1.0;
+    }
+
+    private synchronized void onTimeout() {
+        if (stopped || zoomRatio == 1.0 ||
+                SystemClock.uptimeMillis() - lastZoomChange < ZOOM_TIMEOUT_MS) {
+            return;
+        }
+        metrics.increment(ScanMetrics.Counter.ZOOM_TIMEOUTS);
+        zoomOut();
+    }
+
+    private void zoomOut() {
+        zoomRatio = 1.0;
+        lastZoomChange = SystemClock.uptimeMillis();
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                applyZoom(1.0);
+            }
+        });
+    }
+
+    private void execute(Runnable runnable) {
+        try {
+            executor.execute(runnable);
+        } catch (RejectedExecutionException ree) {
+            Log.w(TAG, "Could not zoom", ree);
+        }
+    }
+
+    private void applyZoom(double ratio) {
+        try {
+            Camera.Parameters parameters = camera.getParameters();
+            CameraConfigurationUtils.setZoom(parameters, ratio);
+            camera.setParameters(parameters);
+            List<Integer> ratios = parameters.getZoomRatios();
+            if (ratios != null && parameters.getZoom() < ratios.size()) {
+                Log.d(TAG, "Zoomed to " + ratios.get(parameters.getZoom()) / 100.0 + " for " + ratio);
+            }
+            appliedRatio = ratio;
+        } catch (RuntimeException re) {
+            // Released meanwhile, or the driver doesn't like it; leave it
+            Log.w(TAG, "Could not zoom", re);
+        }
+    }
+
+    /**
+     * @return largest factor by which the distance of {@code codeEdge} from the middle may grow
+     * before it crosses {@code rectEdge}
+     */
+    private static double maxStep(int codeEdge, int rectEdge, int center) {
+        int codeDistance = Math.abs(codeEdge - center);
+        int rectDistance = Math.abs(rectEdge - center);
+        if (codeDistance == 0 || (codeEdge - center) * (rectEdge - center) < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return rectDistance / (double) codeDistance;
+    }
+
+}
@@ -33,14 +33,26 @@ public final class PreferencesActivity extends Activity {
     public static final String KEY_DECODE_DATA_MATRIX = "preferences_decode_Data_Matrix";
     public static final String KEY_DECODE_AZTEC = "preferences_decode_Aztec";
     public static final String KEY_DECODE_PDF417 = "preferences_decode_PDF417";
+    public static final String KEY_DECODE_THREADS = "preferences_decode_threads";
+    public static final String KEY_INTERLEAVE_FORMATS = "preferences_interleave_formats";
+    public static final String KEY_TRACK_REGION = "preferences_track_region";
+    public static final String KEY_DECODE_PYRAMID = "preferences_decode_pyramid";
+    public static final String KEY_DECODE_PREVIEW_SIZE = "preferences_decode_preview_size";
+    public static final String KEY_SKIP_BLURRED_FRAMES = "preferences_skip_blurred_frames";
+    public static final String KEY_AUTO_ZOOM = "preferences_auto_zoom";
+    public static final String KEY_CAMERA2 = "preferences_camera2";
+    public static final String KEY_CAPTURE_RATE = "preferences_capture_rate";
 
+    public static final String KEY_RESULT_THUMBNAIL = "preferences_result_thumbnail";
     public static final String KEY_CUSTOM_PRODUCT_SEARCH = "preferences_custom_product_search";
 
     public static final String KEY_PLAY_BEEP = "preferences_play_beep";
     public static final String KEY_VIBRATE = "preferences_vibrate";
     public static final String KEY_COPY_TO_CLIPBOARD = "preferences_copy_to_clipboard";
     public static final String KEY_FRONT_LIGHT_MODE = "preferences_front_light_mode";
+    public static final String KEY_ADAPTIVE_EXPOSURE = "preferences_adaptive_exposure";
     public static final String KEY_BULK_MODE = "preferences_bulk_mode";
+    public static final String KEY_MULTI_CODE = "preferences_multi_code";
     public static final String KEY_REMEMBER_DUPLICATES = "preferences_remember_duplicates";
     public static final String KEY_ENABLE_HISTORY = "preferences_history";
     public static final String KEY_SUPPLEMENTAL = "preferences_supplemental";
@@ -53,6 +65,7 @@ public final class PreferencesActivity extends Activity {
     public static final String KEY_DISABLE_EXPOSURE = "preferences_disable_exposure";
     public static final String KEY_DISABLE_METERING = "preferences_disable_metering";
     public static final String KEY_DISABLE_BARCODE_SCENE_MODE = "preferences_disable_barcode_scene_mode";
+    public static final String KEY_DISABLE_PREVIEW_BUFFERS = "preferences_disable_preview_buffers";
     public static final String KEY_AUTO_OPEN_WEB = "preferences_auto_open_web";
 
     @Override
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decodes with one {@link MultiFormatReader} per family of formats (1D, QR Code, Data Matrix, ...)
+ * instead of a single reader for all of them, and tries the families in order of how likely they
+ * are to succeed on the next frame: the one that found barcodes recently and cheaply goes first.
+ * When a production line only ever shows one kind of barcode, failing frames then stop paying for
+ * every other reader as soon as that reader is tried first.
+ * <p>
+ * Optionally the families can be interleaved across frames, so that 2D readers only run on even
+ * frames and 1D readers on odd ones, except for the family that has been succeeding lately.
+ * <p>
+ * Not thread safe; each decode thread owns its own instance.
+ */
+final class AdaptiveFormatReader {
+
+    /**
+     * Weight of the newest attempt in the running success rate and cost of a family.
+     */
+    private static final float SMOOTHING = 0.2f;
+    /**
+     * Success rate above which a family counts as "seen lately" and is tried on every frame.
+     */
+    private static final float RECENT_HIT_RATE = 0.05f;
+    /**
+     * The product and industrial formats of {@link DecodeFormatManager}, spelled out so that the
+     * decoding hot path compiles without Android classes.
+     */
+    static final Set<BarcodeFormat> ONE_D_FORMATS = EnumSet.of(BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E,
+            BarcodeFormat.EAN_13,
+            BarcodeFormat.EAN_8,
+            BarcodeFormat.RSS_14,
+            BarcodeFormat.RSS_EXPANDED,
+            BarcodeFormat.CODE_39,
+            BarcodeFormat.CODE_93,
+            BarcodeFormat.CODE_128,
+            BarcodeFormat.ITF,
+            BarcodeFormat.CODABAR);
+
+    private final FormatFamily[] order;
+    private final boolean interleave;
+    /**
+     * Whether the 2D families have their turn on the current frame.
+     */
+    private boolean twoDFrame;
+
+    AdaptiveFormatReader(Map<DecodeHintType, ?> hints, boolean interleave) {
+        this.interleave = interleave;
+        Collection<?> possibleFormats = (Collection<?>) hints.get(DecodeHintType.POSSIBLE_FORMATS);
+        List<FormatFamily> families = new ArrayList<>(6);
+        // Same order as MultiFormatReader uses, so ties are broken as before
+        addFamily(families, hints, possibleFormats, ONE_D_FORMATS, true);
+        addFamily(families, hints, possibleFormats, EnumSet.of(BarcodeFormat.QR_CODE), false);
+        addFamily(families, hints, possibleFormats, EnumSet.of(BarcodeFormat.DATA_MATRIX), false);
+        addFamily(families, hints, possibleFormats, EnumSet.of(BarcodeFormat.AZTEC), false);
+        addFamily(families, hints, possibleFormats, EnumSet.of(BarcodeFormat.PDF_417), false);
+        addFamily(families, hints, possibleFormats, EnumSet.of(BarcodeFormat.MAXICODE), false);
+        if (families.isEmpty()) {
+            // Nothing we know how to split up; MultiFormatReader will fall back to all readers
+            families.add(new FormatFamily(hints, false, 0));
+        }
+        order = families.toArray(new FormatFamily[families.size()]);
+    }
+
+    private static void addFamily(List<FormatFamily> families,
+                                  Map<DecodeHintType, ?> hints,
+                                  Collection<?> possibleFormats,
+                                  Set<BarcodeFormat> familyFormats,
+                                  boolean oneD) {
+        Collection<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        for (BarcodeFormat format : familyFormats) {
+            if (possibleFormats == null || possibleFormats.contains(format)) {
+                formats.add(format);
+            }
+        }
+        if (!formats.isEmpty()) {
+            Map<DecodeHintType, Object> familyHints = new EnumMap<>(DecodeHintType.class);
+            familyHints.putAll(hints);
+            familyHints.put(DecodeHintType.POSSIBLE_FORMATS, formats);
+            families.add(new FormatFamily(familyHints, oneD, families.size()));
+        }
+    }
+
+    /**
+     * Starts the next frame. A frame may be decoded several times, at different scales, and the
+     * families take their turns by frame rather than by image decoded.
+     */
+    void beginFrame() {
+        twoDFrame = !twoDFrame;
+    }
+
+    /**
+     * Tries the format families in order of likelihood until one of them finds a barcode.
+     *
+     * @param image The binarized frame.
+     * @return the barcode found
+     * @throws NotFoundException if no family found a barcode in the frame
+     */
+    Result decode(BinaryBitmap image) throws NotFoundException {
+        sortByLikelihood();
+        for (FormatFamily family : order) {
+            if (interleave && family.oneD == twoDFrame && family.hitRate < RECENT_HIT_RATE) {
+                // Not this family's turn, and it hasn't been seen lately
+                continue;
+            }
+            long start = System.nanoTime();
+            Result result = null;
+            try {
+                result = family.reader.decodeWithState(image);
+            } catch (ReaderException re) {
+                // continue
+            } finally {
+                family.reader.reset();
+            }
+            family.update(result != null, System.nanoTime() - start);
+            if (result != null) {
+                return result;
+            }
+        }
+        throw NotFoundException.getNotFoundInstance();
+    }
+
+    /**
+     * Insertion sort of the few families: by success per nanosecond, then by their original order.
+     */
+    private void sortByLikelihood() {
+        for (int i = 1; i < order.length; i++) {
+            FormatFamily family = order[i];
+            int j = i - 1;
+            while (j >= 0 && family.isLikelierThan(order[j])) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = family;
+        }
+    }
+
+    private static final class FormatFamily {
+
+        private final MultiFormatReader reader;
+        private final boolean oneD;
+        private final int index;
+        private float hitRate;
+        private float meanCostNanos;
+
+        FormatFamily(Map<DecodeHintType, ?> hints, boolean oneD, int index) {
+            reader = new MultiFormatReader();
+            reader.setHints(hints);
+            this.oneD = oneD;
+            this.index = index;
+        }
+
+        void update(boolean found, long costNanos) {
+            hitRate += SMOOTHING * ((found ? 1.0f : 0.0f) - hitRate);
+            if (meanCostNanos == 0.0f) {
+                meanCostNanos = costNanos;
+            } else {
+                meanCostNanos += SMOOTHING * (costNanos - meanCostNanos);
+            }
+        }
+
+        boolean isLikelierThan(FormatFamily other) {
+            float score = meanCostNanos > 0.0f ? hitRate / meanCostNanos : 0.0f;
+            float otherScore = other.meanCostNanos > 0.0f ? other.hitRate / other.meanCostNanos : 0.0f;
+            if (score != otherScore) {
+                return score > otherScore;
+            }
+            return index < other.index;
+        }
+
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.client.android.R;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a barcode from an image file picked from the album. Runs on the decode thread which
+ * {@link DecodePool#decodeAlbum(String)} hands the request to, and reports back to the activity's
+ * handler with {@code decode_album_progress}, {@code decode_album_succeeded} or
+ * {@code decode_album_failed}, each carrying the request id in {@code arg1}.
+ * <p>
+ * The image is first decoded heavily shrunk, which is cheap and finds large barcodes. Failing that,
+ * it is decoded at twice the resolution each time, for as long as the whole image stays within a
+ * memory budget. Beyond that, the full resolution image is decoded tile by tile, starting with the
+ * tiles where the earlier passes saw parts of a barcode, so small barcodes in large photos survive.
+ * <p>
+ * A request can be cancelled at any time; the work in progress stops at the next pass or tile.
+ */
+final class AlbumDecoder implements BatchDecoder.ImageDecoder {
+
+    private static final String TAG = AlbumDecoder.class.getSimpleName();
+
+    /**
+     * The first pass shrinks the image to about this long a side.
+     */
+    private static final int COARSE_LONG_SIDE = 1024;
+    /**
+     * Largest image decoded whole, in pixels; it takes about as many bytes of luminance.
+     */
+    static final int MAX_WHOLE_PIXELS = 4 * 1024 * 1024;
+    /**
+     * Full resolution tiles are this large, and overlap by this much, so that any barcode no larger
+     * than the overlap lies entirely within one tile.
+     */
+    static final int TILE_SIZE = 1024;
+    static final int TILE_OVERLAP = 256;
+
+    private final DecodePool pool;
+    private final MultiFormatReader multiFormatReader;
+    private final CandidateCollector candidates = new CandidateCollector();
+
+    /**
+     * @param pool the pool whose album requests are decoded, or null to decode on the calling
+     *             thread without ever being cancelled
+     */
+    AlbumDecoder(DecodePool pool) {
+        //解析转换类型UTF-8
+        this(pool, Collections.singletonMap(DecodeHintType.CHARACTER_SET, "utf-8"));
+    }
+
+    /**
+     * @param pool  the pool whose album requests are decoded, or null to decode on the calling
+     *              thread without ever being cancelled
+     * @param hints hints for the reader
+     */
+    AlbumDecoder(DecodePool pool, Map<DecodeHintType, ?> hints) {
+        this.pool = pool;
+        Map<DecodeHintType, Object> readerHints = new EnumMap<>(DecodeHintType.class);
+        readerHints.putAll(hints);
+        readerHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, candidates);
+        multiFormatReader = new MultiFormatReader();
+        multiFormatReader.setHints(readerHints);
+    }
+
+    /**
+     * Decodes an image of a batch, see {@link DecodePool#newBatchDecoder}.
+     */
+    @Override
+    public Result decode(String path) {
+        return decode(0, path, null);
+    }
+
+    /**
+     * @param request   id of the request, from {@link DecodePool#decodeAlbum(String)}
+     * @param albumPath path of the image file
+     * @param handler   handler to report progress and the result to, or null to only decode
+     * @return the barcode found, or null if there is none, or the request was cancelled
+     */
+    Result decode(int request, String albumPath, Handler handler) {
+        long start = SystemClock.elapsedRealtime();
+        AlbumLuminanceLoader loader = AlbumLuminanceLoader.open(albumPath);
+        if (loader == null) {
+            sendResult(handler, request, null);
+            return null;
+        }
+        candidates.points.clear();
+        Result rawResult = null;
+        int passes = 0;
+        int tiles = 0;
+        try {
+            int width = loader.getImageWidth();
+            int height = loader.getImageHeight();
+            int sampleSize = Integer.highestOneBit(Math.max(1, Math.max(width, height) / COARSE_LONG_SIDE));
+            int wholePasses = countWholePasses(width, height, sampleSize);
+            // Tiles are only needed if the whole image passes stop short of full resolution
+            boolean tiled = sampleSize >> (wholePasses - 1) > 1 && loader.canLoadRegions();
+            int steps = wholePasses + (tiled ? countTiles(width, height) : 0);
+
+            // Whole image, coarsest first
+            Rect whole = new Rect(0, 0, width, height);
+            while (rawResult == null && passes < wholePasses) {
+                if (isCancelled(request)) {
+                    return null;
+                }
+                sendProgress(handler, request, 100 * passes / steps);
+                rawResult = decode(loader.load(whole, sampleSize), sampleSize, 0, 0);
+                passes++;
+                sampleSize >>= 1;
+            }
+
+            // Full resolution tiles, most promising first
+            if (rawResult == null && tiled) {
+                for (Rect tile : buildTiles(width, height)) {
+                    if (isCancelled(request)) {
+                        return null;
+                    }
+                    sendProgress(handler, request, 100 * (passes + tiles) / steps);
+                    rawResult = decode(loader.load(tile, 1), 1, tile.left, tile.top);
+                    tiles++;
+                    if (rawResult != null) {
+                        break;
+                    }
+                }
+            }
+            long end = SystemClock.elapsedRealtime();
+            Log.i(TAG, "Album image " + width + 'x' + height + (rawResult != null ? " decoded" : " had no barcode") +
+                    " in " + (end - start) + " ms, " + passes + " whole pass(es) and " + tiles + " tile(s)");
+        } finally {
+            loader.close();
+        }
+        sendResult(handler, request, rawResult);
+        return rawResult;
+    }
+
+    /**
+     * @return how many times the image is decoded whole: from the coarse sample size, halving it
+     * until it reaches 1 or the image would no longer fit in the budget
+     */
+    private static int countWholePasses(int width, int height, int sampleSize) {
+        int passes = 1;
+        while (sampleSize > 1) {
+            sampleSize >>= 1;
+            if ((long) (width / sampleSize) * (height / sampleSize) > MAX_WHOLE_PIXELS) {
+                break;
+            }
+            passes++;
+        }
+        return passes;
+    }
+
+    static int countTiles(int width, int height) {
+        return countTiles(width) * countTiles(height);
+    }
+
+    private static int countTiles(int length) {
+        int step = TILE_SIZE - TILE_OVERLAP;
+        return length <= TILE_SIZE ? 1 : (length - TILE_OVERLAP + step - 1) / step;
+    }
+
+    /**
+     * @return overlapping full resolution tiles covering the image, those containing candidate
+     * points seen in the earlier passes first
+     */
+    List<Rect> buildTiles(int width, int height) {
+        int step = TILE_SIZE - TILE_OVERLAP;
+        List<Rect> promising = new ArrayList<>();
+        List<Rect> others = new ArrayList<>();
+        for (int row = 0; row < countTiles(height); row++) {
+            int top = Math.min(row * step, Math.max(0, height - TILE_SIZE));
+            for (int column = 0; column < countTiles(width); column++) {
+                int left = Math.min(column * step, Math.max(0, width - TILE_SIZE));
+                Rect tile = new Rect(left, top, Math.min(width, left + TILE_SIZE),
+                        Math.min(height, top + TILE_SIZE));
+                if (containsCandidate(tile)) {
+                    promising.add(tile);
+                } else {
+                    others.add(tile);
+                }
+            }
+        }
+        promising.addAll(others);
+        return promising;
+    }
+
+    private boolean containsCandidate(Rect tile) {
+        for (ResultPoint point : candidates.points) {
+            if (tile.contains((int) point.getX(), (int) point.getY())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param source     the loaded image or tile, or null if it couldn't be loaded
+     * @param sampleSize factor by which it was shrunk
+     * @param left       left edge of the tile in the full resolution image
+     * @param top        top edge of the tile in the full resolution image
+     * @return the barcode found, or null
+     */
+    private Result decode(LuminanceSource source, int sampleSize, int left, int top) {
+        if (source == null) {
+            return null;
+        }
+        candidates.setTransform(sampleSize, left, top);
+        //把可视图片转为二进制图片
+        BinaryBitmap binaryBitmap = new BinaryBitmap(new HybridBinarizer(source));
+        try {
+            //解析图片中的code
+            return multiFormatReader.decodeWithState(binaryBitmap);
+        } catch (ReaderException re) {
+            // continue
+            return null;
+        } finally {
+            multiFormatReader.reset();
+        }
+    }
+
+    private boolean isCancelled(int request) {
+        return pool != null && pool.isAlbumDecodeCancelled(request);
+    }
+
+    private void sendProgress(Handler handler, int request, int percent) {
+        if (handler != null) {
+            Message.obtain(handler, R.id.decode_album_progress, request, percent).sendToTarget();
+        }
+    }
+
+    private void sendResult(Handler handler, int request, Result rawResult) {
+        if (handler == null || isCancelled(request)) {
+            return;
+        }
+        if (rawResult != null) {
+            Message.obtain(handler, R.id.decode_album_succeeded, request, 0, rawResult).sendToTarget();
+        } else {
+            Message.obtain(handler, R.id.decode_album_failed, request, 0).sendToTarget();
+        }
+    }
+
+    /**
+     * Remembers where the readers saw parts of a barcode, in full resolution image coordinates.
+     */
+    private static final class CandidateCollector implements ResultPointCallback {
+
+        private final List<ResultPoint> points = new ArrayList<>();
+        private int scale = 1;
+        private int left;
+        private int top;
+
+        void setTransform(int scale, int left, int top) {
+            this.scale = scale;
+            this.left = left;
+            this.top = top;
+        }
+
+        @Override
+        public void foundPossibleResultPoint(ResultPoint point) {
+            points.add(new ResultPoint(point.getX() * scale + left, point.getY() * scale + top));
+        }
+
+    }
+
+}
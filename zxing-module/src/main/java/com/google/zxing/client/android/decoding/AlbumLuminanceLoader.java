@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Loads an image file, or a region of it, straight into a luminance plane of one byte per pixel,
+ * which is all the decoder needs. The image is decoded a strip of rows at a time with
+ * {@link BitmapRegionDecoder}, into a small RGB_565 bitmap reused from strip to strip, so neither a
+ * full size ARGB bitmap nor a full size {@code int[]} copy of it is ever held: a 12 MP photo takes
+ * 12 MB instead of about 100 MB at full resolution.
+ * <p>
+ * Formats the region decoder can't read are decoded whole as RGB_565 and converted a strip at a
+ * time instead; only the whole image can be loaded from those.
+ * <p>
+ * The luminance buffer is reused from one load to the next, so a source returned by
+ * {@link #load(Rect, int)} is only valid until the next call. Not thread safe.
+ */
+final class AlbumLuminanceLoader {
+
+    private static final String TAG = AlbumLuminanceLoader.class.getSimpleName();
+
+    /**
+     * Rows of the loaded image per strip.
+     */
+    private static final int STRIP_HEIGHT = 128;
+
+    private final String path;
+    private final BitmapRegionDecoder regionDecoder;
+    private final int imageWidth;
+    private final int imageHeight;
+    private int[] pixels;
+    private byte[] luminances;
+    private int width;
+    private int rows;
+
+    private AlbumLuminanceLoader(String path, BitmapRegionDecoder regionDecoder,
+                                 int imageWidth, int imageHeight) {
+        this.path = path;
+        this.regionDecoder = regionDecoder;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+    }
+
+    /**
+     * @param path path of the image file
+     * @return a loader for the image, or null if it can't be read
+     */
+    static AlbumLuminanceLoader open(String path) {
+        try {
+            BitmapRegionDecoder regionDecoder = BitmapRegionDecoder.newInstance(path, false);
+            return new AlbumLuminanceLoader(path, regionDecoder,
+                    regionDecoder.getWidth(), regionDecoder.getHeight());
+        } catch (IOException ioe) {
+            Log.i(TAG, "Can't read " + path + " in strips, loading it whole: " + ioe);
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        return new AlbumLuminanceLoader(path, null, options.outWidth, options.outHeight);
+    }
+
+    int getImageWidth() {
+        return imageWidth;
+    }
+
+    int getImageHeight() {
+        return imageHeight;
+    }
+
+    /**
+     * @return whether regions of the image can be loaded, rather than only the whole image
+     */
+    boolean canLoadRegions() {
+        return regionDecoder != null;
+    }
+
+    /**
+     * @param region     the region of the image to load, in full resolution pixels; must be the
+     *                   whole image unless {@link #canLoadRegions()}
+     * @param sampleSize the region is shrunk by this factor, a power of two, as it is loaded
+     * @return the luminance of the region, or null if it can't be read
+     */
+    PlanarYUVLuminanceSource load(Rect region, int sampleSize) {
+        rows = 0;
+        boolean loaded = regionDecoder != null ?
+                loadInStrips(region, sampleSize) : loadWhole(sampleSize);
+        if (!loaded || rows == 0) {
+            return null;
+        }
+        return new PlanarYUVLuminanceSource(luminances, width, luminances.length / width,
+                0, 0, width, rows, false);
+    }
+
+    void close() {
+        if (regionDecoder != null) {
+            regionDecoder.recycle();
+        }
+    }
+
+    private boolean loadInStrips(Rect region, int sampleSize) {
+        int stripRows = STRIP_HEIGHT * sampleSize;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        // Before KitKat, reusing a bitmap only works with a sample size of 1
+        boolean reuse = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sampleSize == 1;
+        options.inMutable = reuse;
+        Rect strip = new Rect();
+        Bitmap bitmap = null;
+        try {
+            for (int top = region.top; top < region.bottom; top += stripRows) {
+                strip.set(region.left, top, region.right, Math.min(region.bottom, top + stripRows));
+                // All strips but the last have the same size, so they can share a bitmap
+                options.inBitmap = reuse && strip.height() == stripRows ? bitmap : null;
+                Bitmap decoded = regionDecoder.decodeRegion(strip, options);
+                if (decoded == null) {
+                    return false;
+                }
+                if (rows == 0) {
+                    // The decoder may round the sample size, so this is only an estimate
+                    int estimatedHeight = (region.height() * decoded.getWidth() + region.width() - 1) /
+                            region.width();
+                    startPlane(decoded.getWidth(), Math.max(estimatedHeight, decoded.getHeight()));
+                }
+                appendStrip(decoded);
+                if (decoded != bitmap) {
+                    if (bitmap != null) {
+                        bitmap.recycle();
+                    }
+                    bitmap = decoded;
+                }
+            }
+        } finally {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+        }
+        return true;
+    }
+
+    private boolean loadWhole(int sampleSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) {
+            return false;
+        }
+        startPlane(bitmap.getWidth(), bitmap.getHeight());
+        appendStrip(bitmap);
+        bitmap.recycle();
+        return true;
+    }
+
+    private void startPlane(int width, int height) {
+        this.width = width;
+        int area = width * height;
+        if (luminances == null || luminances.length < area) {
+            luminances = new byte[area];
+        }
+    }
+
+    /**
+     * Converts the rows of the bitmap to luminance and appends them, a few rows at a time.
+     */
+    private void appendStrip(Bitmap bitmap) {
+        int stripWidth = Math.min(width, bitmap.getWidth());
+        int stripHeight = bitmap.getHeight();
+        int needed = (rows + stripHeight) * width;
+        if (needed > luminances.length) {
+            luminances = Arrays.copyOf(luminances, needed);
+        }
+        int chunkRows = Math.min(stripHeight, STRIP_HEIGHT);
+        if (pixels == null || pixels.length < stripWidth * chunkRows) {
+            pixels = new int[stripWidth * chunkRows];
+        }
+        for (int y = 0; y < stripHeight; y += chunkRows) {
+            int count = Math.min(chunkRows, stripHeight - y);
+            bitmap.getPixels(pixels, 0, stripWidth, 0, y, stripWidth, count);
+            for (int row = 0; row < count; row++) {
+                int in = row * stripWidth;
+                int out = (rows + y + row) * width;
+                for (int x = 0; x < stripWidth; x++) {
+                    int pixel = pixels[in + x];
+                    // Same weights as RGBLuminanceSource: (R + 2G + B) / 4
+                    int r = (pixel >> 16) & 0xff;
+                    int g2 = (pixel >> 7) & 0x1fe;
+                    int b = pixel & 0xff;
+                    luminances[out + x] = (byte) ((r + g2 + b) / 4);
+                }
+            }
+        }
+        rows += stripHeight;
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a batch of image files, such as a folder of photographed documents, in parallel on a
+ * fixed number of worker threads, each with its own {@link ImageDecoder}. Results are handed to a
+ * {@link Listener} as each image completes, not in the order of the batch.
+ * <p>
+ * At most {@code maxInFlight} images are loaded or being decoded at any time, so memory use is
+ * bounded by that many images, however long the batch.
+ * <p>
+ * {@link DecodePool#newBatchDecoder} creates a decoder which reads files on the device with the same
+ * passes as an album image. This class itself doesn't depend on Android, so it can also run on a
+ * plain JVM, with an {@link ImageLoader} which reads an image whole.
+ */
+public final class BatchDecoder {
+
+    /**
+     * Reads an image file into luminance.
+     */
+    public interface ImageLoader {
+
+        /**
+         * Called on the worker threads, possibly several at once.
+         *
+         * @param path path of the image file
+         * @return the luminance of the image, or null if it isn't an image
+         * @throws IOException if the file can't be read
+         */
+        LuminanceSource load(String path) throws IOException;
+
+    }
+
+    /**
+     * Decodes image files, one at a time. Each worker thread has its own.
+     */
+    public interface ImageDecoder {
+
+        /**
+         * @param path path of the image file
+         * @return the barcode found in the image, or null if there is none
+         * @throws IOException if the file can't be read
+         */
+        Result decode(String path) throws IOException;
+
+    }
+
+    /**
+     * Creates the {@link ImageDecoder} of each worker thread, on that thread.
+     */
+    public interface ImageDecoderFactory {
+
+        ImageDecoder newImageDecoder();
+
+    }
+
+    /**
+     * Receives the results of a batch. Called on the worker threads, possibly several at once.
+     */
+    public interface Listener {
+
+        /**
+         * @param path   path of the image file, as passed to {@link #decode(List, Listener)}
+         * @param result the barcode found in the image, or null if there was none, or the image
+         *               couldn't be read
+         */
+        void onImageDecoded(String path, Result result);
+
+        /**
+         * Called once, after every image has been decoded, or the batch was cancelled.
+         *
+         * @param images    number of images decoded
+         * @param found     number of images in which a barcode was found
+         * @param elapsedMs time taken by the whole batch; {@code images * 1000 / elapsedMs} is the
+         *                  throughput in images per second
+         */
+        void onBatchFinished(int images, int found, long elapsedMs);
+
+    }
+
+    private final int maxInFlight;
+    private final ExecutorService executor;
+    private final ThreadLocal<ImageDecoder> decoders;
+    private volatile boolean cancelled;
+
+    /**
+     * Decodes each image whole, as loaded.
+     *
+     * @param hints       hints for the readers
+     * @param loader      reads the image files
+     * @param threadCount number of worker threads
+     * @param maxInFlight number of images loaded at the same time at most; at least
+     *                    {@code threadCount} to keep every worker busy
+     */
+    public BatchDecoder(Map<DecodeHintType, ?> hints, ImageLoader loader, int threadCount,
+                        int maxInFlight) {
+        this(newLoaderDecoderFactory(hints, loader), threadCount, maxInFlight);
+    }
+
+    /**
+     * @param factory     creates the decoder of each worker thread
+     * @param threadCount number of worker threads
+     * @param maxInFlight number of images decoded at the same time at most; at least
+     *                    {@code threadCount} to keep every worker busy
+     */
+    public BatchDecoder(final ImageDecoderFactory factory, int threadCount, int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        decoders = new ThreadLocal<ImageDecoder>() {
+            @Override
+            protected ImageDecoder initialValue() {
+                return factory.newImageDecoder();
+            }
+        };
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BatchDecoder-" + count.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    private static ImageDecoderFactory newLoaderDecoderFactory(Map<DecodeHintType, ?> hints,
+                                                               final ImageLoader loader) {
+        final Map<DecodeHintType, Object> readerHints = new EnumMap<>(DecodeHintType.class);
+        readerHints.putAll(hints);
+        // Points from several images at once would only confuse a callback
+        readerHints.remove(DecodeHintType.NEED_RESULT_POINT_CALLBACK);
+        return new ImageDecoderFactory() {
+            @Override
+            public ImageDecoder newImageDecoder() {
+                return new LoaderDecoder(loader, readerHints);
+            }
+        };
+    }
+
+    /**
+     * Decodes the images, blocking until all of them are done or the batch is cancelled, so it must
+     * not be called on the UI thread.
+     *
+     * @param paths    paths of the image files
+     * @param listener receives the results as they come
+     * @throws InterruptedException if the calling thread was interrupted while waiting; images
+     *                              already handed to the workers are still decoded
+     */
+    public void decode(List<String> paths, final Listener listener) throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final AtomicInteger images = new AtomicInteger();
+        final AtomicInteger found = new AtomicInteger();
+        long start = System.nanoTime();
+        for (final String path : paths) {
+            inFlight.acquire();
+            if (cancelled) {
+                inFlight.release();
+                break;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!cancelled) {
+                            Result result = decode(path);
+                            images.incrementAndGet();
+                            if (result != null) {
+                                found.incrementAndGet();
+                            }
+                            listener.onImageDecoded(path, result);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                }
+            });
+        }
+        // Every permit is back once the last image is done
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        // Only now, so that a cancel() before or during the batch is never lost
+        cancelled = false;
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        listener.onBatchFinished(images.get(), found.get(), elapsedMs);
+    }
+
+    /**
+     * Stops the current batch, or the next one if none is running: images not yet handed to a worker
+     * are skipped. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Stops the worker threads once they are done with the current batch.
+     */
+    public void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    private Result decode(String path) {
+        try {
+            return decoders.get().decode(path);
+        } catch (IOException ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Decodes the image whole, as the loader reads it.
+     */
+    private static final class LoaderDecoder implements ImageDecoder {
+
+        private final ImageLoader loader;
+        private final MultiFormatReader reader = new MultiFormatReader();
+
+        LoaderDecoder(ImageLoader loader, Map<DecodeHintType, ?> hints) {
+            this.loader = loader;
+            reader.setHints(hints);
+        }
+
+        @Override
+        public Result decode(String path) throws IOException {
+            LuminanceSource source = loader.load(path);
+            if (source == null) {
+                return null;
+            }
+            try {
+                return reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+            } catch (ReaderException re) {
+                // continue
+                return null;
+            } finally {
+                reader.reset();
+            }
+        }
+
+    }
+
+}
@@ -17,24 +17,23 @@
 package com.google.zxing.client.android.decoding;
 
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
-import com.google.zxing.BinaryBitmap;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.MultiFormatReader;
 import com.google.zxing.PlanarYUVLuminanceSource;
-import com.google.zxing.ReaderException;
 import com.google.zxing.Result;
 import com.google.zxing.client.android.CaptureActivity;
 import com.google.zxing.client.android.R;
-import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.client.android.camera.CameraManager;
+import com.google.zxing.client.android.camera.FocusFeedback;
+import com.google.zxing.client.android.metrics.ScanMetrics;
 
-import java.io.ByteArrayOutputStream;
 import java.util.Map;
 
 /**
@@ -47,24 +46,48 @@ public final class DecodeHandler extends Handler {
 
     private static final String TAG = DecodeHandler.class.getSimpleName();
 
+    /**
+     * Only every this many frames are measured for the adaptive exposure.
+     */
+    private static final int LUMA_FRAME_INTERVAL = 4;
+
     private final CaptureActivity activity;
-    private final MultiFormatReader multiFormatReader;
+    private final DecodePool pool;
+    private final FrameDecoder frameDecoder;
+    private final ScanMetrics metrics;
+    private final boolean renderThumbnails;
+    private final boolean multiCode;
+    private final float[] codeBounds = new float[4];
+    /**
+     * Reused from frame to frame, the camera only reads it.
+     */
+    private final Rect codeArea = new Rect();
+    private final LumaHistogram lumaHistogram = new LumaHistogram();
+    private int frames;
+    private AlbumDecoder albumDecoder;
     private boolean running = true;
 
-    DecodeHandler(CaptureActivity activity, Map<DecodeHintType, Object> hints) {
-        multiFormatReader = new MultiFormatReader();
-        multiFormatReader.setHints(hints);
+    DecodeHandler(CaptureActivity activity, DecodePool pool, Map<DecodeHintType, Object> hints,
+                  DecodeOptions options) {
         this.activity = activity;
+        this.pool = pool;
+        metrics = activity.getScanMetrics();
+        frameDecoder = new FrameDecoder(hints, options, metrics);
+        renderThumbnails = options.isRenderThumbnails();
+        multiCode = options.isMultiCode();
     }
 
+    /**
+     * Hands the thumbnail over as raw ARGB pixels; the UI thread turns them into a bitmap only if it
+     * shows one, without going through a JPEG encode and decode.
+     */
     private static void bundleThumbnail(PlanarYUVLuminanceSource source, Bundle bundle) {
         int[] pixels = source.renderThumbnail();
         int width = source.getThumbnailWidth();
         int height = source.getThumbnailHeight();
-        Bitmap bitmap = Bitmap.createBitmap(pixels, 0, width, width, height, Bitmap.Config.ARGB_8888);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 50, out);
-        bundle.putByteArray(DecodeThread.BARCODE_BITMAP, out.toByteArray());
+        bundle.putIntArray(DecodeThread.BARCODE_BITMAP, pixels);
+        bundle.putInt(DecodeThread.BARCODE_BITMAP_WIDTH, width);
+        bundle.putInt(DecodeThread.BARCODE_BITMAP_HEIGHT, height);
         bundle.putFloat(DecodeThread.BARCODE_SCALED_FACTOR, (float) width / source.getWidth());
     }
 
@@ -74,14 +97,20 @@ public final class DecodeHandler extends Handler {
             return;
         }
         if (message.what == R.id.decode) {
-            decode((byte[]) message.obj, message.arg1, message.arg2);
+            PreviewFrame frame = (PreviewFrame) message.obj;
+            decode(frame);
+            pool.onFrameDecoded(this);
 
         } else if (message.what == R.id.quit) {
+            Log.i(TAG, "Decode time by scale: " + frameDecoder.getScaleStats());
             running = false;
             Looper.myLooper().quit();
 
         } else if (message.what == R.id.decode_album) {
-            //decodeAlbum((String) message.obj);
+            if (albumDecoder == null) {
+                albumDecoder = new AlbumDecoder(pool);
+            }
+            albumDecoder.decode(message.arg1, (String) message.obj, activity.getHandler());
         }
     }
 
@@ -89,57 +118,70 @@ public final class DecodeHandler extends Handler {
      * Decode the data within the viewfinder rectangle, and time how long it took. For efficiency,
      * reuse the same reader objects from one decode to the next.
      *
-     * @param data   The YUV preview frame.
-     * @param width  The width of the preview frame.
-     * @param height The height of the preview frame.
+     * @param frame The YUV preview frame, with its dimensions and arrival time.
      */
-    private void decode(byte[] data, int width, int height) {
-        long start = System.currentTimeMillis();
-        Result rawResult = null;
-
-        // 2.横竖屏切换 switch screen orientation
-        if (activity.getResources().getConfiguration().orientation ==
-                Configuration.ORIENTATION_PORTRAIT) {
-            if (height < width) {
-                byte[] rotatedData = new byte[data.length];
-                for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++)
-                        rotatedData[x * height + height - y - 1] = data[x + y * width];
-                }
-                int tmp = width;
-                width = height;
-                height = tmp;
-                data = rotatedData;
-            }
-        }
-
+    private void decode(PreviewFrame frame) {
+        byte[] data = frame.getData();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        long start = SystemClock.uptimeMillis();
+        metrics.recordMillis(ScanMetrics.Timer.QUEUE_WAIT, start - frame.getTimestamp());
+        Object rawResult = null;
 
         // 此处，横竖屏切换时未处理好扫描区域  width height，导致闪退
-        PlanarYUVLuminanceSource source = activity.getCameraManager()
-                .buildLuminanceSource(data, width, height);
-        if (source != null) {
-            BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
-            try {
-                rawResult = multiFormatReader.decodeWithState(bitmap);
-            } catch (ReaderException re) {
-                // continue
-                // no need to log this exception ,cause it goes so fast here
-                // Log.w(TAG,"decode error happened",re);
-            } finally {
-                multiFormatReader.reset();
+        Rect rect = activity.getCameraManager().getFramingRectInPreview();
+        PlanarYUVLuminanceSource source = null;
+        boolean rotate = false;
+        if (rect != null) {
+            // 2.横竖屏切换 switch screen orientation
+            rotate = height < width && activity.getResources().getConfiguration().orientation ==
+                    Configuration.ORIENTATION_PORTRAIT;
+            source = frameDecoder.buildLuminanceSource(data, width, height, rotate,
+                    rect.left, rect.top, rect.width(), rect.height());
+            CameraManager cameraManager = activity.getCameraManager();
+            // The exposure changes slowly, a few frames a second tell it well enough
+            if (cameraManager.isExposureControlled() && frames++ % LUMA_FRAME_INTERVAL == 0) {
+                lumaHistogram.update(source);
+                cameraManager.reportLuma(lumaHistogram.getMean(), lumaHistogram.getClippedFraction());
+            }
+            frameDecoder.setFocusFeedbackWanted(cameraManager.isFocusFeedbackWanted());
+            rawResult = multiCode ? frameDecoder.decodeMultiple(source) : frameDecoder.decode(source);
+            FocusFeedback feedback = frameDecoder.getFocusFeedback();
+            if (feedback != null) {
+                cameraManager.reportFocusFeedback(feedback);
+            }
+            if (frameDecoder.getCodeBounds(codeBounds)) {
+                codeArea.set(
+                        rect.left + (int) codeBounds[0], rect.top + (int) codeBounds[1],
+                        rect.left + (int) Math.ceil(codeBounds[2]), rect.top + (int) Math.ceil(codeBounds[3]));
+                cameraManager.reportCodeArea(codeArea);
+                // Only a frame that was decoded without a result tells the code is too small
+                if (frameDecoder.wasFrameDecoded() && rawResult == null) {
+                    cameraManager.reportCodeSize(codeArea, frameDecoder.getModuleSize());
+                }
             }
         }
 
         Handler handler = activity.getHandler();
         if (rawResult != null) {
             // Don't log the barcode contents for security.
-            long end = System.currentTimeMillis();
-            Log.d(TAG, "Found barcode in " + (end - start) + " ms");
+            // Measured from the camera delivering the frame, so time spent waiting counts as well
+            long end = SystemClock.uptimeMillis();
+            Log.d(TAG, "Found barcode in " + (end - start) + " ms, " +
+                    (end - frame.getTimestamp()) + " ms after the frame arrived");
             if (handler != null) {
-                Message message = Message.obtain(handler, R.id.decode_succeeded, rawResult);
-                Bundle bundle = new Bundle();
-                bundleThumbnail(source, bundle);
-                message.setData(bundle);
+                // A Result[] in multi-code mode
+                Message message = Message.obtain(handler,
+                        multiCode ? R.id.decode_multiple_succeeded : R.id.decode_succeeded, rawResult);
+                message.arg1 = frame.getSequence();
+                if (renderThumbnails) {
+                    long thumbnailStart = System.nanoTime();
+                    Bundle bundle = new Bundle();
+                    bundleThumbnail(frameDecoder.buildThumbnailSource(source, data, width, height, rotate,
+                            rect.left, rect.top, rect.width(), rect.height()), bundle);
+                    message.setData(bundle);
+                    metrics.record(ScanMetrics.Timer.THUMBNAIL, System.nanoTime() - thumbnailStart);
+                }
                 message.sendToTarget();
             }
         } else {
@@ -148,6 +190,8 @@ public final class DecodeHandler extends Handler {
                 message.sendToTarget();
             }
         }
+        // The thumbnail has been rendered, so the camera may reuse the frame now
+        activity.getCameraManager().releasePreviewFrame(data);
     }
 
 }
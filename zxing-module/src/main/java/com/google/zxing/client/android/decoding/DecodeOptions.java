@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+/**
+ * How preview frames are decoded, apart from the hints for the readers. {@link DecodePool} reads
+ * it from the preferences once; every decode thread shares it. The defaults decode the whole
+ * framing rect at full resolution, looking for one barcode of any format in every frame.
+ */
+final class DecodeOptions {
+
+    private boolean interleaveFormats;
+    private boolean renderThumbnails;
+    private boolean trackRegion;
+    private int coarsestScale = 1;
+    private boolean multiCode;
+    private boolean skipBlurred;
+
+    boolean isInterleaveFormats() {
+        return interleaveFormats;
+    }
+
+    /**
+     * @param interleaveFormats whether to alternate between 1D and 2D formats from frame to frame
+     */
+    DecodeOptions setInterleaveFormats(boolean interleaveFormats) {
+        this.interleaveFormats = interleaveFormats;
+        return this;
+    }
+
+    boolean isRenderThumbnails() {
+        return renderThumbnails;
+    }
+
+    /**
+     * @param renderThumbnails whether a thumbnail of the frame goes along with the result
+     */
+    DecodeOptions setRenderThumbnails(boolean renderThumbnails) {
+        this.renderThumbnails = renderThumbnails;
+        return this;
+    }
+
+    boolean isTrackRegion() {
+        return trackRegion;
+    }
+
+    /**
+     * @param trackRegion whether to decode only around recently seen result points
+     */
+    DecodeOptions setTrackRegion(boolean trackRegion) {
+        this.trackRegion = trackRegion;
+        return this;
+    }
+
+    int getCoarsestScale() {
+        return coarsestScale;
+    }
+
+    /**
+     * @param coarsestScale 1 to decode at full resolution only, or 2 or 4 to try the image shrunk by
+     *                      that factor first, then by half that, down to full resolution
+     */
+    DecodeOptions setCoarsestScale(int coarsestScale) {
+        this.coarsestScale = coarsestScale;
+        return this;
+    }
+
+    boolean isMultiCode() {
+        return multiCode;
+    }
+
+    /**
+     * @param multiCode whether to look for every barcode in the frame instead of the first one
+     */
+    DecodeOptions setMultiCode(boolean multiCode) {
+        this.multiCode = multiCode;
+        return this;
+    }
+
+    boolean isSkipBlurred() {
+        return skipBlurred;
+    }
+
+    /**
+     * @param skipBlurred whether to skip frames much blurrier than the recent ones
+     */
+    DecodeOptions setSkipBlurred(boolean skipBlurred) {
+        this.skipBlurred = skipBlurred;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "interleaveFormats=" + interleaveFormats + ", renderThumbnails=" + renderThumbnails +
+                ", trackRegion=" + trackRegion + ", coarsestScale=" + coarsestScale +
+                ", multiCode=" + multiCode + ", skipBlurred=" + skipBlurred;
+    }
+
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.client.android.CaptureActivity;
+import com.google.zxing.client.android.R;
+import com.google.zxing.client.android.consts.PreferencesActivity;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads preview frames across a configurable number of {@link DecodeThread}s, each with its own
+ * reader. A frame which arrives while every worker is busy is held back for the next worker to
+ * become idle, replacing any frame held back before it: the newest frame is always the better bet,
+ * and decoding a frame which sat in a queue only adds to the latency.
+ * <p>
+ * Every frame gets a sequence number, which is passed back in {@code arg1} of the
+ * {@code decode_succeeded} message, so that results from frames older than the last restart can be
+ * told apart and discarded.
+ * <p>
+ * Images picked from the album are decoded on the first worker, one at a time: a new request
+ * cancels the one before it.
+ */
+public final class DecodePool {
+
+    private static final String TAG = DecodePool.class.getSimpleName();
+
+    private static final String DEFAULT_DECODE_THREADS = "1";
+    private static final String DEFAULT_DECODE_PYRAMID = "1";
+    private static final long QUIT_TIMEOUT_MS = 500L;
+
+    private final CaptureActivity activity;
+    private final ScanMetrics metrics;
+    private final DecodeThread[] decodeThreads;
+    private final ArrayDeque<DecodeHandler> idleWorkers;
+    /**
+     * Id of the current album request; bumped to cancel it.
+     */
+    private final AtomicInteger albumRequest = new AtomicInteger();
+    private PreviewFrame pendingFrame;
+    private boolean workersReady;
+    private int nextSequence;
+    private int firstCurrentSequence;
+    private long startTime;
+    private int decodedFrames;
+    private int droppedFrames;
+
+    public DecodePool(CaptureActivity activity,
+                      Collection<BarcodeFormat> decodeFormats,
+                      Map<DecodeHintType, ?> baseHints,
+                      String characterSet,
+                      ResultPointCallback resultPointCallback) {
+        this.activity = activity;
+        metrics = activity.getScanMetrics();
+
+        // The prefs can't change while the threads are running, so pick them up once here.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
+        Map<DecodeHintType, Object> hints =
+                buildHints(prefs, decodeFormats, baseHints, characterSet, resultPointCallback);
+        int threadCount = Math.max(1, Integer.parseInt(
+                prefs.getString(PreferencesActivity.KEY_DECODE_THREADS, DEFAULT_DECODE_THREADS)));
+        DecodeOptions options = readOptions(prefs);
+        Log.i(TAG, "Using " + threadCount + " decode thread(s), " + options);
+
+        decodeThreads = new DecodeThread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            decodeThreads[i] = new DecodeThread(activity, this, hints, options);
+        }
+        idleWorkers = new ArrayDeque<>(threadCount);
+    }
+
+    private static DecodeOptions readOptions(SharedPreferences prefs) {
+        boolean multiCode = prefs.getBoolean(PreferencesActivity.KEY_MULTI_CODE, false);
+        return new DecodeOptions()
+                .setInterleaveFormats(prefs.getBoolean(PreferencesActivity.KEY_INTERLEAVE_FORMATS, false))
+                .setRenderThumbnails(prefs.getBoolean(PreferencesActivity.KEY_RESULT_THUMBNAIL, true))
+                .setMultiCode(multiCode)
+                // A region around one barcode would hide the others
+                .setTrackRegion(!multiCode && prefs.getBoolean(PreferencesActivity.KEY_TRACK_REGION, false))
+                .setCoarsestScale(Integer.parseInt(
+                        prefs.getString(PreferencesActivity.KEY_DECODE_PYRAMID, DEFAULT_DECODE_PYRAMID)))
+                .setSkipBlurred(prefs.getBoolean(PreferencesActivity.KEY_SKIP_BLURRED_FRAMES, true));
+    }
+
+    private static Map<DecodeHintType, Object> buildHints(SharedPreferences prefs,
+                                                          Collection<BarcodeFormat> decodeFormats,
+                                                          Map<DecodeHintType, ?> baseHints,
+                                                          String characterSet,
+                                                          ResultPointCallback resultPointCallback) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        if (baseHints != null) {
+            hints.putAll(baseHints);
+        }
+
+        if (decodeFormats == null || decodeFormats.isEmpty()) {
+            decodeFormats = EnumSet.noneOf(BarcodeFormat.class);
+            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_1D_PRODUCT, true)) {
+                decodeFormats.addAll(DecodeFormatManager.PRODUCT_FORMATS);
+            }
+            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_1D_INDUSTRIAL, true)) {
+                decodeFormats.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
+            }
+            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_QR, true)) {
+                decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
+            }
+            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_DATA_MATRIX, true)) {
+                decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
+            }
+            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_AZTEC, false)) {
+                decodeFormats.addAll(DecodeFormatManager.AZTEC_FORMATS);
+            }
+            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_PDF417, false)) {
+                decodeFormats.addAll(DecodeFormatManager.PDF417_FORMATS);
+            }
+        }
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
+
+        if (characterSet != null) {
+            hints.put(DecodeHintType.CHARACTER_SET, characterSet);
+        }
+        if (resultPointCallback != null) {
+            hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
+        }
+        Log.i(TAG, "Hints: " + hints);
+        return hints;
+    }
+
+    /**
+     * @return how many frames the camera should be able to have out at once: one being decoded by
+     * every thread, one held back and one being filled
+     */
+    public int getFrameBufferCount() {
+        return decodeThreads.length + 2;
+    }
+
+    /**
+     * Starts the decode threads without waiting for them to set up their readers, so that they do so
+     * while the camera is being opened. The first frame waits for them if need be.
+     */
+    public void start() {
+        for (DecodeThread decodeThread : decodeThreads) {
+            decodeThread.start();
+        }
+    }
+
+    /**
+     * Waits for the decode threads to be ready, the first time frames are about to be decoded.
+     */
+    private synchronized void awaitWorkers() {
+        if (workersReady) {
+            return;
+        }
+        for (DecodeThread decodeThread : decodeThreads) {
+            idleWorkers.add(decodeThread.getHandler());
+        }
+        workersReady = true;
+        startTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Hands a preview frame to an idle worker, or holds it back until one becomes idle.
+     *
+     * @param data      The YUV preview frame.
+     * @param width     The width of the preview frame.
+     * @param height    The height of the preview frame.
+     * @param timestamp When the camera delivered the frame, in
+     *                  {@link SystemClock#uptimeMillis()}.
+     */
+    public void submit(byte[] data, int width, int height, long timestamp) {
+        PreviewFrame dropped = null;
+        awaitWorkers();
+        synchronized (this) {
+            PreviewFrame frame = new PreviewFrame(data, width, height, nextSequence++, timestamp);
+            DecodeHandler worker = idleWorkers.poll();
+            if (worker != null) {
+                dispatch(worker, frame);
+            } else {
+                dropped = pendingFrame;
+                pendingFrame = frame;
+                if (dropped != null) {
+                    droppedFrames++;
+                    metrics.increment(ScanMetrics.Counter.FRAMES_DROPPED);
+                }
+            }
+        }
+        if (dropped != null) {
+            activity.getCameraManager().releasePreviewFrame(dropped.getData());
+        }
+    }
+
+    public synchronized boolean hasIdleWorker() {
+        awaitWorkers();
+        return !idleWorkers.isEmpty();
+    }
+
+    /**
+     * Called by a worker once it is done with a frame; gives it the newest frame held back, if any.
+     */
+    synchronized void onFrameDecoded(DecodeHandler worker) {
+        decodedFrames++;
+        metrics.increment(ScanMetrics.Counter.FRAMES_DECODED);
+        if (decodedFrames == 1) {
+            activity.onFirstFrameDecoded();
+        }
+        PreviewFrame frame = pendingFrame;
+        pendingFrame = null;
+        if (frame == null) {
+            idleWorkers.add(worker);
+        } else {
+            dispatch(worker, frame);
+        }
+    }
+
+    private static void dispatch(DecodeHandler worker, PreviewFrame frame) {
+        Message.obtain(worker, R.id.decode, frame).sendToTarget();
+    }
+
+    /**
+     * Drops the frame held back, if any, and makes every frame submitted so far stale, so that
+     * results still being computed for them are ignored.
+     */
+    public void discardPendingFrames() {
+        PreviewFrame dropped;
+        synchronized (this) {
+            firstCurrentSequence = nextSequence;
+            dropped = pendingFrame;
+            pendingFrame = null;
+        }
+        if (dropped != null) {
+            activity.getCameraManager().releasePreviewFrame(dropped.getData());
+        }
+    }
+
+    /**
+     * @param sequence sequence number of a decoded frame
+     * @return {@code false} if the frame was submitted before the last call to
+     * {@link #discardPendingFrames()}
+     */
+    public synchronized boolean isCurrent(int sequence) {
+        return sequence - firstCurrentSequence >= 0;
+    }
+
+    /**
+     * @return frames handed to a worker since {@link #start()}
+     */
+    public synchronized int getProcessedFrames() {
+        return decodedFrames;
+    }
+
+    /**
+     * @return frames replaced by a newer one before any worker got to them since {@link #start()}
+     */
+    public synchronized int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return frames decoded per second by all workers together since {@link #start()}
+     */
+    public synchronized float getFramesPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        return elapsed > 0L ? decodedFrames * 1000.0f / elapsed : 0.0f;
+    }
+
+    /**
+     * Decodes an image file on the calling thread, with the same passes as
+     * {@link #decodeAlbum(String)}. That can take seconds for a large photo, so never call it on the
+     * UI thread.
+     *
+     * @param albumPath path of the image file
+     * @return the barcode found, or null if there is none
+     */
+    public static Result decodeAlbumFile(String albumPath) {
+        return new AlbumDecoder(null).decode(0, albumPath, null);
+    }
+
+    /**
+     * Decodes an image from the album in the background, cancelling the album request before it.
+     * Progress and the result are reported to the activity's handler.
+     *
+     * @param albumPath path of the image file
+     * @return id of the request, passed back in {@code arg1} of the messages about it
+     */
+    public int decodeAlbum(String albumPath) {
+        int request = albumRequest.incrementAndGet();
+        Message.obtain(getAlbumHandler(), R.id.decode_album, request, 0, albumPath).sendToTarget();
+        return request;
+    }
+
+    /**
+     * Cancels the album request in progress, if any. No more messages are sent about it, though some
+     * may still be queued.
+     */
+    public void cancelAlbumDecode() {
+        albumRequest.incrementAndGet();
+    }
+
+    /**
+     * @param request id of an album request
+     * @return {@code true} if the request was cancelled, or replaced by a newer one
+     */
+    public boolean isAlbumDecodeCancelled(int request) {
+        return albumRequest.get() != request;
+    }
+
+    /**
+     * Creates a decoder for batches of image files, with one worker per core and the formats enabled
+     * in the preferences. Each image goes through the same passes as an album image, so small
+     * barcodes in large photos are found as well. The caller has to {@link BatchDecoder#shutdown()}
+     * it when done.
+     *
+     * @param context context to read the preferences with
+     * @return a decoder reading files on the device
+     */
+    public static BatchDecoder newBatchDecoder(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final Map<DecodeHintType, Object> hints = buildHints(prefs, null, null, "utf-8", null);
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        // Images are loaded by the workers themselves, so this also bounds how many are in memory
+        return new BatchDecoder(new BatchDecoder.ImageDecoderFactory() {
+            @Override
+            public BatchDecoder.ImageDecoder newImageDecoder() {
+                return new AlbumDecoder(null, hints);
+            }
+        }, threadCount, threadCount);
+    }
+
+    /**
+     * @return handler of the worker which also takes care of album images
+     */
+    private Handler getAlbumHandler() {
+        return decodeThreads[0].getHandler();
+    }
+
+    public void quitSynchronously() {
+        cancelAlbumDecode();
+        Log.i(TAG, "Decoded " + getFramesPerSecond() + " frames/s with " + decodeThreads.length +
+                " thread(s); processed " + getProcessedFrames() + ", dropped " + getDroppedFrames());
+        for (DecodeThread decodeThread : decodeThreads) {
+            Message.obtain(decodeThread.getHandler(), R.id.quit).sendToTarget();
+        }
+        // Wait at most half a second in total; should be enough time, and onPause() will timeout quickly
+        long deadline = SystemClock.elapsedRealtime() + QUIT_TIMEOUT_MS;
+        try {
+            for (DecodeThread decodeThread : decodeThreads) {
+                decodeThread.join(Math.max(1L, deadline - SystemClock.elapsedRealtime()));
+            }
+        } catch (InterruptedException e) {
+            // continue
+        }
+        discardPendingFrames();
+    }
+
+}
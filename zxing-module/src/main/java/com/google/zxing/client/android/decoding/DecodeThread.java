@@ -16,86 +16,47 @@
 
 package com.google.zxing.client.android.decoding;
 
-import android.content.SharedPreferences;
-import android.os.Handler;
 import android.os.Looper;
-import android.preference.PreferenceManager;
-import android.util.Log;
 
-import com.google.zxing.BarcodeFormat;
 import com.google.zxing.DecodeHintType;
-import com.google.zxing.ResultPointCallback;
 import com.google.zxing.client.android.CaptureActivity;
-import com.google.zxing.client.android.consts.PreferencesActivity;
 
-import java.util.Collection;
-import java.util.EnumMap;
-import java.util.EnumSet;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 /**
- * This thread does all the heavy lifting of decoding the images.
+ * This thread does all the heavy lifting of decoding the images. {@link DecodePool} may run several
+ * of them side by side.
  *
  * @author dswitkin@google.com (Daniel Switkin)
  */
 public class DecodeThread extends Thread {
 
+    /**
+     * ARGB pixels of the thumbnail of the decoded frame, as an {@code int[]}.
+     */
     public static final String BARCODE_BITMAP = "barcode_bitmap";
+    public static final String BARCODE_BITMAP_WIDTH = "barcode_bitmap_width";
+    public static final String BARCODE_BITMAP_HEIGHT = "barcode_bitmap_height";
     public static final String BARCODE_SCALED_FACTOR = "barcode_scaled_factor";
 
     private final CaptureActivity activity;
+    private final DecodePool pool;
     private final Map<DecodeHintType, Object> hints;
+    private final DecodeOptions options;
     private final CountDownLatch handlerInitLatch;
-    private Handler handler;
-
-    public DecodeThread(CaptureActivity activity,
-                        Collection<BarcodeFormat> decodeFormats,
-                        Map<DecodeHintType, ?> baseHints,
-                        String characterSet,
-                        ResultPointCallback resultPointCallback) {
+    private DecodeHandler handler;
 
+    DecodeThread(CaptureActivity activity, DecodePool pool, Map<DecodeHintType, Object> hints,
+                 DecodeOptions options) {
         this.activity = activity;
+        this.pool = pool;
+        this.hints = hints;
+        this.options = options;
         handlerInitLatch = new CountDownLatch(1);
-
-        hints = new EnumMap<>(DecodeHintType.class);
-        if (baseHints != null) {
-            hints.putAll(baseHints);
-        }
-
-        // The prefs can't change while the thread is running, so pick them up once here.
-        if (decodeFormats == null || decodeFormats.isEmpty()) {
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-            decodeFormats = EnumSet.noneOf(BarcodeFormat.class);
-            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_1D_PRODUCT, true)) {
-                decodeFormats.addAll(DecodeFormatManager.PRODUCT_FORMATS);
-            }
-            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_1D_INDUSTRIAL, true)) {
-                decodeFormats.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
-            }
-            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_QR, true)) {
-                decodeFormats.addAll(DecodeFormatManager.QR_CODE_FORMATS);
-            }
-            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_DATA_MATRIX, true)) {
-                decodeFormats.addAll(DecodeFormatManager.DATA_MATRIX_FORMATS);
-            }
-            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_AZTEC, false)) {
-                decodeFormats.addAll(DecodeFormatManager.AZTEC_FORMATS);
-            }
-            if (prefs.getBoolean(PreferencesActivity.KEY_DECODE_PDF417, false)) {
-                decodeFormats.addAll(DecodeFormatManager.PDF417_FORMATS);
-            }
-        }
-        hints.put(DecodeHintType.POSSIBLE_FORMATS, decodeFormats);
-
-        if (characterSet != null) {
-            hints.put(DecodeHintType.CHARACTER_SET, characterSet);
-        }
-        hints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, resultPointCallback);
-        Log.i("DecodeThread", "Hints: " + hints);
     }
 
-    public Handler getHandler() {
+    DecodeHandler getHandler() {
         try {
             handlerInitLatch.await();
         } catch (InterruptedException ie) {
@@ -107,7 +68,7 @@ public class DecodeThread extends Thread {
     @Override
     public void run() {
         Looper.prepare();
-        handler = new DecodeHandler(activity, hints);
+        handler = new DecodeHandler(activity, pool, hints, options);
         handlerInitLatch.countDown();
         Looper.loop();
     }
@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.Binarizer;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+import com.google.zxing.client.android.camera.FocusFeedback;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+import com.google.zxing.qrcode.detector.FinderPattern;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The decoding hot path for one preview frame, split into its stages: cropping (and if needed
+ * rotating) the framing rect out of the frame, then binarizing and decoding it. Optionally only the
+ * region of the framing rect picked by a {@link RegionTracker} is decoded, and a shrunk copy is tried
+ * before the full resolution. In multi-code mode, every barcode in the framing rect is decoded
+ * instead of just the first one. Frames much blurrier than the recent ones can be skipped by a
+ * {@link SharpnessGate} before binarization. What each frame tells about the focus is kept for the
+ * autofocus, see {@link #getFocusFeedback()}.
+ * <p>
+ * Deliberately free of Android classes, so that every stage can be run and timed on a plain JVM
+ * against recorded NV21 frames. {@link DecodeHandler} supplies the framing rect and deals with the
+ * messaging around it. Each stage records its timings in a {@link ScanMetrics}.
+ * <p>
+ * Not thread safe; each decode thread owns its own instance.
+ */
+final class FrameDecoder {
+
+    /**
+     * Don't bother shrinking the image below this, a barcode that small wouldn't decode anyway.
+     */
+    private static final int MIN_SCALED_DIMENSION = 80;
+    /**
+     * Points reported in a frame without a barcode from which finder patterns or guards are taken to
+     * have been seen: the three finder patterns of a QR code, or the guards of a 1D barcode.
+     */
+    private static final int MIN_PATTERN_POINTS = 3;
+
+    private final FrameRotator frameRotator = new FrameRotator();
+    private final AdaptiveFormatReader formatReader;
+    private final RegionTracker regionTracker;
+    private final LuminanceDownscaler downscaler = new LuminanceDownscaler();
+    private final GenericMultipleBarcodeReader multipleReader;
+    private final SharpnessGate sharpnessGate = new SharpnessGate();
+    private final boolean skipBlurred;
+    /**
+     * Whether the autofocus is told how sharp frames are; see {@link #setFocusFeedbackWanted}.
+     */
+    private boolean focusFeedbackWanted;
+    /**
+     * Whether the sharpness of the last frame was measured, so the gate knows about it.
+     */
+    private boolean sharpnessMeasured;
+    private final FramePoints framePoints;
+    private final ScanMetrics metrics;
+    /**
+     * Results of decoding at each scale, by the power of two the image was shrunk by.
+     */
+    private final ScaleStats[] scaleStats;
+    private int rectWidth;
+    private int rectHeight;
+    private FocusFeedback focusFeedback;
+    /**
+     * Whether the last frame got past the sharpness gate and was looked for barcodes in.
+     */
+    private boolean frameDecoded;
+
+    /**
+     * @param hints   hints for the readers
+     * @param options how to decode; in multi-code mode every barcode in the frame is looked for,
+     *                with {@link #decodeMultiple}, instead of the first one, with {@link #decode}
+     * @param metrics where to record the timings of each stage
+     */
+    FrameDecoder(Map<DecodeHintType, ?> hints, DecodeOptions options, ScanMetrics metrics) {
+        this.metrics = metrics;
+        skipBlurred = options.isSkipBlurred();
+        int coarsestScale = options.getCoarsestScale();
+        int levels = Integer.numberOfTrailingZeros(Integer.highestOneBit(Math.max(1, coarsestScale))) + 1;
+        scaleStats = new ScaleStats[levels];
+        for (int i = 0; i < levels; i++) {
+            scaleStats[i] = new ScaleStats(1 << i);
+        }
+        if (options.isTrackRegion()) {
+            // The tracker needs to see the candidate points of its own frames only
+            regionTracker = new RegionTracker(
+                    (ResultPointCallback) hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK));
+            Map<DecodeHintType, Object> trackerHints = new EnumMap<>(DecodeHintType.class);
+            trackerHints.putAll(hints);
+            trackerHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, regionTracker);
+            hints = trackerHints;
+        } else {
+            regionTracker = null;
+        }
+        // Outermost, to count the points of every reader
+        framePoints = new FramePoints((ResultPointCallback) hints.get(DecodeHintType.NEED_RESULT_POINT_CALLBACK));
+        Map<DecodeHintType, Object> pointHints = new EnumMap<>(DecodeHintType.class);
+        pointHints.putAll(hints);
+        pointHints.put(DecodeHintType.NEED_RESULT_POINT_CALLBACK, framePoints);
+        hints = pointHints;
+        // Only the readers of the mode in use, each family's readers hold a fair amount of state
+        if (options.isMultiCode()) {
+            MultiFormatReader reader = new MultiFormatReader();
+            reader.setHints(hints);
+            multipleReader = new GenericMultipleBarcodeReader(new StatefulReader(reader));
+            formatReader = null;
+        } else {
+            formatReader = new AdaptiveFormatReader(hints, options.isInterleaveFormats());
+            multipleReader = null;
+        }
+    }
+
+    /**
+     * Crops the framing rect, or the region of it being tracked, out of a preview frame.
+     *
+     * @param data       The YUV preview frame.
+     * @param width      The width of the preview frame.
+     * @param height     The height of the preview frame.
+     * @param rotate     Whether the landscape frame is shown in portrait, in which case the crop is
+     *                   in rotated coordinates and is rotated into a buffer reused across frames.
+     * @param left       Left edge of the framing rect in the preview.
+     * @param top        Top edge of the framing rect in the preview.
+     * @param cropWidth  Width of the framing rect in the preview.
+     * @param cropHeight Height of the framing rect in the preview.
+     * @return the framing rect or region as a luminance source
+     */
+    PlanarYUVLuminanceSource buildLuminanceSource(byte[] data, int width, int height, boolean rotate,
+                                                  int left, int top, int cropWidth, int cropHeight) {
+        if (regionTracker != null) {
+            if (cropWidth != rectWidth || cropHeight != rectHeight) {
+                // The framing rect changed, so the region doesn't mean anything any more
+                regionTracker.reset();
+                rectWidth = cropWidth;
+                rectHeight = cropHeight;
+            }
+            left += regionTracker.getLeft();
+            top += regionTracker.getTop();
+            cropWidth = regionTracker.getWidth(cropWidth);
+            cropHeight = regionTracker.getHeight(cropHeight);
+        }
+        long start = System.nanoTime();
+        PlanarYUVLuminanceSource source;
+        if (!rotate) {
+            // Go ahead and assume it's YUV rather than die.
+            source = new PlanarYUVLuminanceSource(data, width, height, left, top,
+                    cropWidth, cropHeight, false);
+        } else {
+            byte[] rotated = frameRotator.rotateCrop(data, width, height, left, top, cropWidth, cropHeight);
+            metrics.record(ScanMetrics.Timer.ROTATION, System.nanoTime() - start);
+            source = new PlanarYUVLuminanceSource(rotated, cropWidth, cropHeight, 0, 0,
+                    cropWidth, cropHeight, false);
+        }
+        metrics.record(ScanMetrics.Timer.LUMINANCE, System.nanoTime() - start);
+        return source;
+    }
+
+    /**
+     * The result points are relative to the framing rect, also when only a tracked region of it was
+     * decoded, so the thumbnail they are drawn on has to show the whole framing rect as well.
+     *
+     * @param source the source the frame was decoded from, from {@link #buildLuminanceSource}, with
+     *               the same arguments as that was called with
+     * @return the source, if it covers the framing rect, or else a new one which does
+     */
+    PlanarYUVLuminanceSource buildThumbnailSource(PlanarYUVLuminanceSource source, byte[] data, int width,
+                                                  int height, boolean rotate, int left, int top,
+                                                  int cropWidth, int cropHeight) {
+        if (source.getWidth() == cropWidth && source.getHeight() == cropHeight) {
+            return source;
+        }
+        if (!rotate) {
+            return new PlanarYUVLuminanceSource(data, width, height, left, top, cropWidth, cropHeight, false);
+        }
+        byte[] rotated = frameRotator.rotateCrop(data, width, height, left, top, cropWidth, cropHeight);
+        return new PlanarYUVLuminanceSource(rotated, cropWidth, cropHeight, 0, 0, cropWidth, cropHeight, false);
+    }
+
+    /**
+     * Binarizes the source and looks for a barcode in it.
+     *
+     * @param source The framing rect, from {@link #buildLuminanceSource}.
+     * @return the barcode found, or {@code null} if there is none, or the frame was skipped as
+     * blurred. Its points are relative to the framing rect, also when only a region of it was
+     * decoded.
+     */
+    Result decode(LuminanceSource source) {
+        // Before the gate, so that a skipped frame doesn't report the points of the one before it
+        framePoints.reset();
+        frameDecoded = false;
+        if (!isSharpEnough(source)) {
+            return null;
+        }
+        frameDecoded = true;
+        long frameStart = System.nanoTime();
+        formatReader.beginFrame();
+        if (regionTracker != null) {
+            regionTracker.beginFrame();
+        }
+        Result result = null;
+        // Coarsest first, escalating to the full resolution only if nothing was found
+        for (int level = scaleStats.length - 1; level >= 0 && result == null; level--) {
+            int scale = 1 << level;
+            LuminanceSource scaled = source;
+            if (level > 0) {
+                if (Math.min(source.getWidth(), source.getHeight()) / scale < MIN_SCALED_DIMENSION) {
+                    continue;
+                }
+                scaled = downscaler.downscale(source, scale);
+            }
+            if (regionTracker != null) {
+                regionTracker.setScale(scale);
+                framePoints.setTransform(scale, regionTracker.getLeft(), regionTracker.getTop());
+            } else {
+                framePoints.setTransform(scale, 0, 0);
+            }
+            long start = System.nanoTime();
+            result = decodeAtScale(scaled);
+            scaleStats[level].update(result != null, System.nanoTime() - start);
+            if (result != null && level > 0) {
+                transformResultPoints(result, scale, 0, 0);
+            }
+        }
+        if (regionTracker != null) {
+            if (result != null && regionTracker.isTracking()) {
+                transformResultPoints(result, 1, regionTracker.getLeft(), regionTracker.getTop());
+            }
+            regionTracker.endFrame(result != null, rectWidth, rectHeight);
+        }
+        recordFrame(frameStart, result != null ? 1 : 0);
+        return result;
+    }
+
+    /**
+     * Binarizes the source and looks for every barcode in it, at full resolution only: a shrunk
+     * copy would give up the small barcodes next to a large one.
+     *
+     * @param source The framing rect, from {@link #buildLuminanceSource}.
+     * @return the barcodes found, or {@code null} if there are none, or the frame was skipped as
+     * blurred. Their points are relative to the framing rect.
+     */
+    Result[] decodeMultiple(LuminanceSource source) {
+        framePoints.reset();
+        frameDecoded = false;
+        if (!isSharpEnough(source)) {
+            return null;
+        }
+        frameDecoded = true;
+        framePoints.setTransform(1, 0, 0);
+        BinaryBitmap bitmap = new BinaryBitmap(new TimedBinarizer(source, metrics));
+        long start = System.nanoTime();
+        Result[] results;
+        try {
+            results = multipleReader.decodeMultiple(bitmap);
+        } catch (NotFoundException ignored) {
+            results = null;
+        }
+        scaleStats[0].update(results != null, System.nanoTime() - start);
+        recordFrame(start, results != null ? results.length : 0);
+        return results;
+    }
+
+    /**
+     * @return whether the last frame was decoded, rather than skipped as blurred; a {@code null}
+     * result means no barcode was found in it only then
+     */
+    boolean wasFrameDecoded() {
+        return frameDecoded;
+    }
+
+    /**
+     * @return what the last frame decoded tells about the focus, or null if nothing in particular
+     */
+    FocusFeedback getFocusFeedback() {
+        return focusFeedback;
+    }
+
+    /**
+     * @param bounds receives the left, top, right and bottom of the points, in the coordinates of
+     *               the framing rect
+     * @return whether the last frame decoded reported enough points to tell where a barcode is, in
+     * which case their bounds are returned
+     */
+    boolean getCodeBounds(float[] bounds) {
+        if (framePoints.getCount() < MIN_PATTERN_POINTS) {
+            return false;
+        }
+        framePoints.getBounds(bounds);
+        return true;
+    }
+
+    /**
+     * @return the largest module size estimated from the QR finder patterns of the last frame, in
+     * pixels of the framing rect, or 0 if none were seen
+     */
+    float getModuleSize() {
+        return framePoints.getModuleSize();
+    }
+
+    /**
+     * @param focusFeedbackWanted whether the autofocus uses what {@link #getFocusFeedback()} tells
+     *                            about the sharpness of frames; without it, and with blurred frames
+     *                            not skipped, the sharpness isn't measured at all
+     */
+    void setFocusFeedbackWanted(boolean focusFeedbackWanted) {
+        this.focusFeedbackWanted = focusFeedbackWanted;
+    }
+
+    /**
+     * Measures the sharpness if blurred frames are skipped, or the autofocus wants to know it.
+     */
+    private boolean isSharpEnough(LuminanceSource source) {
+        sharpnessMeasured = skipBlurred || focusFeedbackWanted;
+        if (!sharpnessMeasured) {
+            return true;
+        }
+        long start = System.nanoTime();
+        boolean accept = sharpnessGate.accept(source);
+        metrics.record(ScanMetrics.Timer.SHARPNESS, System.nanoTime() - start);
+        if (skipBlurred && !accept) {
+            metrics.increment(ScanMetrics.Counter.FRAMES_BLURRED);
+            focusFeedback = FocusFeedback.BLURRED;
+            return false;
+        }
+        return true;
+    }
+
+    private void recordFrame(long start, int found) {
+        long nanos = System.nanoTime() - start;
+        if (found > 0) {
+            metrics.record(ScanMetrics.Timer.DECODE_HIT, nanos);
+            metrics.add(ScanMetrics.Counter.BARCODES_FOUND, found);
+        } else {
+            metrics.record(ScanMetrics.Timer.DECODE_MISS, nanos);
+        }
+        if (found > 0) {
+            focusFeedback = FocusFeedback.DECODED;
+        } else if (sharpnessMeasured && sharpnessGate.isLastFrameBlurred()) {
+            focusFeedback = FocusFeedback.BLURRED;
+        } else if (framePoints.getCount() >= MIN_PATTERN_POINTS) {
+            focusFeedback = FocusFeedback.PATTERNS_NOT_DECODED;
+        } else if (sharpnessMeasured && sharpnessGate.isLastFrameSharp()) {
+            focusFeedback = FocusFeedback.SHARP;
+        } else {
+            focusFeedback = null;
+        }
+    }
+
+    private Result decodeAtScale(LuminanceSource source) {
+        BinaryBitmap bitmap = new BinaryBitmap(new TimedBinarizer(source, metrics));
+        try {
+            return formatReader.decode(bitmap);
+        } catch (ReaderException re) {
+            // continue
+            // no need to log this exception ,cause it goes so fast here
+            return null;
+        }
+    }
+
+    private static void transformResultPoints(Result result, int scale, int dx, int dy) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points != null) {
+            for (int i = 0; i < points.length; i++) {
+                ResultPoint point = points[i];
+                if (point != null) {
+                    points[i] = new ResultPoint(point.getX() * scale + dx, point.getY() * scale + dy);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return success rate and mean decode time at each scale tried, for the log
+     */
+    String getScaleStats() {
+        StringBuilder stats = new StringBuilder();
+        for (int level = scaleStats.length - 1; level >= 0; level--) {
+            if (stats.length() > 0) {
+                stats.append("; ");
+            }
+            stats.append(scaleStats[level]);
+        }
+        return stats.toString();
+    }
+
+    /**
+     * Times the binarization of the whole image, which the 2D readers ask for. It is done once per
+     * image; the 1D readers binarize row by row instead, as part of decoding.
+     */
+    private static final class TimedBinarizer extends Binarizer {
+
+        private final Binarizer delegate;
+        private final ScanMetrics metrics;
+
+        TimedBinarizer(LuminanceSource source, ScanMetrics metrics) {
+            this(new HybridBinarizer(source), metrics);
+        }
+
+        private TimedBinarizer(Binarizer delegate, ScanMetrics metrics) {
+            super(delegate.getLuminanceSource());
+            this.delegate = delegate;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public BitArray getBlackRow(int y, BitArray row) throws NotFoundException {
+            return delegate.getBlackRow(y, row);
+        }
+
+        @Override
+        public BitMatrix getBlackMatrix() throws NotFoundException {
+            long start = System.nanoTime();
+            BitMatrix matrix = delegate.getBlackMatrix();
+            metrics.record(ScanMetrics.Timer.BINARIZATION, System.nanoTime() - start);
+            return matrix;
+        }
+
+        @Override
+        public Binarizer createBinarizer(LuminanceSource source) {
+            return new TimedBinarizer(delegate.createBinarizer(source), metrics);
+        }
+
+    }
+
+    /**
+     * Counts the points the readers report in a frame, and keeps their bounds in the coordinates of
+     * the framing rect, passing them on as reported.
+     */
+    private static final class FramePoints implements ResultPointCallback {
+
+        private final ResultPointCallback delegate;
+        private int scale = 1;
+        private int dx;
+        private int dy;
+        private int count;
+        private float minX;
+        private float minY;
+        private float maxX;
+        private float maxY;
+        private float moduleSize;
+
+        FramePoints(ResultPointCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param scale  factor by which the image being decoded was shrunk
+         * @param dx     left edge of the image being decoded, in the framing rect
+         * @param dy     top edge of the image being decoded, in the framing rect
+         */
+        void setTransform(int scale, int dx, int dy) {
+            this.scale = scale;
+            this.dx = dx;
+            this.dy = dy;
+        }
+
+        @Override
+        public void foundPossibleResultPoint(ResultPoint point) {
+            float x = point.getX() * scale + dx;
+            float y = point.getY() * scale + dy;
+            if (count == 0) {
+                minX = maxX = x;
+                minY = maxY = y;
+            } else {
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+            count++;
+            if (point instanceof FinderPattern) {
+                moduleSize = Math.max(moduleSize, ((FinderPattern) point).getEstimatedModuleSize() * scale);
+            }
+            if (delegate != null) {
+                delegate.foundPossibleResultPoint(point);
+            }
+        }
+
+        int getCount() {
+            return count;
+        }
+
+        void getBounds(float[] bounds) {
+            bounds[0] = minX;
+            bounds[1] = minY;
+            bounds[2] = maxX;
+            bounds[3] = maxY;
+        }
+
+        float getModuleSize() {
+            return moduleSize;
+        }
+
+        void reset() {
+            count = 0;
+            moduleSize = 0.0f;
+        }
+
+    }
+
+    /**
+     * Lets {@link GenericMultipleBarcodeReader} reuse the readers set up once, rather than set up new
+     * ones from the hints for each part of the image it tries.
+     */
+    private static final class StatefulReader implements Reader {
+
+        private final MultiFormatReader delegate;
+
+        StatefulReader(MultiFormatReader delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image) throws NotFoundException {
+            return delegate.decodeWithState(image);
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+            return delegate.decodeWithState(image);
+        }
+
+        @Override
+        public void reset() {
+            delegate.reset();
+        }
+
+    }
+
+    private static final class ScaleStats {
+
+        private final int scale;
+        private int attempts;
+        private int hits;
+        private long totalNanos;
+
+        ScaleStats(int scale) {
+            this.scale = scale;
+        }
+
+        void update(boolean found, long nanos) {
+            attempts++;
+            if (found) {
+                hits++;
+            }
+            totalNanos += nanos;
+        }
+
+        @Override
+        public String toString() {
+            if (attempts == 0) {
+                return "1/" + scale + ": not tried";
+            }
+            return String.format(Locale.US, "1/%d: %d/%d found (%.1f%%), %.2f ms each", scale, hits,
+                    attempts, 100.0f * hits / attempts, totalNanos / 1.0e6 / attempts);
+        }
+
+    }
+
+}
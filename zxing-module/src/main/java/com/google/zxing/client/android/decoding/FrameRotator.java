@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+/**
+ * Rotates a landscape preview frame into portrait orientation. Only the requested crop is rotated,
+ * and the output buffer is kept from one frame to the next, so steady-state decoding does not
+ * allocate a copy of the whole preview frame.
+ * <p>
+ * Instances are not thread safe; each decode thread owns its own.
+ */
+final class FrameRotator {
+
+    private byte[] buffer;
+
+    /**
+     * Rotates the given crop of the luminance plane 90 degrees clockwise. The crop is expressed in
+     * rotated coordinates, i.e. in a {@code height x width} image, which is what
+     * {@link com.google.zxing.client.android.camera.CameraManager#getFramingRectInPreview()}
+     * returns in portrait mode.
+     *
+     * @param data       The YUV preview frame, in landscape orientation.
+     * @param width      The width of the preview frame.
+     * @param height     The height of the preview frame.
+     * @param left       Left edge of the crop in rotated coordinates.
+     * @param top        Top edge of the crop in rotated coordinates.
+     * @param cropWidth  Width of the crop in rotated coordinates.
+     * @param cropHeight Height of the crop in rotated coordinates.
+     * @return a buffer holding the rotated crop, row by row with a stride of {@code cropWidth}. It
+     * may be larger than {@code cropWidth * cropHeight} and is overwritten by the next call.
+     */
+    byte[] rotateCrop(byte[] data, int width, int height,
+                      int left, int top, int cropWidth, int cropHeight) {
+        if (left < 0 || top < 0 || left + cropWidth > height || top + cropHeight > width) {
+            throw new IllegalArgumentException("Crop rectangle does not fit within image data.");
+        }
+        int area = cropWidth * cropHeight;
+        byte[] rotated = buffer;
+        if (rotated == null || rotated.length < area) {
+            // Sized once per camera resolution / framing rect
+            rotated = new byte[area];
+            buffer = rotated;
+        }
+        // Rotated pixel (x', y') comes from source pixel (y', height - 1 - x'). Walk the source
+        // rows so that reads stay sequential.
+        for (int x = 0; x < cropWidth; x++) {
+            int sourceOffset = (height - 1 - left - x) * width + top;
+            int rotatedOffset = x;
+            for (int y = 0; y < cropHeight; y++) {
+                rotated[rotatedOffset] = data[sourceOffset + y];
+                rotatedOffset += cropWidth;
+            }
+        }
+        return rotated;
+    }
+
+}
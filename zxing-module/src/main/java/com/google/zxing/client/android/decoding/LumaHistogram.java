@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Coarse histogram of the luminance of the framing rect, from a sparse grid of pixels, to tell
+ * whether it is exposed well enough to decode: too dark, or with highlights clipped by glare, as
+ * off shrink-wrapped labels. Costs a small fraction of binarizing the image.
+ * <p>
+ * Not thread safe; each decode thread owns its own instance.
+ */
+final class LumaHistogram {
+
+    private static final int BIN_SHIFT = 3;
+    private static final int BINS = 256 >> BIN_SHIFT;
+    /**
+     * Only every this many rows and columns are sampled.
+     */
+    private static final int SAMPLE_STEP = 4;
+    /**
+     * Pixels at least this bright are taken as clipped.
+     */
+    private static final int CLIPPED_LUMA = 248;
+
+    private final int[] bins = new int[BINS];
+    private byte[] row;
+    private int samples;
+    private long total;
+
+    /**
+     * @param source the framing rect
+     */
+    void update(LuminanceSource source) {
+        for (int i = 0; i < BINS; i++) {
+            bins[i] = 0;
+        }
+        samples = 0;
+        total = 0L;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        for (int y = SAMPLE_STEP / 2; y < height; y += SAMPLE_STEP) {
+            row = source.getRow(y, row);
+            for (int x = SAMPLE_STEP / 2; x < width; x += SAMPLE_STEP) {
+                int luma = row[x] & 0xff;
+                bins[luma >> BIN_SHIFT]++;
+                total += luma;
+                samples++;
+            }
+        }
+    }
+
+    /**
+     * @return mean luminance, from 0 to 255
+     */
+    float getMean() {
+        return samples > 0 ? total / (float) samples : 0.0f;
+    }
+
+    /**
+     * @return share of the pixels which are clipped white
+     */
+    float getClippedFraction() {
+        if (samples == 0) {
+            return 0.0f;
+        }
+        int clipped = 0;
+        for (int i = CLIPPED_LUMA >> BIN_SHIFT; i < BINS; i++) {
+            clipped += bins[i];
+        }
+        return clipped / (float) samples;
+    }
+
+}
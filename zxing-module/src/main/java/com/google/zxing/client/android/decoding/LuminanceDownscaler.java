@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+
+/**
+ * Shrinks a luminance source by a power of two, averaging each block of pixels into one. A large
+ * barcode close to the camera decodes just as well from the smaller image, and binarizing it costs
+ * a quarter or a sixteenth of the full resolution.
+ * <p>
+ * The buffers are kept from one frame to the next. Not thread safe; each decode thread owns its own
+ * instance.
+ */
+final class LuminanceDownscaler {
+
+    private byte[] row;
+    private int[] sums;
+    private byte[] buffer;
+
+    /**
+     * @param source luminance source to shrink
+     * @param scale  a power of two, by which to divide both dimensions
+     * @return the shrunk source, backed by a buffer which is overwritten by the next call
+     */
+    PlanarYUVLuminanceSource downscale(LuminanceSource source, int scale) {
+        int shift = Integer.numberOfTrailingZeros(scale);
+        int width = source.getWidth() >> shift;
+        int height = source.getHeight() >> shift;
+        if (sums == null || sums.length < width) {
+            sums = new int[width];
+        }
+        int area = width * height;
+        if (buffer == null || buffer.length < area) {
+            // Sized once per framing rect
+            buffer = new byte[area];
+        }
+        int blockShift = shift << 1;
+        int offset = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                sums[x] = 0;
+            }
+            for (int sourceY = y << shift; sourceY < (y + 1) << shift; sourceY++) {
+                row = source.getRow(sourceY, row);
+                int sourceX = 0;
+                for (int x = 0; x < width; x++) {
+                    int sum = 0;
+                    for (int i = 0; i < scale; i++) {
+                        sum += row[sourceX++] & 0xff;
+                    }
+                    sums[x] += sum;
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                buffer[offset++] = (byte) (sums[x] >> blockShift);
+            }
+        }
+        return new PlanarYUVLuminanceSource(buffer, width, height, 0, 0, width, height, false);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+/**
+ * A preview frame waiting to be decoded, tagged with the order and the time in which it arrived
+ * from the camera.
+ */
+final class PreviewFrame {
+
+    private final byte[] data;
+    private final int width;
+    private final int height;
+    private final int sequence;
+    private final long timestamp;
+
+    PreviewFrame(byte[] data, int width, int height, int sequence, long timestamp) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return when the camera delivered the frame, in {@link android.os.SystemClock#uptimeMillis()}
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+}
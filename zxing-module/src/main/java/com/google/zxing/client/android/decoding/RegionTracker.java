@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.ResultPoint;
+import com.google.zxing.ResultPointCallback;
+
+/**
+ * Narrows decoding down to the part of the framing rect where the decoder last reported candidate
+ * {@link ResultPoint}s, such as finder patterns or guard patterns. When the user is already aiming
+ * at a barcode, binarizing and searching that region is much less work than the whole framing rect.
+ * After {@link #MAX_MISSES} frames in a row without a barcode in the region, the next frame is
+ * decoded in full again.
+ * <p>
+ * Regions and points are in the coordinates of the framing rect. Points reported while decoding a
+ * region are moved back into those coordinates before being passed on to the delegate callback.
+ * <p>
+ * Not thread safe; each decode thread owns its own instance.
+ */
+final class RegionTracker implements ResultPointCallback {
+
+    /**
+     * Frames in a row decoded in a region without finding a barcode before falling back to the full
+     * framing rect.
+     */
+    private static final int MAX_MISSES = 4;
+    /**
+     * Candidate points a frame must report before a region is picked from them.
+     */
+    private static final int MIN_POINTS = 2;
+    /**
+     * Margin added around the points on each side, relative to the larger side of their bounds, so
+     * that the rest of the barcode fits in as well.
+     */
+    private static final float MARGIN = 0.75f;
+    /**
+     * A region covering more of the framing rect than this saves too little to be worth it.
+     */
+    private static final float MAX_AREA_FRACTION = 0.6f;
+
+    private final ResultPointCallback delegate;
+    private int scale = 1;
+    private boolean tracking;
+    private int regionLeft;
+    private int regionTop;
+    private int regionWidth;
+    private int regionHeight;
+    private int misses;
+
+    // Bounds of the candidate points reported during the current frame
+    private int pointCount;
+    private float minX;
+    private float minY;
+    private float maxX;
+    private float maxY;
+
+    /**
+     * @param delegate callback to pass the points on to, such as the viewfinder; may be null
+     */
+    RegionTracker(ResultPointCallback delegate) {
+        this.delegate = delegate;
+    }
+
+    boolean isTracking() {
+        return tracking;
+    }
+
+    int getLeft() {
+        return tracking ? regionLeft : 0;
+    }
+
+    int getTop() {
+        return tracking ? regionTop : 0;
+    }
+
+    int getWidth(int rectWidth) {
+        return tracking ? regionWidth : rectWidth;
+    }
+
+    int getHeight(int rectHeight) {
+        return tracking ? regionHeight : rectHeight;
+    }
+
+    /**
+     * Goes back to decoding the full framing rect, e.g. because it changed size.
+     */
+    void reset() {
+        tracking = false;
+        misses = 0;
+    }
+
+    /**
+     * Starts collecting the candidate points of a new frame.
+     */
+    void beginFrame() {
+        pointCount = 0;
+        scale = 1;
+    }
+
+    /**
+     * @param scale factor by which the image being decoded was shrunk, so points reported from now
+     *              on must be scaled up by it
+     */
+    void setScale(int scale) {
+        this.scale = scale;
+    }
+
+    @Override
+    public void foundPossibleResultPoint(ResultPoint point) {
+        float x = point.getX() * scale + getLeft();
+        float y = point.getY() * scale + getTop();
+        if (pointCount == 0) {
+            minX = maxX = x;
+            minY = maxY = y;
+        } else {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        pointCount++;
+        if (delegate != null) {
+            delegate.foundPossibleResultPoint(tracking || scale != 1 ? new ResultPoint(x, y) : point);
+        }
+    }
+
+    /**
+     * Picks the region for the next frame from the outcome of this one.
+     *
+     * @param found      Whether a barcode was found in the frame.
+     * @param rectWidth  Width of the framing rect.
+     * @param rectHeight Height of the framing rect.
+     */
+    void endFrame(boolean found, int rectWidth, int rectHeight) {
+        if (found) {
+            // Keep the region for the next scan, the barcode is likely to be in the same place
+            misses = 0;
+            return;
+        }
+        if (tracking && ++misses >= MAX_MISSES) {
+            // Maybe the region was wrong, or the barcode moved; look at everything again
+            reset();
+            return;
+        }
+        if (pointCount >= MIN_POINTS) {
+            // Follow the points, but don't let that postpone the fallback
+            pickRegion(rectWidth, rectHeight);
+        }
+    }
+
+    private void pickRegion(int rectWidth, int rectHeight) {
+        int margin = (int) (Math.max(maxX - minX, maxY - minY) * MARGIN) + 1;
+        int left = Math.max(0, (int) minX - margin);
+        int top = Math.max(0, (int) minY - margin);
+        int right = Math.min(rectWidth, (int) maxX + margin + 1);
+        int bottom = Math.min(rectHeight, (int) maxY + margin + 1);
+        int width = right - left;
+        int height = bottom - top;
+        if (width <= 0 || height <= 0 ||
+                (float) width * height > MAX_AREA_FRACTION * rectWidth * rectHeight) {
+            reset();
+            return;
+        }
+        if (!tracking) {
+            misses = 0;
+        }
+        tracking = true;
+        regionLeft = left;
+        regionTop = top;
+        regionWidth = width;
+        regionHeight = height;
+    }
+
+}
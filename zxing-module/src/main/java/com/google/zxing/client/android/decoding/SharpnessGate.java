@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.LuminanceSource;
+
+/**
+ * Tells blurred frames apart before they are binarized and decoded for nothing. Sharpness is
+ * estimated as the mean squared gradient over a sample of row pairs, which costs a small fraction
+ * of binarizing the image; motion and focus blur both flatten the gradients.
+ * <p>
+ * What counts as sharp depends on the scene and the light, so the threshold is relative to a moving
+ * average of recent frames: a frame is skipped when it is much blurrier than those, as while the
+ * phone is being moved or the lens refocuses. A steady scene is never skipped, however blurred, and
+ * no more than {@link #MAX_CONSECUTIVE_SKIPS} frames are skipped in a row, so a barcode which would
+ * decode is at worst decoded a few frames later.
+ * <p>
+ * Not thread safe; each decode thread owns its own instance.
+ */
+final class SharpnessGate {
+
+    /**
+     * Row pairs sampled, evenly spread over the image.
+     */
+    private static final int SAMPLE_ROWS = 16;
+    /**
+     * Weight of each new frame in the moving average, about the last 8 frames.
+     */
+    private static final double AVERAGE_WEIGHT = 0.125;
+    /**
+     * A frame less sharp than this share of the moving average is skipped.
+     */
+    private static final double SKIP_RATIO = 0.5;
+    private static final int WARMUP_FRAMES = 4;
+    private static final int MAX_CONSECUTIVE_SKIPS = 2;
+
+    private byte[] row;
+    private byte[] nextRow;
+    private double averageSharpness;
+    private int frames;
+    private int consecutiveSkips;
+    private boolean lastBlurred;
+    private boolean lastSharp;
+
+    /**
+     * @param source the framing rect, or the region of it being decoded
+     * @return whether the frame is worth decoding
+     */
+    boolean accept(LuminanceSource source) {
+        double sharpness = measure(source);
+        boolean warm = frames >= WARMUP_FRAMES;
+        lastBlurred = warm && sharpness < averageSharpness * SKIP_RATIO;
+        lastSharp = !warm || sharpness >= averageSharpness;
+        boolean accept = !lastBlurred || consecutiveSkips >= MAX_CONSECUTIVE_SKIPS;
+        // Skipped frames count as well, so that a scene which stays blurred is let through soon
+        averageSharpness = frames == 0 ? sharpness :
+                averageSharpness + (sharpness - averageSharpness) * AVERAGE_WEIGHT;
+        frames++;
+        consecutiveSkips = accept ? 0 : consecutiveSkips + 1;
+        return accept;
+    }
+
+    /**
+     * @return whether the last frame was much blurrier than the ones before, whether or not it was
+     * accepted
+     */
+    boolean isLastFrameBlurred() {
+        return lastBlurred;
+    }
+
+    /**
+     * @return whether the last frame was at least as sharp as the ones before, on average
+     */
+    boolean isLastFrameSharp() {
+        return lastSharp;
+    }
+
+    /**
+     * @return mean of the squared horizontal and vertical luminance differences, over every other
+     * pixel of the sampled rows
+     */
+    private double measure(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (width < 2 || height < 2) {
+            return 0.0;
+        }
+        int rows = Math.min(SAMPLE_ROWS, height - 1);
+        long energy = 0L;
+        int samples = 0;
+        for (int i = 0; i < rows; i++) {
+            int y = (int) ((long) (height - 1) * (2 * i + 1) / (2 * rows));
+            row = source.getRow(y, row);
+            nextRow = source.getRow(y + 1, nextRow);
+            for (int x = 0; x < width - 1; x += 2) {
+                int luminance = row[x] & 0xff;
+                int dx = (row[x + 1] & 0xff) - luminance;
+                int dy = (nextRow[x] & 0xff) - luminance;
+                energy += dx * dx + dy * dy;
+                samples++;
+            }
+        }
+        return samples > 0 ? energy / (double) samples : 0.0;
+    }
+
+}
@@ -26,6 +26,7 @@ import android.preference.PreferenceManager;
 
 import com.google.zxing.client.android.camera.CameraManager;
 import com.google.zxing.client.android.camera.FrontLightMode;
+import com.google.zxing.client.android.consts.PreferencesActivity;
 
 /**
  * Detects ambient light and switches on the front light when very dark, and off again when sufficiently light.
@@ -49,7 +50,9 @@ public final class AmbientLightManager implements SensorEventListener {
     public void start(CameraManager cameraManager) {
         this.cameraManager = cameraManager;
         SharedPreferences sharedPrefs = PreferenceManager.getDefaultSharedPreferences(context);
-        if (FrontLightMode.readPref(sharedPrefs) == FrontLightMode.AUTO) {
+        // With adaptive exposure, the torch follows the frames themselves instead
+        if (FrontLightMode.readPref(sharedPrefs) == FrontLightMode.AUTO &&
+                !sharedPrefs.getBoolean(PreferencesActivity.KEY_ADAPTIVE_EXPOSURE, true)) {
             SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
             lightSensor = sensorManager.getDefaultSensor(Sensor.TYPE_LIGHT);
             if (lightSensor != null) {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.helper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the barcodes found in bulk scan mode, where scanning goes on after every barcode.
+ * Barcodes that were seen lately are dropped as duplicates; the others are handed to a
+ * {@link Listener} in batches, so that scanning many barcodes in quick succession doesn't flood the
+ * UI thread.
+ * <p>
+ * Also keeps track of how long it takes scanning to resume after a barcode, compared to the time
+ * between two preview frames. Must be used from the thread which created it.
+ */
+public final class BulkScanManager {
+
+    private static final String TAG = BulkScanManager.class.getSimpleName();
+
+    /**
+     * How long a barcode has to be out of view before it is reported again.
+     */
+    private static final long DUPLICATE_WINDOW_MS = 3000L;
+    private static final int MAX_REMEMBERED_BARCODES = 256;
+    private static final long BATCH_DELAY_MS = 250L;
+    private static final int MAX_BATCH_SIZE = 32;
+
+    /**
+     * Receives the new barcodes found in bulk scan mode.
+     */
+    public interface Listener {
+
+        /**
+         * @param results barcodes found since the last batch, oldest first; none of them was seen
+         *                lately before
+         */
+        void onBarcodesScanned(List<Result> results);
+
+    }
+
+    private final Listener listener;
+    private final Handler handler;
+    private final DuplicateFilter duplicateFilter;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private List<Result> batch = new ArrayList<>();
+
+    private int scanned;
+    private int duplicates;
+    private long lastHitTime = -1L;
+    private long lastFrameTime = -1L;
+    private long frameIntervalMs;
+    private int restarts;
+    private long totalRestartMs;
+    private long maxRestartMs;
+    private int slowRestarts;
+
+    public BulkScanManager(Listener listener) {
+        this.listener = listener;
+        handler = new Handler(Looper.myLooper());
+        duplicateFilter = new DuplicateFilter(DUPLICATE_WINDOW_MS, MAX_REMEMBERED_BARCODES);
+    }
+
+    /**
+     * @param result a barcode just decoded
+     * @return true if it is new and will be passed on to the listener, false if it was a duplicate
+     */
+    public boolean offer(Result result) {
+        long now = SystemClock.uptimeMillis();
+        if (duplicateFilter.isDuplicate(result, now)) {
+            duplicates++;
+            return false;
+        }
+        scanned++;
+        lastHitTime = now;
+        batch.add(result);
+        if (batch.size() >= MAX_BATCH_SIZE) {
+            flush();
+        } else if (batch.size() == 1) {
+            handler.postDelayed(flushRunnable, BATCH_DELAY_MS);
+        }
+        return true;
+    }
+
+    /**
+     * Records that a preview frame went to the decoder, which ends the pause after a barcode, if any.
+     *
+     * @param frameTime when the camera delivered the frame, in {@link SystemClock#uptimeMillis()}
+     */
+    public void onFrameSubmitted(long frameTime) {
+        if (lastFrameTime >= 0L) {
+            long interval = frameTime - lastFrameTime;
+            // Smoothed, so that a single late frame doesn't count as the frame rate
+            frameIntervalMs = frameIntervalMs == 0L ? interval : (3 * frameIntervalMs + interval) / 4;
+        }
+        lastFrameTime = frameTime;
+        if (lastHitTime >= 0L) {
+            long restartMs = SystemClock.uptimeMillis() - lastHitTime;
+            lastHitTime = -1L;
+            restarts++;
+            totalRestartMs += restartMs;
+            maxRestartMs = Math.max(maxRestartMs, restartMs);
+            if (frameIntervalMs > 0L && restartMs > frameIntervalMs) {
+                slowRestarts++;
+                Log.d(TAG, "Scanning resumed after " + restartMs + " ms, more than a frame (" +
+                        frameIntervalMs + " ms)");
+            }
+        }
+    }
+
+    /**
+     * Passes the barcodes collected so far on to the listener right away.
+     */
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        if (!batch.isEmpty()) {
+            List<Result> results = batch;
+            batch = new ArrayList<>();
+            listener.onBarcodesScanned(results);
+        }
+    }
+
+    /**
+     * Flushes the last batch and forgets the barcodes seen, e.g. when the activity pauses.
+     */
+    public void close() {
+        flush();
+        duplicateFilter.clear();
+        lastHitTime = -1L;
+        lastFrameTime = -1L;
+        Log.i(TAG, "Bulk scan: " + scanned + " barcode(s), " + duplicates + " duplicate(s); resumed in " +
+                (restarts > 0 ? totalRestartMs / restarts : 0L) + " ms on average, " + maxRestartMs +
+                " ms at most, " + slowRestarts + " time(s) slower than a frame");
+    }
+
+}
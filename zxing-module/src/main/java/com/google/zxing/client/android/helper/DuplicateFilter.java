@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.helper;
+
+import com.google.zxing.Result;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the barcodes seen lately, by content and format, so that a barcode which stays in view
+ * is only reported once. A barcode is forgotten once it hasn't been seen for a while, or when too
+ * many other barcodes were seen after it.
+ */
+final class DuplicateFilter {
+
+    private final long windowMs;
+    private final Map<String, Long> lastSeen;
+
+    /**
+     * @param windowMs   how long after it was last seen a barcode still counts as a duplicate
+     * @param maxEntries how many different barcodes to remember at most
+     */
+    DuplicateFilter(long windowMs, final int maxEntries) {
+        this.windowMs = windowMs;
+        // Insertion order, and a barcode seen again is re-inserted: the eldest entry is the one seen
+        // longest ago
+        lastSeen = new LinkedHashMap<String, Long>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param result a decoded barcode
+     * @param now    the current time, in milliseconds
+     * @return true if the same barcode was seen within the window; either way it counts as seen now
+     */
+    boolean isDuplicate(Result result, long now) {
+        expire(now);
+        String key = result.getBarcodeFormat() + ":" + result.getText();
+        Long previous = lastSeen.remove(key);
+        lastSeen.put(key, now);
+        return previous != null;
+    }
+
+    void clear() {
+        lastSeen.clear();
+    }
+
+    private void expire(long now) {
+        Iterator<Long> it = lastSeen.values().iterator();
+        while (it.hasNext() && now - it.next() >= windowMs) {
+            it.remove();
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.helper;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.zxing.Result;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gathers the barcodes found in multi-code mode, where each frame may yield several. A single frame
+ * seldom catches every barcode on a label, so frames are merged, dropping the barcodes already
+ * found, until a while passes without a new one; then the whole collection is handed to a
+ * {@link Listener} at once.
+ * <p>
+ * Throughput is logged in barcodes per second of scanning, since one scan may yield many. Must be
+ * used from the thread which created it.
+ */
+public final class MultiCodeCollector {
+
+    private static final String TAG = MultiCodeCollector.class.getSimpleName();
+
+    /**
+     * How long to go on scanning after the last new barcode.
+     */
+    private static final long SETTLE_MS = 400L;
+    /**
+     * How long to go on scanning after the first barcode at most, in case new ones keep turning up.
+     */
+    private static final long MAX_COLLECT_MS = 2000L;
+
+    /**
+     * Receives the barcodes found in multi-code mode.
+     */
+    public interface Listener {
+
+        /**
+         * @param results every barcode found since scanning started, in the order they were found,
+         *                each one once
+         */
+        void onBarcodesCollected(List<Result> results);
+
+    }
+
+    private final Listener listener;
+    private final Handler handler;
+    private final Map<String, Result> collected = new LinkedHashMap<>();
+    private final Runnable deliverRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+    private long scanStartTime = -1L;
+    private long firstHitTime;
+
+    private int scans;
+    private int totalCodes;
+    private long totalScanMs;
+
+    public MultiCodeCollector(Listener listener) {
+        this.listener = listener;
+        handler = new Handler(Looper.myLooper());
+    }
+
+    /**
+     * Starts a new collection, when scanning starts or resumes.
+     */
+    public void start() {
+        handler.removeCallbacks(deliverRunnable);
+        collected.clear();
+        scanStartTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * @param results barcodes decoded from one frame
+     * @return how many of them weren't found before
+     */
+    public int offer(Result[] results) {
+        if (scanStartTime < 0L) {
+            return 0;
+        }
+        long now = SystemClock.uptimeMillis();
+        int added = 0;
+        for (Result result : results) {
+            String key = result.getBarcodeFormat() + ":" + result.getText();
+            if (!collected.containsKey(key)) {
+                collected.put(key, result);
+                added++;
+            }
+        }
+        if (added > 0) {
+            if (collected.size() == added) {
+                firstHitTime = now;
+            }
+            handler.removeCallbacks(deliverRunnable);
+            long delay = Math.min(SETTLE_MS, firstHitTime + MAX_COLLECT_MS - now);
+            handler.postDelayed(deliverRunnable, Math.max(0L, delay));
+        }
+        return added;
+    }
+
+    /**
+     * Stops collecting, dropping the barcodes not delivered yet, e.g. when the activity pauses.
+     */
+    public void close() {
+        handler.removeCallbacks(deliverRunnable);
+        collected.clear();
+        scanStartTime = -1L;
+        Log.i(TAG, "Multi-code: " + totalCodes + " barcode(s) in " + scans + " scan(s), " +
+                getCodesPerSecond() + " barcodes/s of scanning");
+    }
+
+    private void deliver() {
+        if (scanStartTime < 0L || collected.isEmpty()) {
+            return;
+        }
+        long scanMs = SystemClock.uptimeMillis() - scanStartTime;
+        List<Result> results = new ArrayList<>(collected.values());
+        scans++;
+        totalCodes += results.size();
+        totalScanMs += scanMs;
+        Log.d(TAG, "Collected " + results.size() + " barcode(s) in " + scanMs + " ms");
+        collected.clear();
+        scanStartTime = -1L;
+        listener.onBarcodesCollected(results);
+    }
+
+    private float getCodesPerSecond() {
+        return totalScanMs > 0L ? totalCodes * 1000.0f / totalScanMs : 0.0f;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations, in buckets whose width grows with the duration: each power of two is
+ * split into {@link #SUB_BUCKETS} equal buckets, so every recorded value is known to within 25%
+ * however long it is, with a fixed, small array. The resolution is about a microsecond.
+ * <p>
+ * Recording takes a few atomic operations and never locks or allocates, so it can be called from
+ * any number of threads on the hot path. A snapshot read while values are being recorded may be off
+ * by those values.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /**
+     * Durations are recorded in units of 2^10 ns, about a microsecond.
+     */
+    private static final int UNIT_SHIFT = 10;
+    /**
+     * Largest power of two of units told apart; longer durations all land in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos a duration, in nanoseconds; negative durations count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0L) {
+            nanos = 0L;
+        }
+        buckets.incrementAndGet(bucketIndex(nanos >>> UNIT_SHIFT));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long n = count.get();
+        return n > 0L ? totalNanos.get() / n : 0L;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the duration that many percent of the recorded durations are no longer than, give or
+     * take the width of its bucket; 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = count.get();
+        if (n == 0L) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0L;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                // Middle of the bucket, but never beyond the largest value actually seen
+                long middle = (bucketLowerBound(i) + bucketLowerBound(i + 1)) << (UNIT_SHIFT - 1);
+                return Math.min(middle, maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0L);
+        }
+        count.set(0L);
+        totalNanos.set(0L);
+        maxNanos.set(0L);
+    }
+
+    private static int bucketIndex(long units) {
+        if (units < 2 * SUB_BUCKETS) {
+            // Small enough to count each value on its own
+            return (int) units;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(units);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int index = (shift + 1) * SUB_BUCKETS + (int) (units >>> shift) - SUB_BUCKETS;
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    private static long bucketLowerBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+}
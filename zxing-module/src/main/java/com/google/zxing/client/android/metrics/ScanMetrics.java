@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.metrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for each stage of the scanning pipeline, from the camera
+ * delivering a frame to the result reaching the UI. Every stage has a fixed slot, so recording is a
+ * few atomic operations without lookups, locks or allocation, cheap enough to leave on in
+ * production.
+ * <p>
+ * {@link Listener}s see every duration as it is recorded, e.g. to forward them elsewhere; the whole
+ * registry can be dumped as JSON with {@link #toJson()}. Thread safe.
+ */
+public final class ScanMetrics {
+
+    /**
+     * Stages of the pipeline which are timed.
+     */
+    public enum Timer {
+        /**
+         * Opening and configuring the camera.
+         */
+        CAMERA_OPEN,
+        /**
+         * From the activity starting or resuming to the first frame having been decoded, whether or
+         * not it held a barcode.
+         */
+        FIRST_DECODE,
+        /**
+         * From asking the camera to focus to it having focused, or given up.
+         */
+        FOCUS,
+        /**
+         * From zooming in on a small code to it being decoded.
+         */
+        ZOOM_TO_DECODE,
+        /**
+         * Between two frames arriving from the camera.
+         */
+        FRAME_INTERVAL,
+        /**
+         * From a frame arriving to a decode thread starting on it.
+         */
+        QUEUE_WAIT,
+        /**
+         * Rotating the framing rect of a portrait frame.
+         */
+        ROTATION,
+        /**
+         * Cropping the framing rect out of a frame, including rotation.
+         */
+        LUMINANCE,
+        /**
+         * Estimating the sharpness of the framing rect, to skip blurred frames.
+         */
+        SHARPNESS,
+        /**
+         * Binarizing the framing rect, or a shrunk copy of it, for the 2D readers.
+         */
+        BINARIZATION,
+        /**
+         * Decoding a frame in which a barcode was found, including binarization.
+         */
+        DECODE_HIT,
+        /**
+         * Decoding a frame in which no barcode was found, including binarization.
+         */
+        DECODE_MISS,
+        /**
+         * Rendering the thumbnail of a decoded frame.
+         */
+        THUMBNAIL,
+        /**
+         * From a decode thread posting a result to the UI thread having handled it.
+         */
+        UI_DELIVERY
+    }
+
+    /**
+     * Events which are counted.
+     */
+    public enum Counter {
+        FRAMES_ARRIVED,
+        FRAMES_DECODED,
+        /**
+         * Frames replaced by a newer one before a decode thread was free.
+         */
+        FRAMES_DROPPED,
+        /**
+         * Frames skipped without decoding, as much blurrier than the recent ones.
+         */
+        FRAMES_BLURRED,
+        BARCODES_FOUND,
+        FOCUS_CYCLES,
+        /**
+         * Decisions of the adaptive exposure.
+         */
+        EXPOSURE_RAISED,
+        EXPOSURE_LOWERED,
+        TORCH_SWITCHED_ON,
+        TORCH_SWITCHED_OFF,
+        /**
+         * Zooming in on small codes, and how it ended: with a decode, or timing out.
+         */
+        ZOOMED_IN,
+        ZOOMED_DECODES,
+        ZOOM_TIMEOUTS
+    }
+
+    /**
+     * Receives durations as they are recorded, on the thread recording them; must be quick.
+     */
+    public interface Listener {
+
+        /**
+         * @param timer the stage timed
+         * @param nanos how long it took
+         */
+        void onTimerRecorded(Timer timer, long nanos);
+
+    }
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    private final LatencyHistogram[] timers;
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    /**
+     * Replaced as a whole when listeners are added or removed, so recording needs no lock.
+     */
+    private volatile Listener[] listeners = NO_LISTENERS;
+
+    public ScanMetrics() {
+        timers = new LatencyHistogram[Timer.values().length];
+        for (int i = 0; i < timers.length; i++) {
+            timers[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Timer timer, long nanos) {
+        timers[timer.ordinal()].record(nanos);
+        Listener[] theListeners = listeners;
+        for (Listener listener : theListeners) {
+            listener.onTimerRecorded(timer, nanos);
+        }
+    }
+
+    /**
+     * Same as {@link #record(Timer, long)}, for durations only known to the millisecond, such as
+     * those measured from message times.
+     */
+    public void recordMillis(Timer timer, long millis) {
+        record(timer, millis * 1000000L);
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long delta) {
+        counters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    public LatencyHistogram getTimer(Timer timer) {
+        return timers[timer.ordinal()];
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] newListeners = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Listener[] newListeners = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+                listeners = newListeners;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Clears every counter and histogram; listeners stay registered.
+     */
+    public void reset() {
+        for (LatencyHistogram timer : timers) {
+            timer.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0L);
+        }
+    }
+
+    /**
+     * @return the counters, and the count, mean, percentiles and maximum of every stage, in
+     * milliseconds
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            JSONObject counts = new JSONObject();
+            for (Counter counter : Counter.values()) {
+                counts.put(name(counter), getCount(counter));
+            }
+            json.put("counters", counts);
+            JSONObject latencies = new JSONObject();
+            for (Timer timer : Timer.values()) {
+                LatencyHistogram histogram = getTimer(timer);
+                JSONObject stats = new JSONObject();
+                stats.put("count", histogram.getCount());
+                stats.put("mean_ms", toMillis(histogram.getMeanNanos()));
+                stats.put("p50_ms", toMillis(histogram.getPercentileNanos(50.0)));
+                stats.put("p90_ms", toMillis(histogram.getPercentileNanos(90.0)));
+                stats.put("p99_ms", toMillis(histogram.getPercentileNanos(99.0)));
+                stats.put("max_ms", toMillis(histogram.getMaxNanos()));
+                latencies.put(name(timer), stats);
+            }
+            json.put("timers", latencies);
+        } catch (JSONException je) {
+            // Only thrown for non-finite numbers, which durations never are
+            throw new IllegalStateException(je);
+        }
+        return json;
+    }
+
+    private static String name(Enum<?> value) {
+        return value.name().toLowerCase(Locale.US);
+    }
+
+    private static double toMillis(long nanos) {
+        // Rounded to the microsecond, more would be noise
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+
+}
@@ -272,7 +272,10 @@ public final class ViewfinderView extends View {
     }
 
     public void addPossibleResultPoint(ResultPoint point) {
-        possibleResultPoints.add(point);
+        // Called from every decode thread
+        synchronized (possibleResultPoints) {
+            possibleResultPoints.add(point);
+        }
     }
 
     public void setCameraManager(CameraManager cameraManager) {
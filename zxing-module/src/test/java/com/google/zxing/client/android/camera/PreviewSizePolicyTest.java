@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.camera;
+
+import android.graphics.Point;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how the preview size is chosen for decoding: the smallest size resolving the framing rect
+ * well enough, and a larger one only if the device decodes it quickly enough.
+ */
+public final class PreviewSizePolicyTest {
+
+    /**
+     * A 4:3 screen in the orientation of the camera, with a framing rect of 5/8 of its height.
+     */
+    private static final Point SCREEN_4_3 = new Point(1440, 1080);
+    private static final Point SCREEN_16_9 = new Point(1920, 1080);
+    private static final int FRAMING_SIDE = 675;
+
+    private static final List<Point> SIZES = Arrays.asList(
+            // Unsorted, as cameras list them
+            new Point(1600, 1200),
+            new Point(1280, 720),
+            new Point(320, 240),
+            new Point(640, 480),
+            new Point(1280, 960),
+            new Point(960, 540),
+            new Point(800, 600));
+
+    @Test
+    public void testSmallestSpanningEnough() {
+        // 480 rows map the 675 pixel framing rect onto 300 preview pixels
+        assertEquals(new Point(640, 480), select(SCREEN_4_3, 300));
+        assertEquals(new Point(800, 600), select(SCREEN_4_3, 301));
+        assertEquals(new Point(1280, 960), select(SCREEN_4_3, 400));
+    }
+
+    @Test
+    public void testAspectRatioOfScreen() {
+        // 640x480 would span enough, but would be stretched on a 16:9 screen
+        assertEquals(new Point(960, 540), select(SCREEN_16_9, 300));
+        assertEquals(new Point(1280, 720), select(SCREEN_16_9, 400));
+    }
+
+    @Test
+    public void testTooSmallSkipped() {
+        // 320x240 spans 150 pixels, but is below the smallest usable preview
+        assertEquals(new Point(640, 480), select(SCREEN_4_3, 100));
+    }
+
+    @Test
+    public void testLargestIfNoneSpansEnough() {
+        assertEquals(new Point(1600, 1200), select(SCREEN_4_3, 10000));
+        assertEquals(new Point(1280, 720), select(SCREEN_16_9, 10000));
+    }
+
+    @Test
+    public void testNoneSuitable() {
+        assertNull(CameraConfigurationUtils.selectDecodableSize(
+                Arrays.asList(new Point(640, 480), new Point(1600, 1200)), SCREEN_16_9, FRAMING_SIDE, 300));
+    }
+
+    @Test
+    public void testChooseBySpeed() {
+        Point smallest = new Point(640, 480);
+        Point preferred = new Point(1280, 960);
+        assertSame(preferred, CameraConfigurationManager.chooseBySpeed(smallest, preferred, 15L * 1000000L));
+        assertSame(preferred, CameraConfigurationManager.chooseBySpeed(smallest, preferred, 40L * 1000000L));
+        assertSame(smallest, CameraConfigurationManager.chooseBySpeed(smallest, preferred, 41L * 1000000L));
+    }
+
+    @Test
+    public void testBenchmarkMeasures() {
+        long nanos = PreviewSizeBenchmark.measureDecodeNanos(300);
+        assertTrue(nanos > 0L);
+        // Not so slow that every device would be held to the smallest size
+        assertTrue(nanos < 2000L * 1000000L);
+    }
+
+    private static Point select(Point screen, int minFramingPixels) {
+        return CameraConfigurationUtils.selectDecodableSize(SIZES, screen, FRAMING_SIDE, minFramingPixels);
+    }
+
+}
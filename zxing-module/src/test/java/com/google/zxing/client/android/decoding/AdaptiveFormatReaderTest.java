@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the order in which {@link AdaptiveFormatReader} tries the format families, and how it
+ * interleaves them across frames.
+ */
+public final class AdaptiveFormatReaderTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final String QR_CONTENTS = "https://github.com/zxing/zxing";
+    private static final String EAN_CONTENTS = "9780201379624";
+
+    @Test
+    public void testOneDFormatsMatchDecodeFormatManager() {
+        Set<BarcodeFormat> oneDFormats = EnumSet.copyOf(DecodeFormatManager.PRODUCT_FORMATS);
+        oneDFormats.addAll(DecodeFormatManager.INDUSTRIAL_FORMATS);
+        assertEquals(oneDFormats, AdaptiveFormatReader.ONE_D_FORMATS);
+    }
+
+    @Test
+    public void testOneDFirstInitially() {
+        AdaptiveFormatReader reader = new AdaptiveFormatReader(buildHints(), false);
+        assertEquals(BarcodeFormat.EAN_13, decodeFrame(reader, bothCodes()).getBarcodeFormat());
+    }
+
+    @Test
+    public void testSuccessfulFamilyMovesFirst() {
+        AdaptiveFormatReader reader = new AdaptiveFormatReader(buildHints(), false);
+        BinaryBitmap qrOnly = qrOnly();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BarcodeFormat.QR_CODE, decodeFrame(reader, qrOnly).getBarcodeFormat());
+        }
+        // The 1D readers keep failing while the QR reader succeeds, so it is tried first now
+        assertEquals(BarcodeFormat.QR_CODE, decodeFrame(reader, bothCodes()).getBarcodeFormat());
+    }
+
+    @Test
+    public void testInterleave() {
+        AdaptiveFormatReader reader = new AdaptiveFormatReader(buildHints(), true);
+        BinaryBitmap eanOnly = eanOnly();
+        // Even frames are for 2D formats, odd ones for 1D
+        assertNull(decodeFrame(reader, eanOnly));
+        assertEquals(BarcodeFormat.EAN_13, decodeFrame(reader, eanOnly).getBarcodeFormat());
+        // Seen lately, so tried on every frame
+        assertEquals(BarcodeFormat.EAN_13, decodeFrame(reader, eanOnly).getBarcodeFormat());
+        assertEquals(BarcodeFormat.EAN_13, decodeFrame(reader, eanOnly).getBarcodeFormat());
+    }
+
+    @Test
+    public void testInterleaveTwoD() {
+        AdaptiveFormatReader reader = new AdaptiveFormatReader(buildHints(), true);
+        BinaryBitmap qrOnly = qrOnly();
+        decodeFrame(reader, eanOnly());
+        // An odd frame, where only 1D formats are tried while QR codes weren't seen
+        assertNull(decodeFrame(reader, qrOnly));
+        assertEquals(BarcodeFormat.QR_CODE, decodeFrame(reader, qrOnly).getBarcodeFormat());
+    }
+
+    @Test
+    public void testInterleaveByFrameNotByScale() {
+        AdaptiveFormatReader reader = new AdaptiveFormatReader(buildHints(), true);
+        BinaryBitmap eanOnly = eanOnly();
+        assertNull(decodeFrame(reader, eanOnly));
+        // The same frame again, as at the next scale of the pyramid: still the 2D formats' turn
+        assertNull(decode(reader, eanOnly));
+        assertEquals(BarcodeFormat.EAN_13, decodeFrame(reader, eanOnly).getBarcodeFormat());
+    }
+
+    @Test
+    public void testWithoutInterleaveEveryFamilyTried() {
+        AdaptiveFormatReader reader = new AdaptiveFormatReader(buildHints(), false);
+        assertEquals(BarcodeFormat.QR_CODE, decodeFrame(reader, qrOnly()).getBarcodeFormat());
+        assertEquals(BarcodeFormat.EAN_13, decodeFrame(reader, eanOnly()).getBarcodeFormat());
+    }
+
+    /**
+     * @return the barcode found in the next frame, or null
+     */
+    private static Result decodeFrame(AdaptiveFormatReader reader, BinaryBitmap image) {
+        reader.beginFrame();
+        return decode(reader, image);
+    }
+
+    /**
+     * @return the barcode found decoding once more within the current frame, or null
+     */
+    private static Result decode(AdaptiveFormatReader reader, BinaryBitmap image) {
+        try {
+            return reader.decode(image);
+        } catch (NotFoundException nfe) {
+            return null;
+        }
+    }
+
+    private static Map<DecodeHintType, Object> buildHints() {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.EAN_13));
+        return hints;
+    }
+
+    private static BinaryBitmap qrOnly() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(frame, WIDTH, TestFrames.encode(BarcodeFormat.QR_CODE, QR_CONTENTS, 6), 20, 20);
+        return TestFrames.bitmap(frame, WIDTH, HEIGHT);
+    }
+
+    private static BinaryBitmap eanOnly() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(frame, WIDTH, TestFrames.encode(BarcodeFormat.EAN_13, EAN_CONTENTS, 3), 280, 100);
+        return TestFrames.bitmap(frame, WIDTH, HEIGHT);
+    }
+
+    private static BinaryBitmap bothCodes() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+        BitMatrix qrCode = TestFrames.encode(BarcodeFormat.QR_CODE, QR_CONTENTS, 6);
+        TestFrames.draw(frame, WIDTH, qrCode, 20, 20);
+        TestFrames.draw(frame, WIDTH, TestFrames.encode(BarcodeFormat.EAN_13, EAN_CONTENTS, 3), 280, 100);
+        return TestFrames.bitmap(frame, WIDTH, HEIGHT);
+    }
+
+}
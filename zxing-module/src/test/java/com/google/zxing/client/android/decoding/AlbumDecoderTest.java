@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import android.graphics.Rect;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the full resolution tiles of {@link AlbumDecoder} cover the whole image, and that any
+ * barcode no larger than their overlap lies entirely within one of them.
+ */
+public final class AlbumDecoderTest {
+
+    private static final int[][] SIZES = {
+            {800, 600}, {1024, 1024}, {1025, 768}, {2048, 1536}, {4032, 3024}, {3000, 4000}, {1030, 5000}
+    };
+
+    @Test
+    public void testTileCount() {
+        AlbumDecoder decoder = new AlbumDecoder(null);
+        for (int[] size : SIZES) {
+            assertEquals(AlbumDecoder.countTiles(size[0], size[1]),
+                    decoder.buildTiles(size[0], size[1]).size());
+        }
+        assertEquals(1, AlbumDecoder.countTiles(1024, 1024));
+        assertEquals(2, AlbumDecoder.countTiles(1025, 1024));
+    }
+
+    @Test
+    public void testTilesWithinImage() {
+        AlbumDecoder decoder = new AlbumDecoder(null);
+        for (int[] size : SIZES) {
+            for (Rect tile : decoder.buildTiles(size[0], size[1])) {
+                assertTrue(tile.left >= 0 && tile.top >= 0);
+                assertTrue(tile.right <= size[0] && tile.bottom <= size[1]);
+                assertTrue(tile.width() <= AlbumDecoder.TILE_SIZE && tile.height() <= AlbumDecoder.TILE_SIZE);
+            }
+        }
+    }
+
+    @Test
+    public void testEveryPixelCovered() {
+        AlbumDecoder decoder = new AlbumDecoder(null);
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            boolean[] covered = new boolean[width * height];
+            for (Rect tile : decoder.buildTiles(width, height)) {
+                for (int y = tile.top; y < tile.bottom; y++) {
+                    for (int x = tile.left; x < tile.right; x++) {
+                        covered[y * width + x] = true;
+                    }
+                }
+            }
+            for (int i = 0; i < covered.length; i++) {
+                if (!covered[i]) {
+                    fail("Pixel " + i % width + ',' + i / width + " of " + width + 'x' + height + " not covered");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOverlapSizedBarcodeWithinOneTile() {
+        AlbumDecoder decoder = new AlbumDecoder(null);
+        int side = AlbumDecoder.TILE_OVERLAP;
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            List<Rect> tiles = decoder.buildTiles(width, height);
+            // The tiles form a grid, so sliding the square along each edge pixel by pixel is enough
+            for (int left = 0; left + side <= width; left++) {
+                checkWithinOneTile(tiles, left, 0, side);
+                checkWithinOneTile(tiles, left, height - side, side);
+            }
+            for (int top = 0; top + side <= height; top++) {
+                checkWithinOneTile(tiles, 0, top, side);
+                checkWithinOneTile(tiles, width - side, top, side);
+            }
+        }
+    }
+
+    private static void checkWithinOneTile(List<Rect> tiles, int left, int top, int side) {
+        for (Rect tile : tiles) {
+            if (tile.contains(left, top, left + side, top + side)) {
+                return;
+            }
+        }
+        fail("No tile holds the " + side + " pixel square at " + left + ',' + top);
+    }
+
+}
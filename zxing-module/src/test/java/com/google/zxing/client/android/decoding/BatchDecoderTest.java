@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link BatchDecoder} over synthetic images on a plain JVM: how many images it holds at once,
+ * cancelling, and the decoders of its worker threads.
+ */
+public final class BatchDecoderTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final String QR_CONTENTS = "https://github.com/zxing/zxing";
+
+    @Test
+    public void testDecodesEveryImage() throws InterruptedException {
+        List<String> paths = buildPaths(12);
+        FrameLoader loader = new FrameLoader(0L);
+        BatchDecoder decoder = new BatchDecoder(buildHints(), loader, 3, 3);
+        RecordingListener listener = new RecordingListener();
+        try {
+            decoder.decode(paths, listener);
+        } finally {
+            decoder.shutdown();
+        }
+        assertEquals(12, listener.images);
+        // The even paths hold a barcode, the odd ones are blank
+        assertEquals(6, listener.found);
+        assertEquals(12, listener.results.size());
+        for (int i = 0; i < paths.size(); i++) {
+            Result result = listener.results.get(paths.get(i));
+            if (i % 2 == 0) {
+                assertEquals(QR_CONTENTS, result.getText());
+            } else {
+                assertNull(result);
+            }
+        }
+    }
+
+    @Test
+    public void testBoundedInFlight() throws InterruptedException {
+        FrameLoader loader = new FrameLoader(20L);
+        // More workers than images allowed at once, so the bound isn't just the thread count
+        BatchDecoder decoder = new BatchDecoder(buildHints(), loader, 4, 2);
+        RecordingListener listener = new RecordingListener();
+        try {
+            decoder.decode(buildPaths(10), listener);
+        } finally {
+            decoder.shutdown();
+        }
+        assertEquals(10, listener.images);
+        assertEquals(2, loader.maxLoading.get());
+    }
+
+    @Test
+    public void testCancelBeforeBatch() throws InterruptedException {
+        BatchDecoder decoder = new BatchDecoder(buildHints(), new FrameLoader(0L), 2, 2);
+        try {
+            decoder.cancel();
+            RecordingListener cancelled = new RecordingListener();
+            decoder.decode(buildPaths(6), cancelled);
+            assertEquals(0, cancelled.images);
+            assertTrue(cancelled.finished);
+            // The cancel applied to that batch only
+            RecordingListener next = new RecordingListener();
+            decoder.decode(buildPaths(6), next);
+            assertEquals(6, next.images);
+        } finally {
+            decoder.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelDuringBatch() throws InterruptedException {
+        final BatchDecoder decoder = new BatchDecoder(buildHints(), new FrameLoader(5L), 1, 1);
+        RecordingListener listener = new RecordingListener() {
+            @Override
+            public synchronized void onImageDecoded(String path, Result result) {
+                super.onImageDecoded(path, result);
+                decoder.cancel();
+            }
+        };
+        try {
+            decoder.decode(buildPaths(10), listener);
+        } finally {
+            decoder.shutdown();
+        }
+        // The image being decoded when the cancel came is the last one
+        assertEquals(1, listener.images);
+        assertTrue(listener.finished);
+    }
+
+    @Test
+    public void testDecoderPerThread() throws InterruptedException {
+        final AtomicInteger created = new AtomicInteger();
+        final Map<BatchDecoder.ImageDecoder, Set<Thread>> threadsByDecoder = new ConcurrentHashMap<>();
+        BatchDecoder decoder = new BatchDecoder(new BatchDecoder.ImageDecoderFactory() {
+            @Override
+            public BatchDecoder.ImageDecoder newImageDecoder() {
+                created.incrementAndGet();
+                final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+                BatchDecoder.ImageDecoder imageDecoder = new BatchDecoder.ImageDecoder() {
+                    @Override
+                    public Result decode(String path) throws IOException {
+                        threads.add(Thread.currentThread());
+                        try {
+                            Thread.sleep(2L);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    }
+                };
+                threadsByDecoder.put(imageDecoder, threads);
+                return imageDecoder;
+            }
+        }, 3, 3);
+        RecordingListener listener = new RecordingListener();
+        try {
+            decoder.decode(buildPaths(30), listener);
+        } finally {
+            decoder.shutdown();
+        }
+        assertEquals(30, listener.images);
+        assertTrue(created.get() >= 1 && created.get() <= 3);
+        for (Set<Thread> threads : threadsByDecoder.values()) {
+            assertEquals(1, threads.size());
+        }
+    }
+
+    @Test
+    public void testUnreadableImage() throws InterruptedException {
+        BatchDecoder decoder = new BatchDecoder(buildHints(), new BatchDecoder.ImageLoader() {
+            @Override
+            public LuminanceSource load(String path) throws IOException {
+                throw new IOException("Can't read " + path);
+            }
+        }, 1, 1);
+        RecordingListener listener = new RecordingListener();
+        try {
+            decoder.decode(buildPaths(2), listener);
+        } finally {
+            decoder.shutdown();
+        }
+        assertEquals(2, listener.images);
+        assertEquals(0, listener.found);
+        assertNull(listener.results.get("0"));
+    }
+
+    private static List<String> buildPaths(int count) {
+        List<String> paths = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            paths.add(String.valueOf(i));
+        }
+        return paths;
+    }
+
+    private static Map<DecodeHintType, Object> buildHints() {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, Collections.singleton(BarcodeFormat.QR_CODE));
+        return hints;
+    }
+
+    /**
+     * Loads a QR code for even paths and a blank image for odd ones, keeping track of how many
+     * images are being loaded at once.
+     */
+    private static final class FrameLoader implements BatchDecoder.ImageLoader {
+
+        private final long delayMs;
+        private final AtomicInteger loading = new AtomicInteger();
+        private final AtomicInteger maxLoading = new AtomicInteger();
+
+        FrameLoader(long delayMs) {
+            this.delayMs = delayMs;
+        }
+
+        @Override
+        public LuminanceSource load(String path) throws IOException {
+            int now = loading.incrementAndGet();
+            while (true) {
+                int max = maxLoading.get();
+                if (now <= max || maxLoading.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            try {
+                if (delayMs > 0L) {
+                    Thread.sleep(delayMs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                loading.decrementAndGet();
+            }
+            byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+            if (Integer.parseInt(path) % 2 == 0) {
+                TestFrames.draw(frame, WIDTH, TestFrames.encode(BarcodeFormat.QR_CODE, QR_CONTENTS, 4), 40, 20);
+            }
+            return TestFrames.source(frame, WIDTH, HEIGHT);
+        }
+
+    }
+
+    private static class RecordingListener implements BatchDecoder.Listener {
+
+        final Map<String, Result> results = new HashMap<>();
+        int images;
+        int found;
+        boolean finished;
+
+        @Override
+        public synchronized void onImageDecoded(String path, Result result) {
+            results.put(path, result);
+            images++;
+            if (result != null) {
+                found++;
+            }
+        }
+
+        @Override
+        public synchronized void onBatchFinished(int images, int found, long elapsedMs) {
+            assertEquals(this.images, images);
+            assertEquals(this.found, found);
+            finished = true;
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import com.google.zxing.client.android.camera.FakeFrameSource;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Plays known NV21 frames from a {@link FakeFrameSource} through its frame buffers into a
+ * {@link FrameDecoder}, as the decode threads would take them.
+ */
+public final class FakeFramePipelineTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final String QR_CONTENTS = "https://github.com/zxing/zxing";
+
+    @Test
+    public void testFramesDecodedInTurn() {
+        byte[] qrFrame = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(qrFrame, WIDTH, TestFrames.encode(BarcodeFormat.QR_CODE, QR_CONTENTS, 4), 20, 20);
+        byte[] blankFrame = TestFrames.blank(WIDTH, HEIGHT);
+        ScanMetrics metrics = new ScanMetrics();
+        final FakeFrameSource source = new FakeFrameSource(metrics, WIDTH, HEIGHT, 30, qrFrame, blankFrame);
+        final FrameDecoder decoder = FrameDecoderTest.newDecoder(false, false);
+        final List<Result> results = new ArrayList<>();
+        source.setReceiver(new FakeFrameSource.FrameReceiver() {
+            @Override
+            public void onFrame(byte[] data, int stride, int height) {
+                results.add(decoder.decode(decoder.buildLuminanceSource(data, stride, height, false,
+                        0, 0, WIDTH, HEIGHT)));
+                source.releaseFrame(data);
+            }
+        });
+        for (int i = 0; i < 6; i++) {
+            source.playFrame();
+        }
+        assertEquals(6, results.size());
+        for (int i = 0; i < results.size(); i += 2) {
+            assertEquals(QR_CONTENTS, results.get(i).getText());
+            assertNull(results.get(i + 1));
+        }
+        assertEquals(6, source.getFramesPlayed());
+        assertEquals(6L, metrics.getCount(ScanMetrics.Counter.FRAMES_ARRIVED));
+    }
+
+    @Test
+    public void testFramesDroppedWhileBuffersTaken() {
+        final FakeFrameSource source = new FakeFrameSource(new ScanMetrics(), WIDTH, HEIGHT, 30,
+                TestFrames.blank(WIDTH, HEIGHT));
+        final List<byte[]> taken = new ArrayList<>();
+        source.setReceiver(new FakeFrameSource.FrameReceiver() {
+            @Override
+            public void onFrame(byte[] data, int stride, int height) {
+                // Kept, as by a decoder which is still busy with it
+                taken.add(data);
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            source.playFrame();
+        }
+        // The ring of three buffers is taken, so the other two frames were dropped
+        assertEquals(3, taken.size());
+        byte[] released = taken.get(1);
+        source.releaseFrame(released);
+        source.playFrame();
+        assertEquals(4, taken.size());
+        assertSame(released, taken.get(3));
+    }
+
+    @Test
+    public void testBufferRingSizedForDecoders() {
+        final FakeFrameSource source = new FakeFrameSource(new ScanMetrics(), WIDTH, HEIGHT, 30,
+                TestFrames.blank(WIDTH, HEIGHT));
+        // Four decode threads, as DecodePool would ask for
+        source.setBufferCount(4 + 2);
+        final List<byte[]> taken = new ArrayList<>();
+        source.setReceiver(new FakeFrameSource.FrameReceiver() {
+            @Override
+            public void onFrame(byte[] data, int stride, int height) {
+                taken.add(data);
+            }
+        });
+        for (int i = 0; i < 8; i++) {
+            source.playFrame();
+        }
+        assertEquals(6, taken.size());
+    }
+
+}
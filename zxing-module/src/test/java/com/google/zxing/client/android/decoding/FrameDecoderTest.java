@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.client.android.metrics.ScanMetrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks what {@link FrameDecoder} reports about each frame besides the barcode found.
+ */
+public final class FrameDecoderTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final String QR_CONTENTS = "https://github.com/zxing/zxing";
+
+    @Test
+    public void testCodeBoundsOfDecodedFrame() {
+        FrameDecoder decoder = newDecoder(false, true);
+        assertEquals(QR_CONTENTS, decoder.decode(qrCode()).getText());
+        float[] bounds = new float[4];
+        assertTrue(decoder.getCodeBounds(bounds));
+        // Finder pattern centers, within the code drawn at 20,20
+        assertTrue(bounds[0] > 20.0f && bounds[1] > 20.0f);
+        assertTrue(decoder.getModuleSize() > 3.0f);
+    }
+
+    @Test
+    public void testSkippedFrameForgetsPoints() {
+        FrameDecoder decoder = newDecoder(false, true);
+        LuminanceSource sharp = qrCode();
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(decoder.decode(sharp));
+        }
+        assertNull(decoder.decode(blank()));
+        assertFalse(decoder.getCodeBounds(new float[4]));
+        assertEquals(0.0f, decoder.getModuleSize(), 0.0f);
+    }
+
+    @Test
+    public void testSkippedMultipleFrameForgetsPoints() {
+        FrameDecoder decoder = newDecoder(true, true);
+        LuminanceSource sharp = qrCode();
+        for (int i = 0; i < 8; i++) {
+            assertNotNull(decoder.decodeMultiple(sharp));
+        }
+        assertNull(decoder.decodeMultiple(blank()));
+        assertFalse(decoder.getCodeBounds(new float[4]));
+    }
+
+    @Test
+    public void testSkippedFrameNotDecoded() {
+        FrameDecoder decoder = newDecoder(false, true);
+        LuminanceSource sharp = qrCode();
+        for (int i = 0; i < 8; i++) {
+            decoder.decode(sharp);
+            assertTrue(decoder.wasFrameDecoded());
+        }
+        assertNull(decoder.decode(blank()));
+        assertFalse(decoder.wasFrameDecoded());
+    }
+
+    @Test
+    public void testFrameWithoutBarcodeDecoded() {
+        // Nothing is skipped, so a null result means there is no barcode in the frame
+        FrameDecoder decoder = newDecoder(false, false);
+        assertNull(decoder.decode(blank()));
+        assertTrue(decoder.wasFrameDecoded());
+    }
+
+    @Test
+    public void testThumbnailOfTrackedRegion() {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE));
+        FrameDecoder decoder = new FrameDecoder(hints, new DecodeOptions().setTrackRegion(true),
+                new ScanMetrics());
+        BitMatrix qrCode = TestFrames.encode(BarcodeFormat.QR_CODE, QR_CONTENTS, 4);
+        // The finder patterns, but too little of the rest to decode, so the tracker follows them
+        byte[] damaged = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(damaged, WIDTH, qrCode, 150, 90);
+        for (int y = 90 + qrCode.getHeight() / 3; y < 90 + qrCode.getHeight() * 2 / 3; y++) {
+            Arrays.fill(damaged, y * WIDTH + 150, y * WIDTH + 150 + qrCode.getWidth(), TestFrames.WHITE);
+        }
+        assertNull(decoder.decode(decoder.buildLuminanceSource(damaged, WIDTH, HEIGHT, false,
+                0, 0, WIDTH, HEIGHT)));
+
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(frame, WIDTH, qrCode, 150, 90);
+        PlanarYUVLuminanceSource source = decoder.buildLuminanceSource(frame, WIDTH, HEIGHT, false,
+                0, 0, WIDTH, HEIGHT);
+        assertTrue(source.getWidth() < WIDTH);
+        Result result = decoder.decode(source);
+        assertEquals(QR_CONTENTS, result.getText());
+
+        PlanarYUVLuminanceSource thumbnail = decoder.buildThumbnailSource(source, frame, WIDTH, HEIGHT,
+                false, 0, 0, WIDTH, HEIGHT);
+        assertEquals(WIDTH, thumbnail.getWidth());
+        assertEquals(HEIGHT, thumbnail.getHeight());
+        byte[] pixels = thumbnail.getMatrix();
+        // The first three are the centers of the finder patterns, which are dark
+        for (int i = 0; i < 3; i++) {
+            ResultPoint point = result.getResultPoints()[i];
+            int offset = (int) point.getY() * WIDTH + (int) point.getX();
+            assertEquals(TestFrames.BLACK, pixels[offset]);
+        }
+    }
+
+    @Test
+    public void testSharpnessMeasuredOnlyIfUsed() {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE));
+        ScanMetrics metrics = new ScanMetrics();
+        FrameDecoder decoder = new FrameDecoder(hints, new DecodeOptions(), metrics);
+        decoder.decode(qrCode());
+        assertEquals(0L, metrics.getTimer(ScanMetrics.Timer.SHARPNESS).getCount());
+        decoder.setFocusFeedbackWanted(true);
+        decoder.decode(qrCode());
+        assertEquals(1L, metrics.getTimer(ScanMetrics.Timer.SHARPNESS).getCount());
+    }
+
+    static FrameDecoder newDecoder(boolean multiCode, boolean skipBlurred) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.EAN_13));
+        return new FrameDecoder(hints, new DecodeOptions().setMultiCode(multiCode).setSkipBlurred(skipBlurred),
+                new ScanMetrics());
+    }
+
+    static LuminanceSource qrCode() {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(frame, WIDTH, TestFrames.encode(BarcodeFormat.QR_CODE, QR_CONTENTS, 4), 20, 20);
+        return TestFrames.source(frame, WIDTH, HEIGHT);
+    }
+
+    /**
+     * @return a frame without any gradient, which the gate skips as blurred
+     */
+    static LuminanceSource blank() {
+        return TestFrames.source(TestFrames.blank(WIDTH, HEIGHT), WIDTH, HEIGHT);
+    }
+
+}
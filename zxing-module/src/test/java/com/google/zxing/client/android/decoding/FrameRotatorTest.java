@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks {@link FrameRotator} against the loop it replaced, which rotated the whole frame before
+ * the framing rect was cropped out of it.
+ */
+public final class FrameRotatorTest {
+
+    @Test
+    public void testEvenSize() {
+        checkAllCrops(8, 6);
+    }
+
+    @Test
+    public void testOddSize() {
+        checkAllCrops(7, 5);
+    }
+
+    @Test
+    public void testPreviewSize() {
+        byte[] frame = randomFrame(640, 480);
+        // A centered framing rect in portrait coordinates, as CameraManager computes it
+        checkCrop(frame, 640, 480, 90, 170, 300, 300);
+        checkCrop(frame, 640, 480, 0, 0, 480, 640);
+    }
+
+    @Test
+    public void testBufferReused() {
+        FrameRotator rotator = new FrameRotator();
+        byte[] frame = randomFrame(640, 480);
+        byte[] first = rotator.rotateCrop(frame, 640, 480, 90, 170, 300, 300);
+        byte[] second = rotator.rotateCrop(randomFrame(640, 480), 640, 480, 90, 170, 300, 300);
+        assertSame(first, second);
+        // Smaller crops fit into the buffer as well
+        assertSame(first, rotator.rotateCrop(frame, 640, 480, 10, 20, 200, 100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCropOutside() {
+        // The rotated frame is only 480 wide
+        new FrameRotator().rotateCrop(randomFrame(640, 480), 640, 480, 200, 0, 300, 300);
+    }
+
+    private static void checkAllCrops(int width, int height) {
+        byte[] frame = randomFrame(width, height);
+        // Rotated, the frame is height wide and width high
+        for (int top = 0; top < width; top++) {
+            for (int left = 0; left < height; left++) {
+                for (int cropHeight = 1; top + cropHeight <= width; cropHeight++) {
+                    for (int cropWidth = 1; left + cropWidth <= height; cropWidth++) {
+                        checkCrop(frame, width, height, left, top, cropWidth, cropHeight);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void checkCrop(byte[] frame, int width, int height,
+                                  int left, int top, int cropWidth, int cropHeight) {
+        byte[] rotated = new FrameRotator().rotateCrop(frame, width, height, left, top, cropWidth, cropHeight);
+        byte[] actual = new byte[cropWidth * cropHeight];
+        System.arraycopy(rotated, 0, actual, 0, actual.length);
+        assertArrayEquals("crop " + left + ',' + top + ' ' + cropWidth + 'x' + cropHeight + " of " +
+                width + 'x' + height, referenceCrop(frame, width, height, left, top, cropWidth, cropHeight), actual);
+    }
+
+    /**
+     * The rotation DecodeHandler used to do, followed by the crop.
+     */
+    private static byte[] referenceCrop(byte[] data, int width, int height,
+                                        int left, int top, int cropWidth, int cropHeight) {
+        byte[] rotatedData = new byte[data.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                rotatedData[x * height + height - y - 1] = data[x + y * width];
+            }
+        }
+        byte[] crop = new byte[cropWidth * cropHeight];
+        for (int y = 0; y < cropHeight; y++) {
+            System.arraycopy(rotatedData, (top + y) * height + left, crop, y * cropWidth, cropWidth);
+        }
+        return crop;
+    }
+
+    private static byte[] randomFrame(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        new Random(width * 31 + height).nextBytes(frame);
+        return frame;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which frames {@link SharpnessGate} lets through: its warm-up, the threshold relative to the
+ * recent frames, and the limit on frames skipped in a row.
+ */
+public final class SharpnessGateTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static final String QR_CONTENTS = "https://github.com/zxing/zxing";
+
+    private final LuminanceSource sharp = build(QR_CONTENTS, 0, 1.0);
+    /**
+     * Blurred enough to lose well over half of the gradient energy.
+     */
+    private final LuminanceSource blurred = build(QR_CONTENTS, 4, 1.0);
+    /**
+     * Lower contrast: about 64% of the gradient energy, below the average but above the threshold.
+     */
+    private final LuminanceSource soft = build(QR_CONTENTS, 0, 0.8);
+
+    @Test
+    public void testWarmup() {
+        SharpnessGate gate = new SharpnessGate();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(gate.accept(i == 0 ? sharp : blurred));
+            assertFalse(gate.isLastFrameBlurred());
+            assertTrue(gate.isLastFrameSharp());
+        }
+    }
+
+    @Test
+    public void testBlurredSkipped() {
+        SharpnessGate gate = warmedUp();
+        assertFalse(gate.accept(blurred));
+        assertTrue(gate.isLastFrameBlurred());
+        assertFalse(gate.isLastFrameSharp());
+        assertTrue(gate.accept(sharp));
+        assertFalse(gate.isLastFrameBlurred());
+        assertTrue(gate.isLastFrameSharp());
+    }
+
+    @Test
+    public void testSofterAccepted() {
+        SharpnessGate gate = warmedUp();
+        assertTrue(gate.accept(soft));
+        assertFalse(gate.isLastFrameBlurred());
+        // Not as sharp as the frames before it, though
+        assertFalse(gate.isLastFrameSharp());
+    }
+
+    @Test
+    public void testAtMostTwoSkippedInARow() {
+        SharpnessGate gate = warmedUp();
+        assertFalse(gate.accept(blurred));
+        assertFalse(gate.accept(blurred));
+        // Let through, although still blurred compared to the average
+        assertTrue(gate.accept(blurred));
+        assertTrue(gate.isLastFrameBlurred());
+        assertFalse(gate.accept(blurred));
+    }
+
+    @Test
+    public void testSteadyBlurredSceneLetThrough() {
+        SharpnessGate gate = warmedUp();
+        // The average follows the scene, so a camera that stays blurred stops being skipped
+        boolean blurredAgain = true;
+        for (int i = 0; i < 30 && blurredAgain; i++) {
+            gate.accept(blurred);
+            blurredAgain = gate.isLastFrameBlurred();
+        }
+        assertFalse(blurredAgain);
+        assertTrue(gate.accept(blurred));
+    }
+
+    @Test
+    public void testTinySource() {
+        SharpnessGate gate = new SharpnessGate();
+        assertTrue(gate.accept(TestFrames.source(TestFrames.blank(2, 2), 1, 1)));
+    }
+
+    /**
+     * Plays a scan session, barcode after barcode, each brought into view blurred, through a
+     * decoder skipping blurred frames and one decoding every frame: the same barcodes decode, at
+     * most two frames later.
+     */
+    @Test
+    public void testNoBarcodeLost() {
+        List<LuminanceSource> frames = new ArrayList<>();
+        List<String> shown = new ArrayList<>();
+        // Aiming at the first one, steadily
+        addFrames(frames, shown, "first", 0, 6);
+        // Moving to the next, which is blurred at first, then still a little soft
+        addFrames(frames, shown, "second", 4, 2);
+        addFrames(frames, shown, "second", 1, 1);
+        addFrames(frames, shown, "second", 0, 3);
+        // Shaking while aiming
+        addFrames(frames, shown, "third", 0, 2);
+        addFrames(frames, shown, "third", 4, 1);
+        addFrames(frames, shown, "third", 0, 2);
+        // The lens refocusing for longer than frames are skipped in a row
+        addFrames(frames, shown, "fourth", 4, 5);
+        addFrames(frames, shown, "fourth", 0, 2);
+
+        List<Integer> skipped = new ArrayList<>();
+        Map<String, Integer> decodedEveryFrame = firstDecoded(FrameDecoderTest.newDecoder(false, false), frames,
+                skipped);
+        assertTrue(skipped.isEmpty());
+        Map<String, Integer> decodedSkipping = firstDecoded(FrameDecoderTest.newDecoder(false, true), frames,
+                skipped);
+        assertFalse(skipped.isEmpty());
+        assertEquals(new LinkedHashSet<>(shown), decodedEveryFrame.keySet());
+        assertEquals(decodedEveryFrame.keySet(), decodedSkipping.keySet());
+        for (Map.Entry<String, Integer> entry : decodedEveryFrame.entrySet()) {
+            int delay = decodedSkipping.get(entry.getKey()) - entry.getValue();
+            assertTrue(entry.getKey() + " decoded " + delay + " frames later", delay >= 0 && delay <= 2);
+        }
+    }
+
+    private static void addFrames(List<LuminanceSource> frames, List<String> shown, String contents,
+                                  int blurRadius, int count) {
+        LuminanceSource frame = build(contents, blurRadius, 1.0);
+        for (int i = 0; i < count; i++) {
+            frames.add(frame);
+            shown.add(contents);
+        }
+    }
+
+    /**
+     * @param skipped receives the indexes of the frames skipped as blurred
+     * @return the index of the first frame each barcode was decoded in, by its contents
+     */
+    private static Map<String, Integer> firstDecoded(FrameDecoder decoder, List<LuminanceSource> frames,
+                                                     List<Integer> skipped) {
+        Map<String, Integer> decoded = new LinkedHashMap<>();
+        for (int i = 0; i < frames.size(); i++) {
+            Result result = decoder.decode(frames.get(i));
+            if (!decoder.wasFrameDecoded()) {
+                skipped.add(i);
+            }
+            if (result != null && !decoded.containsKey(result.getText())) {
+                decoded.put(result.getText(), i);
+            }
+        }
+        return decoded;
+    }
+
+    private SharpnessGate warmedUp() {
+        SharpnessGate gate = new SharpnessGate();
+        for (int i = 0; i < 8; i++) {
+            assertTrue(gate.accept(sharp));
+        }
+        return gate;
+    }
+
+    /**
+     * @param contents   of the QR code
+     * @param blurRadius radius of the box blur, 0 for none
+     * @param contrast   factor by which the luminance is spread around mid grey
+     * @return a frame with a QR code
+     */
+    private static LuminanceSource build(String contents, int blurRadius, double contrast) {
+        byte[] frame = TestFrames.blank(WIDTH, HEIGHT);
+        TestFrames.draw(frame, WIDTH, TestFrames.encode(BarcodeFormat.QR_CODE, contents, 4),
+                20, 20);
+        int[] luminance = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < luminance.length; i++) {
+            luminance[i] = (int) (128 + ((frame[i] & 0xff) - 128) * contrast);
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int j = Math.max(0, y - blurRadius); j <= Math.min(HEIGHT - 1, y + blurRadius); j++) {
+                    for (int i = Math.max(0, x - blurRadius); i <= Math.min(WIDTH - 1, x + blurRadius); i++) {
+                        sum += luminance[j * WIDTH + i];
+                        count++;
+                    }
+                }
+                frame[y * WIDTH + x] = (byte) (sum / count);
+            }
+        }
+        return TestFrames.source(frame, WIDTH, HEIGHT);
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.decoding;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Synthetic luminance frames with barcodes drawn into them, for the decoding tests.
+ */
+final class TestFrames {
+
+    static final byte WHITE = (byte) 0xE0;
+    static final byte BLACK = (byte) 0x20;
+
+    private TestFrames() {
+    }
+
+    /**
+     * @return a white NV21 frame: the luminance plane, followed by neutral chroma
+     */
+    static byte[] blank(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        Arrays.fill(frame, 0, width * height, WHITE);
+        Arrays.fill(frame, width * height, frame.length, (byte) 0x80);
+        return frame;
+    }
+
+    /**
+     * @param modulePixels size of a module, in pixels
+     * @return the barcode, with its quiet zone, one bit per pixel
+     */
+    static BitMatrix encode(BarcodeFormat format, String contents, int modulePixels) {
+        Map<EncodeHintType, Object> hints = new EnumMap<>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, format == BarcodeFormat.QR_CODE ? 4 : 10);
+        try {
+            // Written as small as it goes, then scaled here so modules are exactly that big
+            BitMatrix matrix = new MultiFormatWriter().encode(contents, format, 1, 1, hints);
+            int height = format == BarcodeFormat.QR_CODE ? matrix.getHeight() * modulePixels : 40 * modulePixels;
+            BitMatrix scaled = new BitMatrix(matrix.getWidth() * modulePixels, height);
+            for (int y = 0; y < scaled.getHeight(); y++) {
+                int sourceY = format == BarcodeFormat.QR_CODE ? y / modulePixels : 0;
+                for (int x = 0; x < scaled.getWidth(); x++) {
+                    if (matrix.get(x / modulePixels, sourceY)) {
+                        scaled.set(x, y);
+                    }
+                }
+            }
+            return scaled;
+        } catch (WriterException we) {
+            throw new IllegalArgumentException(we);
+        }
+    }
+
+    /**
+     * Draws the barcode into the luminance plane of a frame from {@link #blank(int, int)}.
+     */
+    static void draw(byte[] frame, int width, BitMatrix barcode, int left, int top) {
+        int height = frame.length * 2 / 3 / width;
+        if (left + barcode.getWidth() > width || top + barcode.getHeight() > height) {
+            throw new IllegalArgumentException("Barcode doesn't fit into the frame");
+        }
+        for (int y = 0; y < barcode.getHeight(); y++) {
+            int offset = (top + y) * width + left;
+            for (int x = 0; x < barcode.getWidth(); x++) {
+                frame[offset + x] = barcode.get(x, y) ? BLACK : WHITE;
+            }
+        }
+    }
+
+    static PlanarYUVLuminanceSource source(byte[] frame, int width, int height) {
+        return new PlanarYUVLuminanceSource(frame, width, height, 0, 0, width, height, false);
+    }
+
+    static BinaryBitmap bitmap(byte[] frame, int width, int height) {
+        return new BinaryBitmap(new HybridBinarizer(source(frame, width, height)));
+    }
+
+}
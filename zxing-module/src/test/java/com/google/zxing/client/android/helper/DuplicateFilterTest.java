@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 ZXing authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.zxing.client.android.helper;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when {@link DuplicateFilter} takes a barcode for one seen before: within the window only,
+ * by content and format together, and for the most recently seen barcodes only.
+ */
+public final class DuplicateFilterTest {
+
+    /**
+     * As in {@link BulkScanManager}.
+     */
+    private static final long WINDOW_MS = 3000L;
+    private static final int MAX_ENTRIES = 256;
+
+    @Test
+    public void testSeenAgainWithinWindow() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        assertFalse(filter.isDuplicate(qrCode("a"), 0L));
+        assertTrue(filter.isDuplicate(qrCode("a"), 1000L));
+    }
+
+    @Test
+    public void testWindowRestartsWhenSeen() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        filter.isDuplicate(qrCode("a"), 0L);
+        assertTrue(filter.isDuplicate(qrCode("a"), WINDOW_MS - 1));
+        // Still in view, so the window counts from the last sighting
+        assertTrue(filter.isDuplicate(qrCode("a"), 2 * WINDOW_MS - 2));
+    }
+
+    @Test
+    public void testExpiredAfterWindow() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        filter.isDuplicate(qrCode("a"), 0L);
+        filter.isDuplicate(qrCode("b"), 1000L);
+        assertFalse(filter.isDuplicate(qrCode("a"), WINDOW_MS));
+        assertTrue(filter.isDuplicate(qrCode("b"), WINDOW_MS + 999L));
+    }
+
+    @Test
+    public void testKeyedByTextAndFormat() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        filter.isDuplicate(new Result("12345670", null, null, BarcodeFormat.EAN_8), 0L);
+        assertFalse(filter.isDuplicate(new Result("12345670", null, null, BarcodeFormat.CODE_128), 1L));
+        assertFalse(filter.isDuplicate(new Result("12345671", null, null, BarcodeFormat.EAN_8), 2L));
+        assertTrue(filter.isDuplicate(new Result("12345670", null, null, BarcodeFormat.EAN_8), 3L));
+    }
+
+    @Test
+    public void testEldestEvicted() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        for (int i = 0; i <= MAX_ENTRIES; i++) {
+            assertFalse(filter.isDuplicate(qrCode(Integer.toString(i)), i));
+        }
+        // The newest ones are remembered, the first one made room for the last
+        assertTrue(filter.isDuplicate(qrCode("1"), MAX_ENTRIES + 1));
+        assertTrue(filter.isDuplicate(qrCode(Integer.toString(MAX_ENTRIES)), MAX_ENTRIES + 2));
+        assertFalse(filter.isDuplicate(qrCode("0"), MAX_ENTRIES + 3));
+    }
+
+    @Test
+    public void testSeenAgainEvictedLast() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        for (int i = 0; i < MAX_ENTRIES; i++) {
+            filter.isDuplicate(qrCode(Integer.toString(i)), i);
+        }
+        assertTrue(filter.isDuplicate(qrCode("0"), MAX_ENTRIES));
+        filter.isDuplicate(qrCode("new"), MAX_ENTRIES + 1);
+        // The one seen longest ago went, not the one seen first
+        assertTrue(filter.isDuplicate(qrCode("0"), MAX_ENTRIES + 2));
+        assertFalse(filter.isDuplicate(qrCode("1"), MAX_ENTRIES + 3));
+    }
+
+    @Test
+    public void testClear() {
+        DuplicateFilter filter = new DuplicateFilter(WINDOW_MS, MAX_ENTRIES);
+        filter.isDuplicate(qrCode("a"), 0L);
+        filter.clear();
+        assertFalse(filter.isDuplicate(qrCode("a"), 1L));
+    }
+
+    private static Result qrCode(String text) {
+        return new Result(text, null, null, BarcodeFormat.QR_CODE);
+    }
+
+}